@@ -0,0 +1,160 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.benchmark;
+
+import java.lang.reflect.Proxy;
+import java.util.Date;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import org.shredzone.cilla.core.model.Category;
+import org.shredzone.cilla.core.model.Page;
+import org.shredzone.cilla.core.model.Tag;
+import org.shredzone.cilla.core.model.embed.FormattedText;
+import org.shredzone.cilla.plugin.publication.RemoteIdStore;
+import org.shredzone.cilla.plugin.publication.TestBeans;
+import org.shredzone.cilla.service.link.LinkBuilder;
+import org.shredzone.cilla.service.link.LinkService;
+import org.shredzone.cilla.web.format.TextFormatter;
+
+/**
+ * Realistic page fixtures and stub beans for the benchmarks.
+ */
+public final class PageFixtures {
+
+    private static final String[] WORDS = {
+        "Lorem", "ipsum", "dolor", "sit", "amet", "consetetur", "sadipscing", "elitr",
+        "sed", "diam", "nonumy", "eirmod", "tempor", "invidunt", "labore", "dolore",
+        "magna", "aliquyam", "erat", "voluptua", "Cocktails", "Caipirinha", "Piña-Colada",
+        "Mojito", "Crème-brûlée", "Smørrebrød", "Zürich", "Ελληνικά", "日本語",
+    };
+
+    private static final String[] TAGS = {
+        "Cocktails", "Piña-Colada", "Caipirinha", "Mojito", "Crème-brûlée", "Smørrebrød",
+        "Zürich", "Ελληνικά", "日本語", "Java", "Mastodon", "Tumblr",
+    };
+
+    private PageFixtures() {
+        // utility class without constructor
+    }
+
+    /**
+     * Creates a page with a long description and the given number of tags. Some of
+     * the tags occur in the description. The page is always the same for the same
+     * parameters.
+     *
+     * @param descriptionLength
+     *            Approximate length of the description and the teaser
+     * @param tagCount
+     *            Number of tags
+     * @return Created {@link Page}
+     */
+    public static Page createPage(int descriptionLength, int tagCount) {
+        Random rnd = new Random(descriptionLength * 31L + tagCount);
+
+        Page page = new Page();
+        page.setId(4711L);
+        page.setTitle("The perfect Piña-Colada");
+        page.setDescription(text(rnd, descriptionLength));
+        page.setTeaser(new FormattedText("<p>" + text(rnd, descriptionLength) + "</p>"));
+        page.setPublication(new Date(1650000000000L));
+
+        for (int ix = 0; ix < tagCount; ix++) {
+            Tag tag = new Tag();
+            tag.setName(ix < TAGS.length ? TAGS[ix] : "Tag" + ix);
+            page.getTags().add(tag);
+        }
+
+        Category category = new Category();
+        category.setName("Drinks");
+        page.getCategories().add(category);
+
+        return page;
+    }
+
+    /**
+     * Creates a stub {@link LinkService}. All links point to the same page.
+     */
+    public static LinkService linkService() {
+        return (LinkService) Proxy.newProxyInstance(LinkService.class.getClassLoader(),
+                new Class<?>[] { LinkService.class },
+                (proxy, method, args) -> method.getReturnType() == LinkBuilder.class
+                        ? linkBuilder() : null);
+    }
+
+    /**
+     * Creates a stub {@link RemoteIdStore} that is always empty.
+     */
+    public static RemoteIdStore remoteIdStore() {
+        return TestBeans.stub(RemoteIdStore.class, (method, args) -> null);
+    }
+
+    /**
+     * Creates a stub {@link TextFormatter} that returns the unformatted text, so only
+     * the plugin's own work is measured.
+     */
+    public static TextFormatter textFormatter() {
+        return new TextFormatter() {
+            @Override
+            public String format(FormattedText text, Supplier<LinkBuilder> linkBuilder) {
+                return text.getText();
+            }
+        };
+    }
+
+    /**
+     * Creates a stub {@link LinkBuilder}. All builder methods return the builder
+     * itself, and the resulting link is a fixed URL.
+     */
+    private static LinkBuilder linkBuilder() {
+        return (LinkBuilder) Proxy.newProxyInstance(LinkBuilder.class.getClassLoader(),
+                new Class<?>[] { LinkBuilder.class },
+                (proxy, method, args) -> {
+                    if (method.getReturnType() == LinkBuilder.class) {
+                        return proxy;
+                    }
+                    if (method.getName().equals("toString")) {
+                        return "https://cilla.example/page/4711/the-perfect-pina-colada";
+                    }
+                    if (method.getName().equals("hashCode")) {
+                        return System.identityHashCode(proxy);
+                    }
+                    if (method.getName().equals("equals")) {
+                        return proxy == args[0];
+                    }
+                    return null;
+                });
+    }
+
+    /**
+     * Creates a random text of the given approximate length.
+     */
+    private static String text(Random rnd, int length) {
+        StringBuilder sb = new StringBuilder(length + 20);
+        while (sb.length() < length) {
+            if (sb.length() > 0) {
+                sb.append(rnd.nextInt(12) == 0 ? ", " : " ");
+            }
+            sb.append(WORDS[rnd.nextInt(WORDS.length)]);
+        }
+        return sb.append('.').toString();
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.mastodon;
+
+import static org.shredzone.cilla.plugin.benchmark.PageFixtures.*;
+import static org.shredzone.cilla.plugin.publication.TestBeans.inject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.shredzone.cilla.core.model.Page;
+import org.shredzone.cilla.core.model.Tag;
+
+/**
+ * Benchmarks the text pipeline of {@link MastodonPublicationServiceImpl}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MastodonTextBenchmark {
+
+    @Param({"0", "10", "50"})
+    private int tagCount;
+
+    @Param({"200", "2000"})
+    private int descriptionLength;
+
+    private MastodonPublicationServiceImpl service;
+    private Page page;
+    private String description;
+    private List<String> tags;
+    private String tagString;
+
+    @Setup
+    public void setup() {
+        page = createPage(descriptionLength, tagCount);
+        description = page.getDescription();
+
+        tags = new ArrayList<>();
+        for (Tag tag : page.getTags()) {
+            tags.add(tag.getName());
+        }
+        tagString = String.join(", #", tags);
+
+        service = new MastodonPublicationServiceImpl();
+        inject(service, "mastodonUseTags", true);
+        inject(service, "mastodonFixedTags", "#cilla #blog");
+        inject(service, "mastodonSeparator", "-");
+        inject(service, "linkService", linkService());
+        inject(service, "mastodonRemoteIdStore", remoteIdStore());
+        service.setup();
+    }
+
+    @Benchmark
+    public String statusToPost() {
+        return service.statusToPost(page, MastodonInstanceLimits.DEFAULT);
+    }
+
+    @Benchmark
+    public String taginize() {
+        return MastodonPublicationServiceImpl.taginize(description, tags, 500);
+    }
+
+    @Benchmark
+    public List<String> splitTags() {
+        return MastodonPublicationServiceImpl.splitTags(tagString);
+    }
+
+}
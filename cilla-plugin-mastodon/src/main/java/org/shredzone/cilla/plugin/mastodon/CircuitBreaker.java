@@ -0,0 +1,119 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.mastodon;
+
+/**
+ * A simple circuit breaker for a remote service.
+ * <p>
+ * The circuit is initially {@link State#CLOSED}, and all calls are permitted. After a
+ * number of consecutive failures, the circuit is {@link State#OPEN}, and calls are
+ * rejected immediately. After a while, the circuit is {@link State#HALF_OPEN}, and a
+ * single probe call is permitted. If it succeeds, the circuit is closed again,
+ * otherwise it is opened again.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class CircuitBreaker {
+
+    /**
+     * State of the circuit.
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN;
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long since;
+
+    /**
+     * Creates a new, closed {@link CircuitBreaker}.
+     *
+     * @param failureThreshold
+     *            Number of consecutive failures that open the circuit
+     * @param openMillis
+     *            Number of milliseconds until an open circuit permits a probe call
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = Math.max(failureThreshold, 1);
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Checks if a call is permitted. If {@code true} is returned, the result of the
+     * call must be reported by either {@link #success()} or {@link #failure()}.
+     *
+     * @return {@code true} if the call is permitted, {@code false} if it must fail fast
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+
+        // Also permits another probe if the previous probe never reported back
+        if (System.currentTimeMillis() - since >= openMillis) {
+            state = State.HALF_OPEN;
+            since = System.currentTimeMillis();
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Checks if a call would be permitted, without changing the state of the circuit.
+     *
+     * @return {@code true} if the circuit is closed, or a probe call would be permitted
+     */
+    public synchronized boolean isPermitted() {
+        return state == State.CLOSED || System.currentTimeMillis() - since >= openMillis;
+    }
+
+    /**
+     * Reports a successful call. The circuit is closed.
+     */
+    public synchronized void success() {
+        state = State.CLOSED;
+        failures = 0;
+    }
+
+    /**
+     * Reports a failed call. The circuit is opened if the failure threshold has been
+     * reached, or if the probe call of a half open circuit has failed.
+     */
+    public synchronized void failure() {
+        failures++;
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            state = State.OPEN;
+            since = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Returns the current {@link State} of the circuit.
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+}
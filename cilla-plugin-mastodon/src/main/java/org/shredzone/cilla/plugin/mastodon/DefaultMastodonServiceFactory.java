@@ -19,20 +19,86 @@
  */
 package org.shredzone.cilla.plugin.mastodon;
 
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 import com.google.gson.Gson;
 import com.sys1yagi.mastodon4j.MastodonClient;
 import okhttp3.OkHttpClient;
 
 /**
  * Default implementation of {@link MastodonServiceFactory}.
+ * <p>
+ * All clients share a single HTTP client, so they also share its connection pool and
+ * threads. The HTTP client is created when the first client is requested.
+ * <p>
+ * Clients are cached per instance and access token, so a batch of pages of the same
+ * user is processed by the same client. The least recently used clients are evicted
+ * if the cache is full.
  */
 public class DefaultMastodonServiceFactory implements MastodonServiceFactory {
 
+    /**
+     * Read timeout of streaming connections, in seconds. Mastodon sends a heartbeat
+     * every 15 seconds.
+     */
+    private static final long STREAMING_READ_TIMEOUT = 60L;
+
+    private static final int CACHE_SIZE = 50;
+
+    private final Gson gson = new Gson();
+    private final Map<List<String>, MastodonClient> cache =
+            new LinkedHashMap<List<String>, MastodonClient>(16, 0.75f, true) {
+                private static final long serialVersionUID = -4518362970421635520L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<String>, MastodonClient> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
+    private volatile OkHttpClient httpClient;
+
     @Override
     public MastodonClient getMastodonClient(String instance, String token) {
-        return new MastodonClient.Builder(instance, new OkHttpClient.Builder(), new Gson())
+        synchronized (cache) {
+            return cache.computeIfAbsent(Arrays.asList(instance, token),
+                    k -> new MastodonClient.Builder(instance, getHttpClient().newBuilder(), gson)
+                            .accessToken(token)
+                            .build());
+        }
+    }
+
+    @Override
+    public MastodonClient getMastodonStreamingClient(String instance, String token) {
+        OkHttpClient.Builder builder = getHttpClient().newBuilder()
+                .readTimeout(STREAMING_READ_TIMEOUT, TimeUnit.SECONDS);
+        return new MastodonClient.Builder(instance, builder, gson)
                 .accessToken(token)
                 .build();
     }
 
+    /**
+     * Returns the shared HTTP client. It is created on the first invocation.
+     *
+     * @return {@link OkHttpClient}
+     */
+    private OkHttpClient getHttpClient() {
+        OkHttpClient result = httpClient;
+        if (result == null) {
+            synchronized (this) {
+                result = httpClient;
+                if (result == null) {
+                    result = new OkHttpClient.Builder()
+                            .addInterceptor(new IdempotencyKeyInterceptor())
+                            .build();
+                    httpClient = result;
+                }
+            }
+        }
+        return result;
+    }
+
 }
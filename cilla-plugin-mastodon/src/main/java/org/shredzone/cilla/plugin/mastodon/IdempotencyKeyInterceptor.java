@@ -0,0 +1,72 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.mastodon;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Adds an {@code Idempotency-Key} header to POST requests. Mastodon then returns the
+ * status that was already created for the same key, instead of posting it again.
+ * <p>
+ * mastodon4j offers no way to set request headers, so the key is passed to the
+ * interceptor via a thread local while the request is executed.
+ *
+ * @author Richard "Shred" Körber
+ */
+class IdempotencyKeyInterceptor implements Interceptor {
+
+    private static final String HEADER = "Idempotency-Key";
+    private static final ThreadLocal<String> KEY = new ThreadLocal<>();
+
+    /**
+     * Invokes the call, sending the given idempotency key with all POST requests that
+     * are executed by the current thread.
+     *
+     * @param key
+     *            Idempotency key to be used
+     * @param call
+     *            Call to be invoked
+     * @return Result of the call
+     */
+    static <T> T withKey(String key, Callable<T> call) throws Exception {
+        KEY.set(key);
+        try {
+            return call.call();
+        } finally {
+            KEY.remove();
+        }
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String key = KEY.get();
+        if (key != null && "POST".equals(request.method())) {
+            request = request.newBuilder().header(HEADER, key).build();
+        }
+        return chain.proceed(request);
+    }
+
+}
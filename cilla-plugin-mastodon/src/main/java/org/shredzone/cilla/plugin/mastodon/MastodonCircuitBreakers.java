@@ -0,0 +1,90 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.mastodon;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.sys1yagi.mastodon4j.MastodonClient;
+import com.sys1yagi.mastodon4j.api.exception.Mastodon4jRequestException;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Keeps a {@link CircuitBreaker} for every Mastodon instance, so an instance that is
+ * down does not delay the editing of pages.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class MastodonCircuitBreakers {
+
+    private final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    private @Value("${mastodon.circuit.failureThreshold:3}") int mastodonFailureThreshold;
+    private @Value("${mastodon.circuit.openDuration:60}") long mastodonOpenDuration;
+
+    /**
+     * Returns the {@link CircuitBreaker} of the instance the client is connected to.
+     *
+     * @param client
+     *            {@link MastodonClient} to get the {@link CircuitBreaker} for
+     * @return {@link CircuitBreaker} of that instance
+     */
+    public CircuitBreaker forClient(MastodonClient client) {
+        return forInstance(client.getInstanceName());
+    }
+
+    /**
+     * Returns the {@link CircuitBreaker} of an instance.
+     *
+     * @param instance
+     *            Name of the Mastodon instance
+     * @return {@link CircuitBreaker} of that instance
+     */
+    CircuitBreaker forInstance(String instance) {
+        return breakers.computeIfAbsent(instance,
+                i -> new CircuitBreaker(mastodonFailureThreshold, getOpenMillis()));
+    }
+
+    /**
+     * Returns the number of milliseconds until an open circuit permits a probe call.
+     */
+    long getOpenMillis() {
+        return TimeUnit.SECONDS.toMillis(mastodonOpenDuration);
+    }
+
+    /**
+     * Checks if the exception indicates that the instance is not available. This is the
+     * case if the instance could not be reached at all, or if it responded with a
+     * server error.
+     *
+     * @param ex
+     *            Exception that was thrown by the call
+     * @return {@code true} if the instance is unavailable
+     */
+    public static boolean isUnavailable(Exception ex) {
+        if (ex instanceof Mastodon4jRequestException) {
+            Mastodon4jRequestException rex = (Mastodon4jRequestException) ex;
+            return !rex.isErrorResponse() || rex.getResponse().code() >= 500;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,203 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.mastodon;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Keeps Mastodon actions that could not be performed because the instance was not
+ * available, and retries them periodically.
+ * <p>
+ * There is at most one pending action per page. A newer action replaces an older one,
+ * as it reflects the latest state of the page.
+ * <p>
+ * The IDs of the pages with pending actions are persisted in a table of their own, so
+ * the actions survive a restart. After the restart, the pages are synchronized with
+ * their current state.
+ * <p>
+ * The publication lease of the page is not kept while an action is pending, as the
+ * instance may be unavailable for a long time. The action is supposed to acquire the
+ * lease again when it is performed.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class MastodonDeferredActions {
+
+    private static final String TABLE = "cilla_mastodon_deferred";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final Map<Long, Runnable> pending = new ConcurrentHashMap<>();
+
+    private @Value("${mastodon.retryDelay:60}") long mastodonRetryDelay;
+
+    private @Resource DataSource dataSource;
+
+    private ScheduledExecutorService scheduler;
+    private JdbcTemplate jdbcTemplate;
+
+    @PostConstruct
+    public void setup() {
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        try {
+            jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + TABLE + " WHERE 1=0", Long.class);
+        } catch (DataAccessException ex) {
+            log.info("Creating table " + TABLE);
+            jdbcTemplate.execute("CREATE TABLE " + TABLE + " ("
+                    + "page_id BIGINT NOT NULL, "
+                    + "deferred BIGINT NOT NULL, "
+                    + "PRIMARY KEY (page_id))");
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "mastodon-deferred-actions");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::retry, mastodonRetryDelay, mastodonRetryDelay, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        if (!pending.isEmpty()) {
+            log.info("{} deferred Mastodon actions are resumed after the restart", pending.size());
+            pending.clear();
+        }
+    }
+
+    /**
+     * Defers an action. If the action fails again, it is supposed to defer itself
+     * again.
+     *
+     * @param pageId
+     *            ID of the page the action is related to
+     * @param action
+     *            Action to be performed later
+     */
+    public void defer(long pageId, Runnable action) {
+        pending.put(pageId, action);
+        persist(pageId);
+    }
+
+    /**
+     * Restores the actions that were pending before the restart. This is done in
+     * background.
+     *
+     * @param restorer
+     *            Creates the action that resumes the synchronization of a page, by its ID
+     */
+    public void restore(LongFunction<Runnable> restorer) {
+        scheduler.execute(() -> {
+            try {
+                List<Long> pageIds = jdbcTemplate.queryForList("SELECT page_id FROM " + TABLE, Long.class);
+                pageIds.forEach(pageId -> pending.putIfAbsent(pageId, restorer.apply(pageId)));
+                if (!pageIds.isEmpty()) {
+                    log.info("Restored {} deferred Mastodon actions", pageIds.size());
+                }
+            } catch (DataAccessException ex) {
+                log.error("Failed to restore the deferred Mastodon actions", ex);
+            }
+        });
+    }
+
+    /**
+     * Checks if there is a pending action for the page.
+     *
+     * @param pageId
+     *            ID of the page
+     * @return {@code true} if an action is pending
+     */
+    public boolean isPending(long pageId) {
+        return pending.containsKey(pageId);
+    }
+
+    /**
+     * Returns the number of pending actions.
+     */
+    public int size() {
+        return pending.size();
+    }
+
+    /**
+     * Retries all pending actions. This is done periodically, but may also be invoked
+     * directly.
+     */
+    void retry() {
+        for (Long pageId : new ArrayList<>(pending.keySet())) {
+            Runnable action = pending.remove(pageId);
+            if (action != null) {
+                try {
+                    action.run();
+                } catch (Exception ex) {
+                    log.warn("Deferred Mastodon action for page id " + pageId + " failed", ex);
+                }
+                if (!pending.containsKey(pageId)) {
+                    unpersist(pageId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Persists the ID of a page with a pending action.
+     */
+    private void persist(long pageId) {
+        try {
+            long now = System.currentTimeMillis();
+            int updated = jdbcTemplate.update("UPDATE " + TABLE + " SET deferred=? WHERE page_id=?", now, pageId);
+            if (updated == 0) {
+                jdbcTemplate.update("INSERT INTO " + TABLE + " (page_id, deferred) VALUES (?, ?)", pageId, now);
+            }
+        } catch (DataAccessException ex) {
+            log.warn("Could not persist the deferred Mastodon action of page id " + pageId, ex);
+        }
+    }
+
+    /**
+     * Removes the ID of a page whose action was performed.
+     */
+    private void unpersist(long pageId) {
+        try {
+            jdbcTemplate.update("DELETE FROM " + TABLE + " WHERE page_id=?", pageId);
+        } catch (DataAccessException ex) {
+            log.warn("Could not remove the deferred Mastodon action of page id " + pageId, ex);
+        }
+    }
+
+}
@@ -25,18 +25,18 @@ import org.shredzone.cilla.core.event.EventType;
 import org.shredzone.cilla.core.event.annotation.EventListener;
 import org.shredzone.cilla.core.event.annotation.OnEvent;
 import org.shredzone.cilla.core.model.Page;
-import org.springframework.stereotype.Component;
+import org.shredzone.cilla.plugin.publication.PublicationEngine;
 
 /**
  * Handles page events for creating, updating and deleting toots.
  *
  * @author Richard "Shred" Körber
  */
-@Component
 @EventListener
 public class MastodonEventListener {
 
-    private @Resource MastodonPublicationService mastodonPublicationService;
+    private @Resource PublicationEngine mastodonPublicationEngine;
+    private @Resource MastodonMetrics mastodonMetrics;
 
     /**
      * Publish a Page to Mastodon.
@@ -45,9 +45,9 @@ public class MastodonEventListener {
      */
     @OnEvent(EventType.PAGE_PUBLISH)
     public void onPagePublish(Page page) {
-        if (page.isPromoted() && !mastodonPublicationService.isRegistered(page)) {
-            mastodonPublicationService.publish(page);
-        }
+        long start = System.nanoTime();
+        mastodonPublicationEngine.onPublish(page);
+        mastodonMetrics.recordEvent(EventType.PAGE_PUBLISH.name(), System.nanoTime() - start);
     }
 
     /**
@@ -57,30 +57,34 @@ public class MastodonEventListener {
      */
     @OnEvent(EventType.PAGE_UPDATE)
     public void onPageUpdate(Page page) {
-        if (page.isPublishedState() && page.getPublication() != null) {
-            boolean isRegistered = mastodonPublicationService.isRegistered(page);
-            if (page.isPromoted() && !isRegistered) {
-                mastodonPublicationService.publish(page);
-            } else if (page.isPromoted() && isRegistered) {
-                // Toots cannot be updated, so ignore this event. If the user wants to
-                // update a toot, he needs to delete it manually before updating the
-                // page.
-            } else if (!page.isPromoted() && isRegistered) {
-                mastodonPublicationService.remove(page);
-            }
-        }
+        long start = System.nanoTime();
+        mastodonPublicationEngine.onUpdate(page);
+        mastodonMetrics.recordEvent(EventType.PAGE_UPDATE.name(), System.nanoTime() - start);
     }
 
     /**
      * Remove a Page at Mastodon.
      *
-     * @param page {@link Page} that has been unpublished or deleted
+     * @param page {@link Page} that has been unpublished
      */
-    @OnEvent({ EventType.PAGE_UNPUBLISH, EventType.PAGE_DELETE })
+    @OnEvent(EventType.PAGE_UNPUBLISH)
     public void onPageUnpublish(Page page) {
-        if (mastodonPublicationService.isRegistered(page)) {
-            mastodonPublicationService.remove(page);
-        }
+        long start = System.nanoTime();
+        mastodonPublicationEngine.onUnpublish(page);
+        mastodonMetrics.recordEvent(EventType.PAGE_UNPUBLISH.name(), System.nanoTime() - start);
+    }
+
+    /**
+     * Remove a deleted Page at Mastodon. The page is gone after the transaction, so the
+     * toot is always removed right away.
+     *
+     * @param page {@link Page} that is deleted
+     */
+    @OnEvent(EventType.PAGE_DELETE)
+    public void onPageDelete(Page page) {
+        long start = System.nanoTime();
+        mastodonPublicationEngine.onDelete(page);
+        mastodonMetrics.recordEvent(EventType.PAGE_DELETE.name(), System.nanoTime() - start);
     }
 
 }
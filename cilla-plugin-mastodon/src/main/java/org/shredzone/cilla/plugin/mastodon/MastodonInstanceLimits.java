@@ -0,0 +1,71 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.mastodon;
+
+/**
+ * Limits of a Mastodon instance that are relevant for composing a toot.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class MastodonInstanceLimits {
+
+    /**
+     * Limits that are used if the instance did not tell otherwise. These are the limits
+     * of a standard Mastodon installation.
+     */
+    public static final MastodonInstanceLimits DEFAULT = new MastodonInstanceLimits(500, 23);
+
+    private final int maxTootLength;
+    private final int shortUrlLength;
+
+    /**
+     * Creates a new {@link MastodonInstanceLimits}.
+     *
+     * @param maxTootLength
+     *            Maximum number of characters of a toot
+     * @param shortUrlLength
+     *            Number of characters that are counted for every URL in a toot
+     */
+    public MastodonInstanceLimits(int maxTootLength, int shortUrlLength) {
+        this.maxTootLength = maxTootLength;
+        this.shortUrlLength = shortUrlLength;
+    }
+
+    /**
+     * Maximum number of characters of a toot.
+     */
+    public int getMaxTootLength() {
+        return maxTootLength;
+    }
+
+    /**
+     * Number of characters that are counted for every URL in a toot, regardless of the
+     * actual URL length.
+     */
+    public int getShortUrlLength() {
+        return shortUrlLength;
+    }
+
+    @Override
+    public String toString() {
+        return "maxTootLength=" + maxTootLength + ", shortUrlLength=" + shortUrlLength;
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.mastodon;
+
+import com.sys1yagi.mastodon4j.MastodonClient;
+
+/**
+ * A service that provides metadata of Mastodon instances.
+ *
+ * @author Richard "Shred" Körber
+ */
+public interface MastodonInstanceService {
+
+    /**
+     * Returns the limits of the instance the client is connected to.
+     * <p>
+     * This method never blocks on the instance. The limits are cached, and fetched in
+     * the background. Until they are known, or if the instance cannot be reached,
+     * {@link MastodonInstanceLimits#DEFAULT} is returned.
+     *
+     * @param client
+     *            {@link MastodonClient} that is connected to the instance
+     * @return {@link MastodonInstanceLimits} of that instance
+     */
+    MastodonInstanceLimits getLimits(MastodonClient client);
+
+}
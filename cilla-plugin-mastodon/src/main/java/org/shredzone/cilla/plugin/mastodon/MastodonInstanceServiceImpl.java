@@ -0,0 +1,211 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.mastodon;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sys1yagi.mastodon4j.MastodonClient;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Default implementation of {@link MastodonInstanceService}.
+ * <p>
+ * The limits of an instance are never fetched while a page is published. If there is
+ * no cache entry yet, or if it has expired, the cached limits (or
+ * {@link MastodonInstanceLimits#DEFAULT}) are used while fresh limits are fetched in
+ * the background. No fetch is attempted while the circuit of the instance is open.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class MastodonInstanceServiceImpl implements MastodonInstanceService {
+
+    private static final long RETRY_DELAY = TimeUnit.MINUTES.toMillis(10);
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final ConcurrentMap<String, CacheEntry> cache = new ConcurrentHashMap<>();
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+    private @Resource MastodonCircuitBreakers mastodonCircuitBreakers;
+
+    private @Value("${mastodon.instanceCacheTtl:86400}") long mastodonInstanceCacheTtl;
+
+    private ExecutorService refresher;
+
+    @PostConstruct
+    public void setup() {
+        refresher = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "mastodon-instance-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refresher.shutdownNow();
+    }
+
+    @Override
+    public MastodonInstanceLimits getLimits(MastodonClient client) {
+        String instance = client.getInstanceName();
+
+        CacheEntry entry = cache.get(instance);
+        MastodonInstanceLimits current = entry != null ? entry.limits : MastodonInstanceLimits.DEFAULT;
+
+        if ((entry == null || entry.isExpired())
+                && mastodonCircuitBreakers.forClient(client).isPermitted()
+                && refreshing.add(instance)) {
+            refresher.execute(() -> refresh(client, current));
+        }
+
+        return current;
+    }
+
+    /**
+     * Fetches the limits of the instance and updates the cache. Nothing is fetched if
+     * the circuit of the instance has been opened in the meantime.
+     *
+     * @param client
+     *            {@link MastodonClient} that is connected to the instance
+     * @param fallback
+     *            {@link MastodonInstanceLimits} to be used if the instance could not
+     *            be reached
+     */
+    private void refresh(MastodonClient client, MastodonInstanceLimits fallback) {
+        String instance = client.getInstanceName();
+        try {
+            CircuitBreaker circuit = mastodonCircuitBreakers.forClient(client);
+            if (circuit.tryAcquire()) {
+                cache.put(instance, fetch(client, circuit, fallback));
+            }
+        } finally {
+            refreshing.remove(instance);
+        }
+    }
+
+    /**
+     * Fetches the limits from the instance.
+     *
+     * @param client
+     *            {@link MastodonClient} that is connected to the instance
+     * @param circuit
+     *            {@link CircuitBreaker} of the instance, the result is reported to it
+     * @param fallback
+     *            {@link MastodonInstanceLimits} to be used if the instance could not
+     *            be reached
+     * @return {@link CacheEntry} with the limits
+     */
+    private CacheEntry fetch(MastodonClient client, CircuitBreaker circuit,
+                MastodonInstanceLimits fallback) {
+        String instance = client.getInstanceName();
+        boolean reached = false;
+        try (Response response = client.get("instance", null)) {
+            reached = response.code() < 500;
+            if (!response.isSuccessful()) {
+                throw new IOException("HTTP status " + response.code());
+            }
+
+            MastodonInstanceLimits limits = parseLimits(response.body().string());
+            log.debug("Limits of Mastodon instance {}: {}", instance, limits);
+            return new CacheEntry(limits, TimeUnit.SECONDS.toMillis(mastodonInstanceCacheTtl));
+        } catch (Exception ex) {
+            log.warn("Could not fetch the limits of Mastodon instance " + instance
+                    + ", using " + fallback, ex);
+            return new CacheEntry(fallback, RETRY_DELAY);
+        } finally {
+            if (reached) {
+                circuit.success();
+            } else {
+                circuit.failure();
+            }
+        }
+    }
+
+    /**
+     * Reads the limits from an instance document. Limits that are not found in the
+     * document are taken from {@link MastodonInstanceLimits#DEFAULT}.
+     *
+     * @param json
+     *            Instance document, as returned by {@code /api/v1/instance}
+     * @return {@link MastodonInstanceLimits} of that instance
+     */
+    static MastodonInstanceLimits parseLimits(String json) {
+        JsonObject root = new JsonParser().parse(json).getAsJsonObject();
+
+        int maxTootLength = MastodonInstanceLimits.DEFAULT.getMaxTootLength();
+        int shortUrlLength = MastodonInstanceLimits.DEFAULT.getShortUrlLength();
+
+        JsonElement configuration = root.get("configuration");
+        if (configuration != null && configuration.isJsonObject()) {
+            JsonElement statuses = configuration.getAsJsonObject().get("statuses");
+            if (statuses != null && statuses.isJsonObject()) {
+                JsonObject limits = statuses.getAsJsonObject();
+                if (limits.has("max_characters")) {
+                    maxTootLength = limits.get("max_characters").getAsInt();
+                }
+                if (limits.has("characters_reserved_per_url")) {
+                    shortUrlLength = limits.get("characters_reserved_per_url").getAsInt();
+                }
+            }
+        }
+
+        // Pleroma and some Mastodon forks
+        if (root.has("max_toot_chars")) {
+            maxTootLength = root.get("max_toot_chars").getAsInt();
+        }
+
+        return new MastodonInstanceLimits(maxTootLength, shortUrlLength);
+    }
+
+    /**
+     * An entry of the limits cache.
+     */
+    private static class CacheEntry {
+        private final MastodonInstanceLimits limits;
+        private final long expires;
+
+        public CacheEntry(MastodonInstanceLimits limits, long ttl) {
+            this.limits = limits;
+            this.expires = System.currentTimeMillis() + ttl;
+        }
+
+        public boolean isExpired() {
+            return System.currentTimeMillis() > expires;
+        }
+    }
+
+}
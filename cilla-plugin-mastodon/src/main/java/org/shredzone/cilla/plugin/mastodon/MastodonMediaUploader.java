@@ -0,0 +1,307 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.mastodon;
+
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
+import static org.shredzone.cilla.plugin.mastodon.MastodonPublicationServiceImpl.PROPKEY_MASTODON_MEDIA_IDS;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.activation.DataSource;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+
+import com.sys1yagi.mastodon4j.MastodonClient;
+import com.sys1yagi.mastodon4j.api.entity.Attachment;
+import com.sys1yagi.mastodon4j.api.method.Media;
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
+import org.shredzone.cilla.core.model.GallerySection;
+import org.shredzone.cilla.core.model.Page;
+import org.shredzone.cilla.core.model.Picture;
+import org.shredzone.cilla.core.repository.StoreDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Uploads the first pictures of a page's galleries as media attachments.
+ * <p>
+ * The pictures are streamed from the picture store into the upload request, so they
+ * are never read into memory as a whole. The uploads run in parallel, in a bounded
+ * pool of upload threads per instance.
+ * <p>
+ * Mastodon deletes media that are not attached to a status after a while. For this
+ * reason, the upload time is kept with every media ID, and pictures are uploaded again
+ * if the previous upload is too old.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class MastodonMediaUploader {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final ConcurrentMap<String, ExecutorService> executors = new ConcurrentHashMap<>();
+
+    private @Value("${mastodon.mediaCount:0}") int mastodonMediaCount;
+    private @Value("${mastodon.mediaConcurrency:2}") int mastodonMediaConcurrency;
+    private @Value("${mastodon.mediaMaxAge:3600}") long mastodonMediaMaxAge;
+
+    private @Resource StoreDao storeDao;
+
+    private volatile boolean shutdown;
+
+    @PreDestroy
+    public void shutdown() {
+        shutdown = true;
+        executors.values().forEach(ExecutorService::shutdownNow);
+    }
+
+    /**
+     * Uploads the first pictures of the page's galleries. Pictures that could not be
+     * uploaded are skipped. Failures are reported to the {@link CircuitBreaker}.
+     * <p>
+     * The media IDs are kept in the page properties until the status was posted, so
+     * the pictures are not uploaded again when the post is retried. Media IDs that are
+     * older than {@code mastodon.mediaMaxAge} seconds are not used again, as the
+     * instance might have deleted the media in the meantime.
+     *
+     * @param client
+     *            {@link MastodonClient} to upload the pictures with
+     * @param circuit
+     *            {@link CircuitBreaker} of the instance
+     * @param page
+     *            {@link Page} to get the pictures from
+     * @return List of the media IDs of the uploaded pictures, in gallery order. Empty if
+     *         there are no pictures to upload.
+     */
+    public List<Long> upload(MastodonClient client, CircuitBreaker circuit, Page page) {
+        if (mastodonMediaCount <= 0) {
+            return Collections.emptyList();
+        }
+
+        long now = System.currentTimeMillis();
+        Map<Long, UploadedMedia> uploaded = parseMediaIds(page, now);
+
+        // Picture entities must only be accessed by the current thread
+        List<Picture> pictures = page.getSections().stream()
+                .filter(GallerySection.class::isInstance)
+                .map(GallerySection.class::cast)
+                .flatMap(section -> section.getPictures().stream())
+                .limit(mastodonMediaCount)
+                .collect(toList());
+
+        ExecutorService executor = getExecutor(client.getInstanceName());
+
+        Map<Long, Future<Long>> uploads = new LinkedHashMap<>();
+        for (Picture picture : pictures) {
+            if (uploaded.containsKey(picture.getId())) {
+                continue;
+            }
+
+            DataSource ds = access(picture);
+            if (ds != null) {
+                uploads.put(picture.getId(), executor.submit(() -> upload(client, ds)));
+            }
+        }
+
+        for (Map.Entry<Long, Future<Long>> upload : uploads.entrySet()) {
+            try {
+                uploaded.put(upload.getKey(), new UploadedMedia(upload.getValue().get(), now));
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (!(cause instanceof Exception) || MastodonCircuitBreakers.isUnavailable((Exception) cause)) {
+                    circuit.failure();
+                }
+                log.warn("Failed to upload a picture of page id " + page.getId(), cause);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                uploads.values().forEach(it -> it.cancel(true));
+                break;
+            }
+        }
+
+        if (!uploaded.isEmpty()) {
+            page.getProperties().put(PROPKEY_MASTODON_MEDIA_IDS, uploaded.entrySet().stream()
+                    .map(e -> e.getKey() + "=" + e.getValue().mediaId + "@" + e.getValue().uploaded)
+                    .collect(joining(",")));
+        } else {
+            page.getProperties().remove(PROPKEY_MASTODON_MEDIA_IDS);
+        }
+
+        return pictures.stream()
+                .map(Picture::getId)
+                .map(uploaded::get)
+                .filter(Objects::nonNull)
+                .map(media -> media.mediaId)
+                .collect(toList());
+    }
+
+    /**
+     * Returns the upload executor of an instance. Each instance has its own fixed pool
+     * of {@code mastodon.mediaConcurrency} threads, so the number of concurrent uploads
+     * per instance is limited, and further uploads are queued.
+     *
+     * @param instance
+     *            Name of the Mastodon instance
+     * @return {@link ExecutorService} for uploading to that instance
+     */
+    private ExecutorService getExecutor(String instance) {
+        if (shutdown) {
+            throw new IllegalStateException("Media uploader has been shut down");
+        }
+        return executors.computeIfAbsent(instance, i ->
+                Executors.newFixedThreadPool(Math.max(mastodonMediaConcurrency, 1), r -> {
+                    Thread thread = new Thread(r, "mastodon-media-" + i);
+                    thread.setDaemon(true);
+                    return thread;
+                }));
+    }
+
+    /**
+     * Reads the media IDs of the pictures that have already been uploaded. Media IDs
+     * that are too old, or that were stored without upload time, are skipped.
+     *
+     * @param page
+     *            {@link Page} to read the media IDs from
+     * @param now
+     *            Current time, in milliseconds
+     * @return Map of picture IDs to {@link UploadedMedia}
+     */
+    private Map<Long, UploadedMedia> parseMediaIds(Page page, long now) {
+        Map<Long, UploadedMedia> result = new HashMap<>();
+        String mediaIds = page.getProperties().get(PROPKEY_MASTODON_MEDIA_IDS);
+        if (mediaIds != null && !mediaIds.isEmpty()) {
+            long oldest = now - TimeUnit.SECONDS.toMillis(mastodonMediaMaxAge);
+            try {
+                for (String entry : mediaIds.split(",")) {
+                    int pos = entry.indexOf('=');
+                    int at = entry.indexOf('@', pos);
+                    long uploaded = at >= 0 ? Long.parseLong(entry.substring(at + 1)) : 0L;
+                    if (at < 0 || uploaded < oldest) {
+                        log.debug("Media of picture {} of page id {} is outdated, uploading again",
+                                entry.substring(0, pos), page.getId());
+                        continue;
+                    }
+                    result.put(Long.parseLong(entry.substring(0, pos)),
+                            new UploadedMedia(Long.parseLong(entry.substring(pos + 1, at)), uploaded));
+                }
+            } catch (RuntimeException ex) {
+                log.warn("Ignoring bad media IDs of page id " + page.getId() + ": " + mediaIds, ex);
+                result.clear();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets access to the image of a picture.
+     *
+     * @param picture
+     *            {@link Picture} to access
+     * @return {@link DataSource} of the picture's image, or {@code null} if the image
+     *         could not be accessed
+     */
+    private DataSource access(Picture picture) {
+        try {
+            return storeDao.access(picture.getImage());
+        } catch (Exception ex) {
+            log.warn("Could not access picture id " + picture.getId(), ex);
+            return null;
+        }
+    }
+
+    /**
+     * Uploads a single image.
+     *
+     * @param client
+     *            {@link MastodonClient} to upload the image with
+     * @param ds
+     *            {@link DataSource} of the image
+     * @return Media ID of the uploaded image
+     */
+    private Long upload(MastodonClient client, DataSource ds) throws Exception {
+        String name = ds.getName() != null ? ds.getName() : "picture";
+        MultipartBody.Part part = MultipartBody.Part.createFormData("file", name, new StreamingBody(ds));
+        Attachment attachment = new Media(client).postMedia(part).execute();
+        return attachment.getId();
+    }
+
+    /**
+     * The media ID of an uploaded picture, and the time of the upload.
+     */
+    private static class UploadedMedia {
+        private final long mediaId;
+        private final long uploaded;
+
+        public UploadedMedia(long mediaId, long uploaded) {
+            this.mediaId = mediaId;
+            this.uploaded = uploaded;
+        }
+    }
+
+    /**
+     * A {@link RequestBody} that streams the content of a {@link DataSource}.
+     */
+    private static class StreamingBody extends RequestBody {
+        private final DataSource ds;
+
+        public StreamingBody(DataSource ds) {
+            this.ds = ds;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return ds.getContentType() != null ? MediaType.parse(ds.getContentType()) : null;
+        }
+
+        @Override
+        public long contentLength() {
+            return -1L;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            try (InputStream in = ds.getInputStream(); Source source = Okio.source(in)) {
+                sink.writeAll(source);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.mastodon;
+
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.shredzone.cilla.plugin.publication.PublicationMetrics;
+import org.shredzone.cilla.plugin.publication.PublicationMetricsListener;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * {@link PublicationMetrics} of the Mastodon operations.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class MastodonMetrics extends PublicationMetrics {
+
+    public MastodonMetrics() {
+        super("mastodon");
+    }
+
+    @Autowired(required = false)
+    @Override
+    public void setListeners(List<PublicationMetricsListener> listeners) {
+        super.setListeners(listeners);
+    }
+
+    @PostConstruct
+    public void setup() {
+        register();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        unregister();
+    }
+
+}
@@ -57,4 +57,17 @@ public interface MastodonPublicationService {
      */
     boolean isRegistered(Page page);
 
+    /**
+     * Unregisters a {@link Page} whose status has been deleted at Mastodon.
+     * <p>
+     * Nothing happens if the page does not exist anymore, or if it is registered with
+     * a different status.
+     *
+     * @param pageId
+     *            ID of the {@link Page} to unregister
+     * @param statusId
+     *            ID of the deleted status
+     */
+    void unregister(long pageId, long statusId);
+
 }
@@ -22,11 +22,13 @@ package org.shredzone.cilla.plugin.mastodon;
 import static java.util.stream.Collectors.toList;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
-import java.util.regex.Matcher;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import javax.annotation.PostConstruct;
@@ -41,28 +43,40 @@ import org.shredzone.cilla.core.model.Page;
 import org.shredzone.cilla.core.model.Tag;
 import org.shredzone.cilla.core.model.User;
 import org.shredzone.cilla.core.repository.PageDao;
+import org.shredzone.cilla.plugin.publication.PublicationCall;
+import org.shredzone.cilla.plugin.publication.PublicationDispatcher;
+import org.shredzone.cilla.plugin.publication.PublicationMetrics;
+import org.shredzone.cilla.plugin.publication.RemoteId;
+import org.shredzone.cilla.plugin.publication.RemoteIdStore;
 import org.shredzone.cilla.service.link.LinkService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 /**
  * Default implementation of {@link MastodonPublicationService}.
  *
  * @author Richard "Shred" Körber
  */
-@Service
 @Transactional
 public class MastodonPublicationServiceImpl implements MastodonPublicationService {
     public static final String PROPKEY_MASTODON_ID = "mastodon.id";
     public static final String PROPKEY_MASTODON_LINK = "mastodon.url";
     public static final String PROPKEY_MASTODON_INSTANCE = "mastodon.instance";
     public static final String PROPKEY_MASTODON_TOKEN = "mastodon.token";
+    public static final String PROPKEY_MASTODON_IDEMPOTENCY_KEY = "mastodon.idempotencyKey";
+    public static final String PROPKEY_MASTODON_MEDIA_IDS = "mastodon.mediaIds";
 
-    private static final int MAX_TOOT_LENGTH = 500;  // TODO: read from API if possible
-    private static final int SHORT_URL_LENGTH = 23;  // TODO: read from API if possible
+    private static final String DEFERRED = "deferred";
+
+    // Mastodon remembers idempotency keys for one hour
+    private static final long IDEMPOTENCY_WINDOW = TimeUnit.HOURS.toMillis(1);
+
+    private static final Pattern TAG_SEPARATOR = Pattern.compile("[ ,;]+");
+    private static final Pattern TAG_NOISE = Pattern.compile("(\\s|#)+");
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
@@ -75,14 +89,34 @@ public class MastodonPublicationServiceImpl implements MastodonPublicationServic
     private @Value("${mastodon.visibility}") Status.Visibility mastodonVisibility;
 
     private @Resource MastodonServiceFactory mastodonServiceFactory;
+    private @Resource MastodonInstanceService mastodonInstanceService;
+    private @Resource MastodonThreadIndex mastodonThreadIndex;
+    private @Resource MastodonCircuitBreakers mastodonCircuitBreakers;
+    private @Resource MastodonDeferredActions mastodonDeferredActions;
+    private @Resource MastodonMediaUploader mastodonMediaUploader;
+    private @Resource MastodonReconciler mastodonReconciler;
+    private @Resource MastodonStreamingSync mastodonStreamingSync;
+    private @Resource MastodonMetrics mastodonMetrics;
+    private @Resource PublicationDispatcher mastodonPublicationDispatcher;
+    private @Resource RemoteIdStore mastodonRemoteIdStore;
     private @Resource PageDao pageDao;
     private @Resource LinkService linkService;
+    private @Resource PlatformTransactionManager transactionManager;
 
     private List<String> fixedTags;
+    private TransactionTemplate transactionTemplate;
 
     @PostConstruct
     public void setup() {
         fixedTags = Collections.unmodifiableList(splitTags(mastodonFixedTags));
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        mastodonRemoteIdStore.migrate(page -> {
+            String mastodonId = page.getProperties().get(PROPKEY_MASTODON_ID);
+            return mastodonId != null
+                    ? new RemoteId(page.getId(), mastodonId, page.getProperties().get(PROPKEY_MASTODON_LINK))
+                    : null;
+        });
+        mastodonDeferredActions.restore(pageId -> () -> resume(pageId, null, null, null));
     }
 
     @Override
@@ -92,25 +126,50 @@ public class MastodonPublicationServiceImpl implements MastodonPublicationServic
             return;
         }
 
-        if (isRegistered(page)) {
+        // Stale status IDs have already been removed by isRegistered(), so there is no
+        // need to check the status at the instance again
+        if (getStatusId(page) != null) {
             log.warn("Attempt to resubmit an already submitted page at Mastodon (page id {})", page.getId());
             return;
         }
 
+        PublicationCall call = mastodonMetrics.start("publish", page.getId());
+        MastodonClient client = createMastodonClient(page.getCreator());
+        CircuitBreaker circuit = mastodonCircuitBreakers.forClient(client);
+        if (!circuit.tryAcquire()) {
+            defer(page, client);
+            call.finish(DEFERRED);
+            return;
+        }
+
+        String outcome = PublicationMetrics.SUCCESS;
         try {
-            MastodonClient client = createMastodonClient(page.getCreator());
             Statuses statuses = new Statuses(client);
 
-            String statusLine = statusToPost(page);
+            String statusLine = statusToPost(page, mastodonInstanceService.getLimits(client));
+
+            List<Long> mediaIds = mastodonMediaUploader.upload(client, circuit, page);
 
-            Long inReplyTo = mastodonThreading ? findInReplyTo(page) : null;
-            Status status = statuses
-                    .postStatus(statusLine, inReplyTo, null, mastodonSensitive, null, mastodonVisibility)
-                    .execute();
+            Long inReplyTo = mastodonThreading ? mastodonThreadIndex.findLatestStatus(page) : null;
 
+            // The key is kept until the status was posted successfully, so a status that
+            // was accepted despite an error is not posted twice by the deferred retry.
             Map<String, String> props = page.getProperties();
+            String idempotencyKey = idempotencyKey(props, System.currentTimeMillis());
+
+            Status status = IdempotencyKeyInterceptor.withKey(idempotencyKey, () -> statuses
+                    .postStatus(statusLine, inReplyTo, mediaIds.isEmpty() ? null : mediaIds,
+                            mastodonSensitive, null, mastodonVisibility)
+                    .execute());
+            circuit.success();
+
             props.put(PROPKEY_MASTODON_ID, String.valueOf(status.getId()));
             props.put(PROPKEY_MASTODON_LINK, status.getUrl());
+            props.remove(PROPKEY_MASTODON_IDEMPOTENCY_KEY);
+            props.remove(PROPKEY_MASTODON_MEDIA_IDS);
+            mastodonRemoteIdStore.put(page.getId(), String.valueOf(status.getId()), status.getUrl());
+            mastodonThreadIndex.published(page, status.getId());
+            mastodonStreamingSync.open(page.getCreator());
 
             StringBuilder sb = new StringBuilder("Registered page id ");
             sb.append(page.getId()).append(", Status ID ").append(status.getId());
@@ -119,7 +178,14 @@ public class MastodonPublicationServiceImpl implements MastodonPublicationServic
             }
             log.info(sb.toString());
         } catch (Exception ex) {
+            outcome = outcome(ex);
+            report(circuit, ex);
             log.warn("Failed to submit a Mastodon status for page id " + page.getId(), ex);
+            if (MastodonCircuitBreakers.isUnavailable(ex)) {
+                defer(page, client);
+            }
+        } finally {
+            call.finish(outcome);
         }
     }
 
@@ -133,17 +199,36 @@ public class MastodonPublicationServiceImpl implements MastodonPublicationServic
         Long statusId = getStatusId(page);
 
         if (statusId != null) {
+            PublicationCall call = mastodonMetrics.start("remove", page.getId());
+            MastodonClient client = createMastodonClient(page.getCreator());
+            CircuitBreaker circuit = mastodonCircuitBreakers.forClient(client);
+            if (!circuit.tryAcquire()) {
+                defer(page, client);
+                call.finish(DEFERRED);
+                return;
+            }
+
+            String outcome = PublicationMetrics.SUCCESS;
             try {
-                MastodonClient client = createMastodonClient(page.getCreator());
                 Statuses statuses = new Statuses(client);
                 statuses.deleteStatus(statusId);
+                circuit.success();
 
                 page.getProperties().remove(PROPKEY_MASTODON_ID);
                 page.getProperties().remove(PROPKEY_MASTODON_LINK);
+                mastodonRemoteIdStore.remove(page.getId());
+                mastodonThreadIndex.removed(page, statusId);
 
                 log.info("Deleted page id " + page.getId() + ", Mastodon status ID " + statusId);
             } catch (Exception ex) {
+                outcome = outcome(ex);
+                report(circuit, ex);
                 log.warn("Failed to delete a Mastodon status for page id " + page.getId(), ex);
+                if (MastodonCircuitBreakers.isUnavailable(ex)) {
+                    defer(page, client);
+                }
+            } finally {
+                call.finish(outcome);
             }
         }
     }
@@ -155,51 +240,243 @@ public class MastodonPublicationServiceImpl implements MastodonPublicationServic
             return false;
         }
 
+        if (mastodonReconciler.isEnabled() || mastodonStreamingSync.isEnabled()) {
+            // Stale status IDs are removed by the reconciler or the streaming sync. With
+            // the reconciler alone, they are detected up to one interval later.
+            return true;
+        }
+
+        MastodonClient client = createMastodonClient(page.getCreator());
+        CircuitBreaker circuit = mastodonCircuitBreakers.forClient(client);
+        if (!circuit.tryAcquire()) {
+            // The instance is unavailable, so trust the local state
+            return true;
+        }
+
+        PublicationCall call = mastodonMetrics.start("isRegistered", page.getId());
         try {
-            MastodonClient client = createMastodonClient(page.getCreator());
             Statuses statuses = new Statuses(client);
             statuses.getStatus(statusId).execute();
-        } catch (Mastodon4jRequestException ex) {
-            if (ex.getResponse().code() != HttpStatus.SC_NOT_FOUND) {
-                log.error("Mastodon returned HTTP status " + ex.getResponse().code() + " for page id " + page.getId(), ex);
-            }
-            return false;
+            circuit.success();
+            call.success();
         } catch (Exception ex) {
-            log.warn("Failed to check Mastodon status id " + statusId + " for page id " + page.getId(), ex);
+            call.finish(outcome(ex));
+            report(circuit, ex);
+            if (MastodonCircuitBreakers.isUnavailable(ex)) {
+                log.warn("Failed to check Mastodon status id " + statusId + " for page id " + page.getId(), ex);
+                return true;
+            }
+
+            int code = ((Mastodon4jRequestException) ex).getResponse().code();
+            if (code == HttpStatus.SC_NOT_FOUND) {
+                unregister(page, statusId);
+            } else {
+                log.error("Mastodon returned HTTP status " + code + " for page id " + page.getId(), ex);
+            }
             return false;
         }
 
         return true;
     }
 
+    @Override
+    public void unregister(long pageId, long statusId) {
+        RemoteId remoteId = mastodonRemoteIdStore.find(pageId);
+        Page page = remoteId != null && remoteId.getId().equals(String.valueOf(statusId))
+                ? pageDao.fetch(pageId) : null;
+        if (page != null) {
+            unregister(page, statusId);
+        } else {
+            mastodonThreadIndex.removed(statusId);
+        }
+    }
+
+    /**
+     * Unregisters a page whose status does not exist anymore at Mastodon.
+     *
+     * @param page
+     *            {@link Page} to unregister
+     * @param statusId
+     *            ID of the deleted status
+     */
+    private void unregister(Page page, long statusId) {
+        page.getProperties().remove(PROPKEY_MASTODON_ID);
+        page.getProperties().remove(PROPKEY_MASTODON_LINK);
+        mastodonRemoteIdStore.remove(page.getId());
+        mastodonThreadIndex.removed(page, statusId);
+        log.info("Unregistered page id {}, Mastodon status ID {} does not exist anymore", page.getId(), statusId);
+    }
+
     /**
-     * Finds the most recent page with the same subject and a Mastodon ID. The result can
-     * be used to attach this page to an earlier tweet of the related subject.
+     * Defers the synchronization of a page, because its Mastodon instance is currently
+     * unavailable or failed to respond. When the synchronization is retried, the page is published or
+     * removed, depending on its state at that time. The lease of the page is not kept
+     * in the meantime, but acquired again by the dispatcher when the page is retried.
      *
      * @param page
-     *         {@link Page} that is to be tooted
-     * @return Toot ID of a related earlier page with the same subject, or {@code null}
-     * if there is no such page.
+     *            {@link Page} to synchronize later
+     * @param client
+     *            {@link MastodonClient} of the page's creator
      */
-    private Long findInReplyTo(Page page) {
-        String subject = page.getSubject();
-        if (subject == null) {
+    private void defer(Page page, MastodonClient client) {
+        long pageId = page.getId();
+        Long statusId = getStatusId(page);
+
+        log.info("Mastodon instance {} is unavailable, deferring page id {}", client.getInstanceName(), pageId);
+
+        mastodonDeferredActions.defer(pageId, () -> resume(pageId, page, client, statusId));
+    }
+
+    /**
+     * Resumes a deferred synchronization of a page. If the page has been deleted in the
+     * meantime, its status is deleted.
+     *
+     * @param pageId
+     *            ID of the page
+     * @param page
+     *            {@link Page} at the time it was deferred, or {@code null} if the action
+     *            was restored after a restart
+     * @param client
+     *            {@link MastodonClient} of the page's creator, or {@code null} if the
+     *            action was restored after a restart
+     * @param statusId
+     *            ID of the page's status at the time it was deferred, or {@code null}
+     */
+    private void resume(long pageId, Page page, MastodonClient client, Long statusId) {
+        transactionTemplate.execute(tx -> {
+            Page current = pageDao.fetch(pageId);
+            if (current != null) {
+                mastodonPublicationDispatcher.dispatch(current, this::synchronize);
+            } else if (statusId != null && client != null) {
+                mastodonPublicationDispatcher.invoke(page, p -> deleteOrphan(p, client, statusId));
+            } else if (page == null) {
+                // The creator of a deleted page is unknown after a restart
+                RemoteId remoteId = mastodonRemoteIdStore.find(pageId);
+                if (remoteId != null) {
+                    log.warn("Page id {} was deleted while its Mastodon action was deferred,"
+                            + " status ID {} must be deleted manually", pageId, remoteId.getId());
+                }
+            }
             return null;
+        });
+    }
+
+    /**
+     * Publishes or removes the page, depending on its current state.
+     *
+     * @param page
+     *            {@link Page} to synchronize
+     */
+    private void synchronize(Page page) {
+        boolean promoted = page.isPromoted() && page.isPublishedState() && page.getPublication() != null;
+        boolean registered = isRegistered(page);
+        if (promoted && !registered) {
+            publish(page);
+        } else if (!promoted && registered) {
+            remove(page);
+        }
+    }
+
+    /**
+     * Deletes the status of a page that has been deleted in the meantime.
+     *
+     * @param page
+     *            {@link Page} that has been deleted
+     * @param client
+     *            {@link MastodonClient} of the page's creator
+     * @param statusId
+     *            Status ID to delete
+     */
+    private void deleteOrphan(Page page, MastodonClient client, long statusId) {
+        long pageId = page.getId();
+        CircuitBreaker circuit = mastodonCircuitBreakers.forClient(client);
+        if (!circuit.tryAcquire()) {
+            mastodonDeferredActions.defer(pageId, () -> mastodonPublicationDispatcher.invoke(page,
+                    p -> deleteOrphan(p, client, statusId)));
+            return;
         }
 
+        PublicationCall call = mastodonMetrics.start("remove", pageId);
         try {
-            return pageDao.fetchSameSubject(page).stream()
-                    .map(p -> p.getProperties().get(PROPKEY_MASTODON_ID))
-                    .filter(Objects::nonNull)
-                    .reduce((first, second) -> second)
-                    .map(Long::parseLong)
-                    .orElse(null);
-        } catch (NumberFormatException ex) {
-            log.error("Could not parse a Mastodon ID while finding the last toot of page ID " + page.getId(), ex);
-            return null;
+            new Statuses(client).deleteStatus(statusId);
+            circuit.success();
+            call.success();
+            mastodonRemoteIdStore.remove(pageId);
+            mastodonThreadIndex.removed(statusId);
+            log.info("Deleted Mastodon status ID " + statusId + " of deleted page id " + pageId);
+        } catch (Exception ex) {
+            call.finish(outcome(ex));
+            report(circuit, ex);
+            log.warn("Failed to delete Mastodon status ID " + statusId + " of deleted page id " + pageId, ex);
+            if (MastodonCircuitBreakers.isUnavailable(ex)) {
+                mastodonDeferredActions.defer(pageId, () -> mastodonPublicationDispatcher.invoke(page,
+                    p -> deleteOrphan(p, client, statusId)));
+            }
+        }
+    }
+
+    /**
+     * Returns the idempotency key for posting the status of a page.
+     * <p>
+     * The key is stored in the page properties together with the time it was created.
+     * If there is no key yet, or if the key is older than the time Mastodon remembers
+     * idempotency keys, a new key is created and stored.
+     *
+     * @param props
+     *            Page properties
+     * @param now
+     *            Current time, in milliseconds
+     * @return Idempotency key to be used
+     */
+    static String idempotencyKey(Map<String, String> props, long now) {
+        String stored = props.get(PROPKEY_MASTODON_IDEMPOTENCY_KEY);
+        if (stored != null) {
+            int pos = stored.lastIndexOf('@');
+            try {
+                if (pos > 0 && now - Long.parseLong(stored.substring(pos + 1)) < IDEMPOTENCY_WINDOW) {
+                    return stored.substring(0, pos);
+                }
+            } catch (NumberFormatException ex) {
+                // ignore the malformed key, and create a new one
+            }
+        }
+
+        String key = UUID.randomUUID().toString();
+        props.put(PROPKEY_MASTODON_IDEMPOTENCY_KEY, key + "@" + now);
+        return key;
+    }
+
+    /**
+     * Reports a failed call to the {@link CircuitBreaker}. Only failures that indicate
+     * an unavailable instance are counted as failure.
+     *
+     * @param circuit
+     *            {@link CircuitBreaker} of the instance
+     * @param ex
+     *            Exception that was thrown by the call
+     */
+    private static void report(CircuitBreaker circuit, Exception ex) {
+        if (MastodonCircuitBreakers.isUnavailable(ex)) {
+            circuit.failure();
+        } else {
+            circuit.success();
         }
     }
 
+    /**
+     * Returns the metrics outcome of a failed call.
+     *
+     * @param ex
+     *            Exception that was thrown by the call
+     * @return Outcome, which is the HTTP status if there was a response
+     */
+    private static String outcome(Exception ex) {
+        if (ex instanceof Mastodon4jRequestException && ((Mastodon4jRequestException) ex).isErrorResponse()) {
+            return PublicationMetrics.outcome(((Mastodon4jRequestException) ex).getResponse().code());
+        }
+        return PublicationMetrics.ERROR;
+    }
+
     /**
      * Creates a new {@link MastodonClient} for the given user.
      *
@@ -221,12 +498,11 @@ public class MastodonPublicationServiceImpl implements MastodonPublicationServic
      * @return Status ID, or {@code null} if the status is not published yet at Mastodon.
      */
     private Long getStatusId(Page page) {
+        RemoteId remoteId = mastodonRemoteIdStore.find(page.getId());
         try {
-            String mastodonId = page.getProperties().get(PROPKEY_MASTODON_ID);
-            return mastodonId != null ? Long.parseLong(mastodonId) : null;
+            return remoteId != null ? Long.parseLong(remoteId.getId()) : null;
         } catch (NumberFormatException ex) {
-            log.error("Cannot parse property key '" + PROPKEY_MASTODON_ID
-                    + "' for page ID " + page.getId(), ex);
+            log.error("Cannot parse the Mastodon ID of page ID " + page.getId(), ex);
             return null;
         }
     }
@@ -238,9 +514,11 @@ public class MastodonPublicationServiceImpl implements MastodonPublicationServic
      *
      * @param page
      *            {@link Page} to convert
+     * @param limits
+     *            {@link MastodonInstanceLimits} of the instance the status is posted to
      * @return Status line for Mastodon
      */
-    private String statusToPost(Page page) {
+    String statusToPost(Page page, MastodonInstanceLimits limits) {
         String body = page.getDescription();
         if (body == null || body.trim().isEmpty()) {
             body = page.getTitle();
@@ -251,7 +529,7 @@ public class MastodonPublicationServiceImpl implements MastodonPublicationServic
             separator = " " + mastodonSeparator.trim() + " ";
         }
 
-        int maxBodyLength = MAX_TOOT_LENGTH - separator.length() - SHORT_URL_LENGTH;
+        int maxBodyLength = limits.getMaxTootLength() - separator.length() - limits.getShortUrlLength();
         if (body.length() > maxBodyLength) {
             StringBuilder trunc = new StringBuilder(body);
             int truncpos = trunc.lastIndexOf(" ", maxBodyLength - 1);
@@ -268,7 +546,7 @@ public class MastodonPublicationServiceImpl implements MastodonPublicationServic
             page.getTags().stream()
                     .map(Tag::getName)
                     .map(String::trim)
-                    .map(t -> t.replaceAll("(\\s|#)+", ""))
+                    .map(t -> TAG_NOISE.matcher(t).replaceAll(""))
                     .distinct()
                     .forEach(tags::add);
             body = taginize(body, tags, maxBodyLength);
@@ -283,6 +561,8 @@ public class MastodonPublicationServiceImpl implements MastodonPublicationServic
      * Fills the body with as many tags as possible. If a tag is found as word, it is
      * replaced by the tag. Remaning tags are appended. The given maximum length will not
      * be exceeded.
+     * <p>
+     * The body is scanned only once for all the tags. Duplicate tags are ignored.
      *
      * @param body
      *            Body to add tags to
@@ -293,18 +573,51 @@ public class MastodonPublicationServiceImpl implements MastodonPublicationServic
      * @return Body, with tags inserted
      */
     public static String taginize(String body, List<String> tags, int maxLen) {
-        for (String tag : tags) {
-            Pattern pat = Pattern.compile("(^.*\\b(?<!#))(" + Pattern.quote(tag) + ")(\\b.*$)");
-            Matcher m = pat.matcher(body);
-            if (m.matches() && body.length() + 1 <= maxLen) {
-                body = m.replaceFirst("$1#$2$3");
-            } else if (Pattern.matches(("(^|.*\\s)#" + Pattern.quote(tag) + "\\b.*$"), body)) {
+        List<String> distinctTags = new ArrayList<>(new LinkedHashSet<>(tags));
+        TagScanner.Result found = new TagScanner(distinctTags).scan(body);
+
+        BitSet hashPositions = new BitSet(body.length());
+        List<String> appended = new ArrayList<>();
+        int length = body.length();
+
+        for (int ix = 0; ix < distinctTags.size(); ix++) {
+            String tag = distinctTags.get(ix);
+            List<Integer> words = found.words.get(ix);
+
+            int pos = -1;
+            boolean tagged = found.tagged[ix];
+            for (int wx = words.size() - 1; wx >= 0; wx--) {
+                int start = words.get(wx);
+                int next = hashPositions.nextSetBit(start);
+                if (next == start) {
+                    // an earlier tag made this word a hashtag
+                    tagged |= start == 0 || TagScanner.isWhitespace(body.charAt(start - 1));
+                } else if (pos < 0 && (next < 0 || next >= start + tag.length())) {
+                    pos = start;
+                }
+            }
+
+            if (pos >= 0 && length + 1 <= maxLen) {
+                hashPositions.set(pos);
+                length++;
+            } else if (tagged || appended.stream().anyMatch(it -> it.startsWith(tag)
+                            && TagScanner.isBoundary(it, tag.length()))) {
                 // Tag is already part of the body, ignore
-            } else if (body.length() + tag.length() + 2 <= maxLen) {
-                body += " #" + tag;
+            } else if (length + tag.length() + 2 <= maxLen) {
+                appended.add(tag);
+                length += tag.length() + 2;
             }
         }
-        return body;
+
+        StringBuilder sb = new StringBuilder(length);
+        int last = 0;
+        for (int pos = hashPositions.nextSetBit(0); pos >= 0; pos = hashPositions.nextSetBit(pos + 1)) {
+            sb.append(body, last, pos).append('#');
+            last = pos;
+        }
+        sb.append(body, last, body.length());
+        appended.forEach(it -> sb.append(" #").append(it));
+        return sb.toString();
     }
 
     /**
@@ -319,9 +632,9 @@ public class MastodonPublicationServiceImpl implements MastodonPublicationServic
             return Collections.emptyList();
         }
 
-        return Pattern.compile("[ ,;]+").splitAsStream(tagList)
+        return TAG_SEPARATOR.splitAsStream(tagList)
                 .map(String::trim)
-                .map(it -> it.replaceAll("^#", ""))
+                .map(it -> it.startsWith("#") ? it.substring(1) : it)
                 .filter(it -> !it.isEmpty())
                 .distinct()
                 .collect(toList());
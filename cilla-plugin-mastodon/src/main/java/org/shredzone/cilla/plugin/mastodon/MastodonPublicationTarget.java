@@ -0,0 +1,109 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.mastodon;
+
+import static org.shredzone.cilla.plugin.mastodon.MastodonPublicationServiceImpl.*;
+
+import java.util.Map;
+
+import javax.annotation.Resource;
+
+import org.shredzone.cilla.core.model.Page;
+import org.shredzone.cilla.plugin.publication.PublicationAction;
+import org.shredzone.cilla.plugin.publication.PublicationTarget;
+import org.shredzone.cilla.plugin.publication.RemoteIdStore;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * {@link PublicationTarget} for Mastodon.
+ * <p>
+ * Toots cannot be edited, so updates are ignored. If the user wants to update a toot,
+ * he needs to delete it manually before updating the page.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class MastodonPublicationTarget implements PublicationTarget {
+
+    private @Value("${mastodon.masterEnable}") boolean mastodonMasterEnabled;
+    private @Value("${mastodon.concurrency:4}") int mastodonConcurrency;
+
+    private @Resource MastodonPublicationService mastodonPublicationService;
+    private @Resource MastodonDeferredActions mastodonDeferredActions;
+    private @Resource RemoteIdStore mastodonRemoteIdStore;
+
+    @Override
+    public String getName() {
+        return "mastodon";
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return mastodonMasterEnabled;
+    }
+
+    @Override
+    public int getConcurrency() {
+        return mastodonConcurrency;
+    }
+
+    @Override
+    public boolean isRegistered(Page page) {
+        return mastodonPublicationService.isRegistered(page);
+    }
+
+    @Override
+    public void publish(Page page) {
+        mastodonPublicationService.publish(page);
+    }
+
+    @Override
+    public void update(Page page) {
+        // Toots cannot be updated
+    }
+
+    @Override
+    public void remove(Page page) {
+        mastodonPublicationService.remove(page);
+    }
+
+    @Override
+    public boolean verify(Page page, PublicationAction action) {
+        if (mastodonDeferredActions.isPending(page.getId())) {
+            // The action is retried by the deferred actions
+            return true;
+        }
+
+        boolean registered = mastodonRemoteIdStore.find(page.getId()) != null;
+        switch (action) {
+            case PUBLISH:
+                Map<String, String> userProps = page.getCreator().getProperties();
+                return registered || !page.isPromoted()
+                        || userProps.get(PROPKEY_MASTODON_INSTANCE) == null
+                        || userProps.get(PROPKEY_MASTODON_TOKEN) == null;
+
+            case REMOVE:
+                return !registered;
+
+            default:
+                return true;
+        }
+    }
+
+}
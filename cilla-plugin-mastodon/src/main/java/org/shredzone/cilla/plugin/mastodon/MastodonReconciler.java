@@ -0,0 +1,252 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.mastodon;
+
+import static org.shredzone.cilla.plugin.mastodon.MastodonPublicationServiceImpl.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+
+import com.sys1yagi.mastodon4j.MastodonClient;
+import com.sys1yagi.mastodon4j.api.Range;
+import com.sys1yagi.mastodon4j.api.entity.Status;
+import com.sys1yagi.mastodon4j.api.method.Accounts;
+import org.shredzone.cilla.core.model.Page;
+import org.shredzone.cilla.core.model.User;
+import org.shredzone.cilla.core.repository.PageDao;
+import org.shredzone.cilla.plugin.publication.RemoteId;
+import org.shredzone.cilla.plugin.publication.RemoteIdStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Periodically reconciles the Mastodon status IDs of all published pages with the
+ * statuses that actually exist at the Mastodon instances.
+ * <p>
+ * For every account, the statuses are read page by page, until the oldest status of
+ * that account is reached. Pages that refer to a status that does not exist anymore
+ * are unregistered. No remote calls are made while a database transaction is open.
+ * <p>
+ * While the reconciler is enabled, {@link MastodonPublicationService#isRegistered(Page)}
+ * trusts the local status IDs. A status that was deleted at the instance is detected
+ * up to {@code mastodon.reconcileInterval} seconds later, and until then, the page is
+ * not tooted again when it is published. If this is too long, the streaming sync should
+ * be enabled as well, or the interval be shortened.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class MastodonReconciler {
+
+    private static final int STATUSES_PER_REQUEST = 40;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private @Value("${mastodon.masterEnable}") boolean mastodonMasterEnabled;
+    private @Value("${mastodon.reconcileInterval:86400}") long mastodonReconcileInterval;
+
+    private @Resource PageDao pageDao;
+    private @Resource RemoteIdStore mastodonRemoteIdStore;
+    private @Resource MastodonServiceFactory mastodonServiceFactory;
+    private @Resource MastodonCircuitBreakers mastodonCircuitBreakers;
+    private @Resource @Lazy MastodonPublicationService mastodonPublicationService;
+    private @Resource PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transactionTemplate;
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void setup() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        if (isEnabled()) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "mastodon-reconciler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::reconcile,
+                    mastodonReconcileInterval, mastodonReconcileInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Checks if the periodic reconciliation is enabled. If it is, the locally stored
+     * status IDs are trusted, although they may be stale for up to one reconciliation
+     * interval.
+     *
+     * @return {@code true} if enabled
+     */
+    public boolean isEnabled() {
+        return mastodonMasterEnabled && mastodonReconcileInterval > 0;
+    }
+
+    /**
+     * Reconciles the status IDs of all published pages.
+     */
+    public void reconcile() {
+        try {
+            Map<List<String>, Map<Long, Long>> registered = transactionTemplate.execute(tx -> findRegistered());
+
+            Map<Long, Long> stale = new HashMap<>();
+            registered.forEach((account, statuses) ->
+                    stale.putAll(findStale(account.get(0), account.get(1), statuses)));
+
+            stale.forEach(mastodonPublicationService::unregister);
+
+            log.info("Reconciled Mastodon statuses of {} accounts, {} stale status IDs removed",
+                    registered.size(), stale.size());
+        } catch (Exception ex) {
+            log.warn("Failed to reconcile Mastodon statuses", ex);
+        }
+    }
+
+    /**
+     * Finds all pages that are registered at Mastodon.
+     *
+     * @return Map of the accounts (instance and token), containing a map of page IDs
+     *         and status IDs of that account
+     */
+    private Map<List<String>, Map<Long, Long>> findRegistered() {
+        Map<List<String>, Map<Long, Long>> result = new HashMap<>();
+        for (RemoteId remoteId : mastodonRemoteIdStore.findAll()) {
+            Page page = pageDao.fetch(remoteId.getPageId());
+            if (page == null) {
+                continue;
+            }
+
+            try {
+                User creator = page.getCreator();
+                String instance = creator.getProperties().get(PROPKEY_MASTODON_INSTANCE);
+                String token = creator.getProperties().get(PROPKEY_MASTODON_TOKEN);
+                if (instance == null || token == null) {
+                    continue;
+                }
+
+                List<String> account = Arrays.asList(instance, token);
+                result.computeIfAbsent(account, k -> new HashMap<>())
+                        .put(page.getId(), Long.parseLong(remoteId.getId()));
+            } catch (NumberFormatException ex) {
+                log.error("Cannot parse the Mastodon ID of page ID " + page.getId(), ex);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds the stale status IDs of an account.
+     *
+     * @param instance
+     *            Mastodon instance
+     * @param token
+     *            Access token of the account
+     * @param statuses
+     *            Map of page IDs and status IDs that are registered for that account
+     * @return Map of page IDs and status IDs that do not exist anymore. Empty if the
+     *         account could not be checked.
+     */
+    private Map<Long, Long> findStale(String instance, String token, Map<Long, Long> statuses) {
+        Map<Long, Long> stale = new HashMap<>();
+
+        MastodonClient client = mastodonServiceFactory.getMastodonClient(instance, token);
+        CircuitBreaker circuit = mastodonCircuitBreakers.forClient(client);
+        if (!circuit.tryAcquire()) {
+            log.info("Mastodon instance {} is unavailable, skipping reconciliation", instance);
+            return stale;
+        }
+
+        try {
+            long oldest = statuses.values().stream().mapToLong(Long::longValue).min().orElse(0L);
+            Set<Long> existing = fetchStatusIds(client, oldest);
+            circuit.success();
+
+            statuses.forEach((pageId, statusId) -> {
+                if (!existing.contains(statusId)) {
+                    stale.put(pageId, statusId);
+                }
+            });
+        } catch (Exception ex) {
+            if (MastodonCircuitBreakers.isUnavailable(ex)) {
+                circuit.failure();
+            } else {
+                circuit.success();
+            }
+            log.warn("Failed to read the Mastodon statuses of an account at " + instance, ex);
+        }
+
+        return stale;
+    }
+
+    /**
+     * Fetches the IDs of all statuses of the account, from the newest status down to
+     * the given oldest status.
+     *
+     * @param client
+     *            {@link MastodonClient} of the account
+     * @param oldest
+     *            Oldest status ID that is of interest
+     * @return Set of all status IDs that exist
+     */
+    private Set<Long> fetchStatusIds(MastodonClient client, long oldest) throws Exception {
+        Accounts accounts = new Accounts(client);
+        long accountId = accounts.getVerifyCredentials().execute().getId();
+
+        Set<Long> result = new HashSet<>();
+        Long maxId = null;
+        while (true) {
+            List<Status> part = accounts
+                    .getStatuses(accountId, false, false, false, new Range(maxId, null, STATUSES_PER_REQUEST))
+                    .execute()
+                    .getPart();
+            if (part.isEmpty()) {
+                break;
+            }
+
+            part.forEach(status -> result.add(status.getId()));
+
+            maxId = part.get(part.size() - 1).getId();
+            if (maxId <= oldest) {
+                break;
+            }
+        }
+        return result;
+    }
+
+}
@@ -29,14 +29,33 @@ import com.sys1yagi.mastodon4j.MastodonClient;
 public interface MastodonServiceFactory {
 
     /**
-     * Creates a new {@link MastodonClient} instance.
+     * Returns a {@link MastodonClient} instance.
      *
      * @param instance
      *            Mastodon instance to connect to
      * @param token
      *            Access token for that instance
-     * @return {@link MastodonClient} instance. Each invocation creates a new instance.
+     * @return {@link MastodonClient} instance. It may be shared with other invocations
+     *         for the same instance and token.
      */
     MastodonClient getMastodonClient(String instance, String token);
 
+    /**
+     * Creates a new {@link MastodonClient} instance for the streaming API. In contrast
+     * to {@link #getMastodonClient(String, String)}, the client must tolerate long
+     * pauses between the streamed events.
+     * <p>
+     * The default implementation returns {@link #getMastodonClient(String, String)},
+     * which is sufficient if that client has no read timeout.
+     *
+     * @param instance
+     *            Mastodon instance to connect to
+     * @param token
+     *            Access token for that instance
+     * @return {@link MastodonClient} instance. Each invocation creates a new instance.
+     */
+    default MastodonClient getMastodonStreamingClient(String instance, String token) {
+        return getMastodonClient(instance, token);
+    }
+
 }
@@ -0,0 +1,168 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.mastodon;
+
+import static org.shredzone.cilla.plugin.mastodon.MastodonPublicationServiceImpl.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+
+import org.shredzone.cilla.core.model.Page;
+import org.shredzone.cilla.core.model.User;
+import org.shredzone.cilla.core.repository.PageDao;
+import org.shredzone.cilla.plugin.publication.RemoteId;
+import org.shredzone.cilla.plugin.publication.RemoteIdStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Keeps a streaming connection to every Mastodon account that has tooted pages. If a
+ * toot is deleted at Mastodon, the page is unregistered immediately.
+ * <p>
+ * Streams are opened for all accounts found on startup, and for every account that
+ * toots a page later.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class MastodonStreamingSync {
+
+    private static final long MIN_BACKOFF = 1000L;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final ConcurrentMap<List<String>, MastodonUserStream> streams = new ConcurrentHashMap<>();
+
+    private @Value("${mastodon.masterEnable}") boolean mastodonMasterEnabled;
+    private @Value("${mastodon.streaming:false}") boolean mastodonStreaming;
+
+    private @Resource PageDao pageDao;
+    private @Resource RemoteIdStore mastodonRemoteIdStore;
+    private @Resource MastodonServiceFactory mastodonServiceFactory;
+    private @Resource @Lazy MastodonPublicationService mastodonPublicationService;
+    private @Resource PlatformTransactionManager transactionManager;
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void setup() {
+        if (isEnabled()) {
+            executor = Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "mastodon-user-stream");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.execute(this::start);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            streams.values().forEach(MastodonUserStream::shutdown);
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Checks if the streaming sync is enabled. If it is, the locally stored status IDs
+     * can be trusted.
+     *
+     * @return {@code true} if enabled
+     */
+    public boolean isEnabled() {
+        return mastodonMasterEnabled && mastodonStreaming;
+    }
+
+    /**
+     * Opens a stream to the Mastodon account of the user, unless it is already open.
+     *
+     * @param user
+     *            {@link User} whose account is to be streamed
+     */
+    public void open(User user) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        String instance = user.getProperties().get(PROPKEY_MASTODON_INSTANCE);
+        String token = user.getProperties().get(PROPKEY_MASTODON_TOKEN);
+        if (instance == null || token == null) {
+            return;
+        }
+
+        streams.computeIfAbsent(Arrays.asList(instance, token), account -> {
+            MastodonUserStream stream = new MastodonUserStream(
+                    mastodonServiceFactory.getMastodonStreamingClient(instance, token),
+                    this::onDelete, MIN_BACKOFF);
+            executor.execute(stream);
+            log.info("Opened Mastodon user stream of {} at {}", user.getLogin(), instance);
+            return stream;
+        });
+    }
+
+    /**
+     * Opens the streams of the creators of all tooted pages.
+     */
+    private void start() {
+        try {
+            new TransactionTemplate(transactionManager).execute(tx -> {
+                for (RemoteId remoteId : mastodonRemoteIdStore.findAll()) {
+                    Page page = pageDao.fetch(remoteId.getPageId());
+                    if (page != null) {
+                        open(page.getCreator());
+                    }
+                }
+                return null;
+            });
+        } catch (Exception ex) {
+            log.error("Failed to start the Mastodon streaming sync", ex);
+        }
+    }
+
+    /**
+     * Unregisters the page of a deleted status.
+     *
+     * @param statusId
+     *            ID of the deleted status
+     */
+    private void onDelete(long statusId) {
+        try {
+            Long pageId = mastodonRemoteIdStore.findPageId(String.valueOf(statusId));
+            if (pageId != null) {
+                mastodonPublicationService.unregister(pageId, statusId);
+            }
+        } catch (Exception ex) {
+            log.warn("Failed to unregister the deleted Mastodon status ID " + statusId, ex);
+        }
+    }
+
+}
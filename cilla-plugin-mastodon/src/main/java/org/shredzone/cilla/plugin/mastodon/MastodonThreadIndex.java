@@ -0,0 +1,193 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.mastodon;
+
+import static org.shredzone.cilla.plugin.mastodon.MastodonPublicationServiceImpl.PROPKEY_MASTODON_ID;
+
+import java.util.Comparator;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Resource;
+
+import org.shredzone.cilla.core.model.Page;
+import org.shredzone.cilla.core.repository.PageDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Keeps an index of the latest Mastodon status of each page subject, so a new toot can
+ * be attached to the thread of its subject without loading all pages of that subject.
+ * <p>
+ * The index is filled lazily. If a subject is not indexed yet, the latest status is
+ * looked up from the pages once. After that, the index is updated on every publication
+ * and removal. The latest status is the toot of the page with the most recent
+ * publication date, so back-dated pages do not break the thread.
+ * <p>
+ * Other cluster nodes may toot pages of the same subject, so the entries expire after
+ * {@code mastodon.threadIndexTtl} seconds, and are looked up again then.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class MastodonThreadIndex {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final ConcurrentMap<String, Entry> latestStatus = new ConcurrentHashMap<>();
+
+    private @Value("${mastodon.threadIndexTtl:600}") long mastodonThreadIndexTtl;
+
+    private @Resource PageDao pageDao;
+
+    /**
+     * Finds the latest Mastodon status of the page's subject.
+     *
+     * @param page
+     *            {@link Page} that is to be tooted
+     * @return Status ID of the latest toot of the same subject, or {@code null} if the
+     *         page has no subject, or there is no toot of that subject yet.
+     */
+    public Long findLatestStatus(Page page) {
+        String subject = page.getSubject();
+        if (subject == null) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        Entry current = latestStatus.get(subject);
+        if (current != null && !current.isExpired(now)) {
+            return current.statusId;
+        }
+
+        // The pages are looked up outside of the map, so the query does not block other
+        // subjects. An entry that was stored meanwhile is more recent than the result.
+        Entry found = lookupLatestStatus(page, now);
+        Entry entry = latestStatus.merge(subject, found, (stored, looked) ->
+                stored != current && !stored.isExpired(now) ? stored : looked);
+        return entry.statusId;
+    }
+
+    /**
+     * Registers a new toot of a page. It only becomes the latest toot of its subject if
+     * the page was not published before the page of the current latest toot.
+     *
+     * @param page
+     *            {@link Page} that has been tooted
+     * @param statusId
+     *            Status ID of the toot
+     */
+    public void published(Page page, long statusId) {
+        String subject = page.getSubject();
+        if (subject != null) {
+            // Subjects that are not indexed yet are looked up on the next request
+            latestStatus.computeIfPresent(subject, (s, current) ->
+                    current.isBefore(page.getPublication())
+                            ? new Entry(statusId, page.getPublication(), current.created)
+                            : current);
+        }
+    }
+
+    /**
+     * Unregisters a deleted toot of a page. The subject is looked up again on the next
+     * request.
+     *
+     * @param page
+     *            {@link Page} whose toot has been deleted
+     * @param statusId
+     *            Status ID of the deleted toot
+     */
+    public void removed(Page page, long statusId) {
+        String subject = page.getSubject();
+        if (subject != null) {
+            latestStatus.remove(subject);
+        }
+        removed(statusId);
+    }
+
+    /**
+     * Unregisters a deleted toot whose page is unknown. Subjects that refer to this
+     * status as latest toot are looked up again on the next request.
+     *
+     * @param statusId
+     *            Status ID of the deleted toot
+     */
+    public void removed(long statusId) {
+        latestStatus.values().removeIf(entry -> entry.statusId != null && entry.statusId == statusId);
+    }
+
+    /**
+     * Finds the page with the same subject and a Mastodon ID that was published last.
+     *
+     * @param page
+     *            {@link Page} that is to be tooted
+     * @param now
+     *            Current time
+     * @return {@link Entry} of the latest toot of the same subject
+     */
+    private Entry lookupLatestStatus(Page page, long now) {
+        try {
+            return pageDao.fetchSameSubject(page).stream()
+                    .filter(p -> p.getProperties().get(PROPKEY_MASTODON_ID) != null)
+                    .max(Comparator.comparing(Page::getPublication,
+                            Comparator.nullsFirst(Comparator.naturalOrder())))
+                    .map(p -> new Entry(Long.parseLong(p.getProperties().get(PROPKEY_MASTODON_ID)),
+                            p.getPublication(), now))
+                    .orElseGet(() -> new Entry(null, null, now));
+        } catch (NumberFormatException ex) {
+            log.error("Could not parse a Mastodon ID while finding the last toot of page ID " + page.getId(), ex);
+            return new Entry(null, null, now);
+        }
+    }
+
+    /**
+     * An entry of the index.
+     */
+    private class Entry {
+        private final Long statusId;
+        private final Date publication;
+        private final long created;
+
+        private Entry(Long statusId, Date publication, long created) {
+            this.statusId = statusId;
+            this.publication = publication;
+            this.created = created;
+        }
+
+        /**
+         * Checks if the entry has expired.
+         */
+        private boolean isExpired(long now) {
+            return now - created > TimeUnit.SECONDS.toMillis(mastodonThreadIndexTtl);
+        }
+
+        /**
+         * Checks if the latest toot was published before the given date. If a date is
+         * unknown, the new toot is regarded as the latest one.
+         */
+        private boolean isBefore(Date date) {
+            return statusId == null || publication == null || date == null
+                    || !date.before(publication);
+        }
+    }
+
+}
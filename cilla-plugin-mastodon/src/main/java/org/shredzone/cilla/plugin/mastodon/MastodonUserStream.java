@@ -0,0 +1,162 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.mastodon;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.function.LongConsumer;
+
+import com.sys1yagi.mastodon4j.MastodonClient;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the user stream of a Mastodon account, and passes the IDs of deleted statuses
+ * to a consumer.
+ * <p>
+ * If the connection fails or is closed, it is automatically reopened. The delay
+ * between two attempts doubles on every failure, up to a maximum.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class MastodonUserStream implements Runnable {
+
+    private static final long MAX_BACKOFF = 5L * 60L * 1000L;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final MastodonClient client;
+    private final LongConsumer onDelete;
+    private final long minBackoff;
+
+    private volatile boolean running = true;
+    private volatile Response response;
+
+    /**
+     * Creates a new {@link MastodonUserStream}.
+     *
+     * @param client
+     *            {@link MastodonClient} of the account, suitable for streaming
+     * @param onDelete
+     *            Consumer for the IDs of deleted statuses
+     * @param minBackoff
+     *            Delay before the first reconnection attempt, in milliseconds
+     */
+    public MastodonUserStream(MastodonClient client, LongConsumer onDelete, long minBackoff) {
+        this.client = client;
+        this.onDelete = onDelete;
+        this.minBackoff = minBackoff;
+    }
+
+    @Override
+    public void run() {
+        long backoff = minBackoff;
+        while (running) {
+            try (Response resp = client.get("streaming/user", null)) {
+                if (!resp.isSuccessful()) {
+                    throw new IOException("HTTP status " + resp.code());
+                }
+
+                response = resp;
+                backoff = minBackoff;
+                log.debug("Connected to the user stream at {}", client.getInstanceName());
+                read(new BufferedReader(new InputStreamReader(resp.body().byteStream(), StandardCharsets.UTF_8)));
+            } catch (Exception ex) {
+                if (!running) {
+                    break;
+                }
+                log.warn("User stream at " + client.getInstanceName() + " failed, reconnecting in "
+                        + backoff + " ms", ex);
+            } finally {
+                response = null;
+            }
+
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF);
+        }
+    }
+
+    /**
+     * Stops the stream. An open connection is closed.
+     */
+    public void shutdown() {
+        running = false;
+        Response resp = response;
+        if (resp != null) {
+            resp.close();
+        }
+    }
+
+    /**
+     * Reads server-sent events from the stream until it is closed.
+     *
+     * @param reader
+     *            {@link BufferedReader} of the stream
+     */
+    void read(BufferedReader reader) throws IOException {
+        String event = null;
+        StringBuilder data = new StringBuilder();
+        String line;
+        while (running && (line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                dispatch(event, data.toString());
+                event = null;
+                data.setLength(0);
+            } else if (line.startsWith("event:")) {
+                event = line.substring(6).trim();
+            } else if (line.startsWith("data:")) {
+                if (data.length() > 0) {
+                    data.append('\n');
+                }
+                data.append(line.substring(5).trim());
+            }
+            // other lines are heartbeats or unsupported fields
+        }
+    }
+
+    /**
+     * Dispatches a single event.
+     *
+     * @param event
+     *            Event type, may be {@code null}
+     * @param data
+     *            Event data
+     */
+    private void dispatch(String event, String data) {
+        if ("delete".equals(event) && !data.isEmpty()) {
+            try {
+                onDelete.accept(Long.parseLong(data));
+            } catch (NumberFormatException ex) {
+                log.warn("Received an invalid status ID: {}", data);
+            } catch (RuntimeException ex) {
+                log.warn("Failed to handle the deletion of status ID " + data, ex);
+            }
+        }
+    }
+
+}
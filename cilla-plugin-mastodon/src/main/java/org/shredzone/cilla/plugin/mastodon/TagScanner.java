@@ -0,0 +1,160 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.mastodon;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the occurrences of a list of tags in a text, using a single pass over the text.
+ * <p>
+ * The tags are kept in a trie. The trie is walked from every position in the text
+ * where a tag may start, so all tags are found without compiling a regular expression
+ * for each of them. Tags are matched case sensitive.
+ *
+ * @author Richard "Shred" Körber
+ */
+class TagScanner {
+
+    private final Node root = new Node();
+    private final int tagCount;
+
+    /**
+     * Creates a new {@link TagScanner}.
+     *
+     * @param tags
+     *            List of tags to find. Must not contain duplicates. The index of a tag
+     *            in this list is used for the results of {@link #scan(CharSequence)}.
+     */
+    TagScanner(List<String> tags) {
+        tagCount = tags.size();
+        for (int ix = 0; ix < tagCount; ix++) {
+            String tag = tags.get(ix);
+            if (tag.isEmpty()) {
+                continue;
+            }
+            Node node = root;
+            for (int pos = 0; pos < tag.length(); pos++) {
+                node = node.children.computeIfAbsent(tag.charAt(pos), k -> new Node());
+            }
+            node.tagIndex = ix;
+        }
+    }
+
+    /**
+     * Scans the text for the tags.
+     *
+     * @param text
+     *            Text to scan
+     * @return {@link Result} of the scan
+     */
+    Result scan(CharSequence text) {
+        Result result = new Result(tagCount);
+        int length = text.length();
+
+        for (int start = 0; start < length; start++) {
+            boolean boundary = isBoundary(text, start);
+            boolean afterHash = start > 0 && text.charAt(start - 1) == '#';
+            if (!boundary && !afterHash) {
+                continue;
+            }
+
+            Node node = root;
+            for (int pos = start; pos < length; pos++) {
+                node = node.children.get(text.charAt(pos));
+                if (node == null) {
+                    break;
+                }
+
+                int ix = node.tagIndex;
+                if (ix < 0 || !isBoundary(text, pos + 1)) {
+                    continue;
+                }
+
+                if (afterHash) {
+                    if (start == 1 || isWhitespace(text.charAt(start - 2))) {
+                        result.tagged[ix] = true;
+                    }
+                } else {
+                    result.words.get(ix).add(start);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Checks if there is a word boundary at the given position of the text.
+     */
+    static boolean isBoundary(CharSequence text, int pos) {
+        boolean wordBefore = pos > 0 && isWord(Character.codePointBefore(text, pos));
+        boolean wordAfter = pos < text.length() && isWord(Character.codePointAt(text, pos));
+        return wordBefore != wordAfter;
+    }
+
+    /**
+     * Checks if the code point is a word character.
+     */
+    private static boolean isWord(int cp) {
+        return cp == '_' || Character.isLetterOrDigit(cp);
+    }
+
+    /**
+     * Checks if the character is a whitespace.
+     */
+    static boolean isWhitespace(char ch) {
+        return ch == ' ' || ch == '\t' || ch == '\n' || ch == '\u000B' || ch == '\f' || ch == '\r';
+    }
+
+    /**
+     * A node of the tag trie.
+     */
+    private static class Node {
+        private final Map<Character, Node> children = new HashMap<>();
+        private int tagIndex = -1;
+    }
+
+    /**
+     * The result of a scan. All fields are indexed by the tag's index.
+     */
+    static class Result {
+        /**
+         * Positions of all occurrences of the tag as a plain word, in ascending order.
+         */
+        final List<List<Integer>> words;
+
+        /**
+         * {@code true} if the tag is already present as hashtag.
+         */
+        final boolean[] tagged;
+
+        private Result(int tagCount) {
+            words = new ArrayList<>(tagCount);
+            for (int ix = 0; ix < tagCount; ix++) {
+                words.add(new ArrayList<>(1));
+            }
+            tagged = new boolean[tagCount];
+        }
+    }
+
+}
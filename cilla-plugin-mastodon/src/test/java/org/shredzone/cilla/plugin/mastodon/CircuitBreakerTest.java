@@ -0,0 +1,77 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.mastodon;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+import org.shredzone.cilla.plugin.mastodon.CircuitBreaker.State;
+
+/**
+ * Unit tests for {@link CircuitBreaker}.
+ */
+public class CircuitBreakerTest {
+
+    @Test
+    public void openTest() {
+        CircuitBreaker cb = new CircuitBreaker(3, 60000L);
+        assertThat(cb.getState(), is(State.CLOSED));
+
+        assertThat(cb.tryAcquire(), is(true));
+        cb.failure();
+        assertThat(cb.tryAcquire(), is(true));
+        cb.failure();
+        assertThat(cb.getState(), is(State.CLOSED));
+
+        assertThat(cb.tryAcquire(), is(true));
+        cb.success();
+        assertThat(cb.tryAcquire(), is(true));
+        cb.failure();
+        assertThat(cb.tryAcquire(), is(true));
+        cb.failure();
+        assertThat(cb.getState(), is(State.CLOSED));
+
+        assertThat(cb.tryAcquire(), is(true));
+        cb.failure();
+        assertThat(cb.getState(), is(State.OPEN));
+        assertThat(cb.tryAcquire(), is(false));
+    }
+
+    @Test
+    public void halfOpenTest() {
+        CircuitBreaker cb = new CircuitBreaker(1, 0L);
+
+        assertThat(cb.tryAcquire(), is(true));
+        cb.failure();
+        assertThat(cb.getState(), is(State.OPEN));
+
+        assertThat(cb.tryAcquire(), is(true));
+        assertThat(cb.getState(), is(State.HALF_OPEN));
+        cb.failure();
+        assertThat(cb.getState(), is(State.OPEN));
+
+        assertThat(cb.tryAcquire(), is(true));
+        assertThat(cb.getState(), is(State.HALF_OPEN));
+        cb.success();
+        assertThat(cb.getState(), is(State.CLOSED));
+    }
+
+}
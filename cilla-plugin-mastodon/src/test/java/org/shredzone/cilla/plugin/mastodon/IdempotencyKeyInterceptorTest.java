@@ -0,0 +1,73 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.mastodon;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import com.sys1yagi.mastodon4j.MastodonClient;
+import com.sys1yagi.mastodon4j.api.entity.Status;
+import com.sys1yagi.mastodon4j.api.method.Statuses;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link IdempotencyKeyInterceptor}.
+ */
+public class IdempotencyKeyInterceptorTest {
+
+    @Test
+    public void keyTest() throws Exception {
+        try (StubMastodonServer stub = new StubMastodonServer()) {
+            stub.getServer().enqueue(new MockResponse().setBody("{\"id\":1}"));
+            stub.getServer().enqueue(new MockResponse().setBody("{\"id\":1}"));
+            stub.getServer().enqueue(new MockResponse().setBody("{\"id\":1}"));
+
+            MastodonClient client = stub.createClient(new OkHttpClient.Builder()
+                    .addInterceptor(new IdempotencyKeyInterceptor()));
+            Statuses statuses = new Statuses(client);
+
+            Status status = IdempotencyKeyInterceptor.withKey("abc123", () -> statuses
+                    .postStatus("Hello", null, null, false, null, Status.Visibility.Public)
+                    .execute());
+            assertThat(status.getId(), is(1L));
+
+            IdempotencyKeyInterceptor.withKey("abc123", () -> statuses.getStatus(1L).execute());
+
+            statuses.postStatus("Hello", null, null, false, null, Status.Visibility.Public)
+                    .execute();
+
+            RecordedRequest post = stub.getServer().takeRequest();
+            assertThat(post.getMethod(), is("POST"));
+            assertThat(post.getHeader("Idempotency-Key"), is("abc123"));
+
+            RecordedRequest get = stub.getServer().takeRequest();
+            assertThat(get.getMethod(), is("GET"));
+            assertThat(get.getHeader("Idempotency-Key"), is(nullValue()));
+
+            RecordedRequest unkeyed = stub.getServer().takeRequest();
+            assertThat(unkeyed.getMethod(), is("POST"));
+            assertThat(unkeyed.getHeader("Idempotency-Key"), is(nullValue()));
+        }
+    }
+
+}
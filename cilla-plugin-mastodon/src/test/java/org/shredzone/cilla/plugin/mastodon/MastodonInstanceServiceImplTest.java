@@ -0,0 +1,101 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.mastodon;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.shredzone.cilla.plugin.mastodon.MastodonInstanceServiceImpl.parseLimits;
+import static org.shredzone.cilla.plugin.publication.TestBeans.*;
+
+import com.sys1yagi.mastodon4j.MastodonClient;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link MastodonInstanceServiceImpl}.
+ */
+public class MastodonInstanceServiceImplTest {
+
+    @Test
+    public void parseLimitsTest() {
+        MastodonInstanceLimits l1 = parseLimits("{\"uri\":\"mastodon.example\"}");
+        assertThat(l1.getMaxTootLength(), is(500));
+        assertThat(l1.getShortUrlLength(), is(23));
+
+        MastodonInstanceLimits l2 = parseLimits("{\"uri\":\"mastodon.example\",\"configuration\":"
+                + "{\"statuses\":{\"max_characters\":1000,\"characters_reserved_per_url\":42}}}");
+        assertThat(l2.getMaxTootLength(), is(1000));
+        assertThat(l2.getShortUrlLength(), is(42));
+
+        MastodonInstanceLimits l3 = parseLimits("{\"uri\":\"pleroma.example\",\"max_toot_chars\":5000}");
+        assertThat(l3.getMaxTootLength(), is(5000));
+        assertThat(l3.getShortUrlLength(), is(23));
+    }
+
+    @Test
+    public void getLimitsTest() throws Exception {
+        try (StubMastodonServer stub = new StubMastodonServer()) {
+            stub.getServer().enqueue(new MockResponse()
+                    .setHeader("Content-Type", "application/json")
+                    .setBody("{\"uri\":\"mastodon.example\",\"max_toot_chars\":5000}"));
+
+            MastodonInstanceServiceImpl service = createService(new MastodonCircuitBreakers());
+            MastodonClient client = stub.createClient(new OkHttpClient.Builder());
+            try {
+                // no cache entry yet, the limits are fetched in the background
+                assertThat(service.getLimits(client), is(MastodonInstanceLimits.DEFAULT));
+                await(() -> service.getLimits(client).getMaxTootLength() == 5000, 5000L);
+                assertThat(stub.getServer().getRequestCount(), is(1));
+            } finally {
+                service.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void getLimitsOpenCircuitTest() throws Exception {
+        try (StubMastodonServer stub = new StubMastodonServer()) {
+            MastodonCircuitBreakers circuitBreakers = new MastodonCircuitBreakers();
+            inject(circuitBreakers, "mastodonFailureThreshold", 1);
+            inject(circuitBreakers, "mastodonOpenDuration", 60L);
+            circuitBreakers.forInstance("mastodon.example").failure();
+
+            MastodonInstanceServiceImpl service = createService(circuitBreakers);
+            MastodonClient client = stub.createClient(new OkHttpClient.Builder());
+            try {
+                assertThat(service.getLimits(client), is(MastodonInstanceLimits.DEFAULT));
+                Thread.sleep(200L);
+                assertThat(stub.getServer().getRequestCount(), is(0));
+            } finally {
+                service.shutdown();
+            }
+        }
+    }
+
+    private static MastodonInstanceServiceImpl createService(MastodonCircuitBreakers circuitBreakers) {
+        MastodonInstanceServiceImpl service = new MastodonInstanceServiceImpl();
+        inject(service, "mastodonInstanceCacheTtl", 86400L);
+        inject(service, "mastodonCircuitBreakers", circuitBreakers);
+        service.setup();
+        return service;
+    }
+
+}
@@ -0,0 +1,192 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.mastodon;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.shredzone.cilla.plugin.mastodon.MastodonPublicationServiceImpl.PROPKEY_MASTODON_MEDIA_IDS;
+import static org.shredzone.cilla.plugin.publication.TestBeans.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.activation.DataSource;
+
+import com.sys1yagi.mastodon4j.MastodonClient;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.shredzone.cilla.core.model.GallerySection;
+import org.shredzone.cilla.core.model.Page;
+import org.shredzone.cilla.core.model.Picture;
+import org.shredzone.cilla.core.repository.StoreDao;
+import org.shredzone.cilla.plugin.mastodon.CircuitBreaker.State;
+
+/**
+ * Unit tests for {@link MastodonMediaUploader}.
+ */
+public class MastodonMediaUploaderTest {
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private final AtomicInteger nextMediaId = new AtomicInteger(1001);
+
+    private StubMastodonServer stub;
+    private MastodonClient client;
+    private MastodonMediaUploader uploader;
+    private volatile int responseCode = 200;
+
+    @Before
+    public void setup() throws Exception {
+        stub = new StubMastodonServer();
+        stub.getServer().setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                int current = running.incrementAndGet();
+                maxRunning.accumulateAndGet(current, Math::max);
+                try {
+                    Thread.sleep(50L);
+                    if (responseCode != 200) {
+                        return new MockResponse().setResponseCode(responseCode);
+                    }
+                    return new MockResponse()
+                            .setHeader("Content-Type", "application/json")
+                            .setBody("{\"id\":" + nextMediaId.getAndIncrement() + ",\"type\":\"image\"}");
+                } finally {
+                    running.decrementAndGet();
+                }
+            }
+        });
+        client = stub.createClient(new OkHttpClient.Builder());
+
+        uploader = new MastodonMediaUploader();
+        inject(uploader, "mastodonMediaCount", 3);
+        inject(uploader, "mastodonMediaConcurrency", 1);
+        inject(uploader, "mastodonMediaMaxAge", 3600L);
+        inject(uploader, "storeDao", stub(StoreDao.class, (method, args) -> new TestDataSource()));
+    }
+
+    @After
+    public void shutdown() throws Exception {
+        uploader.shutdown();
+        stub.close();
+    }
+
+    @Test
+    public void uploadTest() throws Exception {
+        Page page = createPage(4);
+        CircuitBreaker circuit = new CircuitBreaker(1, 60000L);
+
+        List<Long> mediaIds = uploader.upload(client, circuit, page);
+        assertThat(mediaIds, hasSize(3));
+        assertThat(mediaIds, containsInAnyOrder(1001L, 1002L, 1003L));
+        assertThat(stub.getServer().getRequestCount(), is(3));
+        assertThat(maxRunning.get(), is(1));
+        assertThat(circuit.getState(), is(State.CLOSED));
+
+        RecordedRequest request = stub.getServer().takeRequest();
+        assertThat(request.getPath(), is("/api/v1/media"));
+        assertThat(request.getHeader("Transfer-Encoding"), is("chunked"));
+        assertThat(request.getBody().readUtf8(), containsString(TestDataSource.CONTENT));
+
+        // already uploaded pictures are reused
+        assertThat(uploader.upload(client, circuit, page), is(mediaIds));
+        assertThat(stub.getServer().getRequestCount(), is(3));
+    }
+
+    @Test
+    public void outdatedTest() throws Exception {
+        Page page = createPage(2);
+        CircuitBreaker circuit = new CircuitBreaker(1, 60000L);
+        long outdated = System.currentTimeMillis() - 7200000L;
+        page.getProperties().put(PROPKEY_MASTODON_MEDIA_IDS,
+                "1=901@" + System.currentTimeMillis() + ",2=902@" + outdated);
+
+        // the outdated picture is uploaded again
+        assertThat(uploader.upload(client, circuit, page), contains(901L, 1001L));
+        assertThat(stub.getServer().getRequestCount(), is(1));
+        assertThat(page.getProperties().get(PROPKEY_MASTODON_MEDIA_IDS),
+                allOf(containsString("1=901@"), containsString("2=1001@")));
+    }
+
+    @Test
+    public void failureTest() throws Exception {
+        Page page = createPage(2);
+        CircuitBreaker circuit = new CircuitBreaker(1, 60000L);
+        responseCode = 502;
+
+        assertThat(uploader.upload(client, circuit, page), is(empty()));
+        assertThat(page.getProperties(), not(hasKey(PROPKEY_MASTODON_MEDIA_IDS)));
+        assertThat(circuit.getState(), is(State.OPEN));
+    }
+
+    /**
+     * Creates a page with a gallery of the given number of pictures.
+     */
+    private static Page createPage(int pictures) {
+        GallerySection gallery = new GallerySection();
+        for (int ix = 0; ix < pictures; ix++) {
+            Picture picture = new Picture();
+            picture.setId(ix + 1L);
+            gallery.getPictures().add(picture);
+        }
+
+        Page page = new Page();
+        page.setId(1L);
+        page.getSections().add(gallery);
+        return page;
+    }
+
+    /**
+     * A {@link DataSource} of a small image.
+     */
+    private static class TestDataSource implements DataSource {
+        private static final String CONTENT = "not really a jpeg";
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(CONTENT.getBytes(UTF_8));
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getContentType() {
+            return "image/jpeg";
+        }
+
+        @Override
+        public String getName() {
+            return "picture.jpg";
+        }
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.mastodon;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.shredzone.cilla.plugin.mastodon.MastodonPublicationServiceImpl.*;
+import static org.shredzone.cilla.plugin.publication.TestBeans.await;
+
+import org.junit.Test;
+import org.shredzone.cilla.core.model.Page;
+import org.shredzone.cilla.plugin.publication.OperationStats;
+
+/**
+ * Integration tests of {@link MastodonPublicationServiceImpl} against a
+ * {@link StubMastodonServer}.
+ */
+public class MastodonPublicationIntegrationTest {
+
+    @Test
+    public void publishAndRemoveTest() throws Exception {
+        try (MastodonTestFixture fixture = new MastodonTestFixture(true)) {
+            StubMastodonDispatcher dispatcher = fixture.getDispatcher();
+            Page page = fixture.createPage(1L);
+
+            fixture.getListener().onPagePublish(page);
+            String id = page.getProperties().get(PROPKEY_MASTODON_ID);
+            assertThat(id, is(notNullValue()));
+            assertThat(page.getProperties().get(PROPKEY_MASTODON_LINK), endsWith("/" + id));
+            assertThat(fixture.getRemoteIdStore().find(1L).getId(), is(id));
+            assertThat(page.getProperties(), not(hasKey(PROPKEY_MASTODON_IDEMPOTENCY_KEY)));
+            assertThat(fixture.getService().isRegistered(page), is(true));
+
+            fixture.getListener().onPageUnpublish(page);
+            assertThat(page.getProperties(), not(hasKey(PROPKEY_MASTODON_ID)));
+            assertThat(dispatcher.exists(Long.parseLong(id)), is(false));
+            assertThat(dispatcher.getPosts(), is(1));
+
+            assertThat(operation(fixture, "publish").getOutcomes(), hasEntry("success", 1L));
+            assertThat(operation(fixture, "remove").getOutcomes(), hasEntry("success", 1L));
+            assertThat(operation(fixture, "event.PAGE_PUBLISH").getCount(), is(1L));
+        }
+    }
+
+    @Test
+    public void staleStatusTest() throws Exception {
+        try (MastodonTestFixture fixture = new MastodonTestFixture(true)) {
+            Page page = fixture.createPage(1L);
+            page.getProperties().put(PROPKEY_MASTODON_ID, "42");
+            fixture.getRemoteIdStore().put(1L, "42", null);
+
+            assertThat(fixture.getService().isRegistered(page), is(false));
+            assertThat(page.getProperties(), not(hasKey(PROPKEY_MASTODON_ID)));
+            assertThat(fixture.getRemoteIdStore().find(1L), is(nullValue()));
+
+            fixture.getListener().onPagePublish(page);
+            assertThat(page.getProperties(), hasKey(PROPKEY_MASTODON_ID));
+            assertThat(fixture.getDispatcher().getPosts(), is(1));
+        }
+    }
+
+    @Test
+    public void retryTest() throws Exception {
+        try (MastodonTestFixture fixture = new MastodonTestFixture(true)) {
+            StubMastodonDispatcher dispatcher = fixture.getDispatcher();
+            dispatcher.setServerErrorRate(1.0);
+            dispatcher.setAcceptOnServerError(true);
+            Page page = fixture.createPage(1L);
+
+            fixture.getService().publish(page);
+            assertThat(page.getProperties(), not(hasKey(PROPKEY_MASTODON_ID)));
+            assertThat(page.getProperties(), hasKey(PROPKEY_MASTODON_IDEMPOTENCY_KEY));
+            assertThat(dispatcher.getRequests(), is(1));
+            assertThat(fixture.getDeferredActions().isPending(1L), is(true));
+
+            // the deferred retry reuses the idempotency key, so the status that was
+            // accepted despite the error is not posted again
+            dispatcher.setServerErrorRate(0.0);
+            fixture.getDeferredActions().retry();
+            assertThat(page.getProperties(), hasKey(PROPKEY_MASTODON_ID));
+            assertThat(page.getProperties(), not(hasKey(PROPKEY_MASTODON_IDEMPOTENCY_KEY)));
+            assertThat(fixture.getDeferredActions().isPending(1L), is(false));
+            assertThat(dispatcher.getPosts(), is(1));
+        }
+    }
+
+    @Test
+    public void circuitTest() throws Exception {
+        try (MastodonTestFixture fixture = new MastodonTestFixture(true)) {
+            fixture.setCircuitOpenMillis(100L);
+            StubMastodonDispatcher dispatcher = fixture.getDispatcher();
+            dispatcher.setServerErrorRate(1.0);
+            Page page = fixture.createPage(1L);
+
+            for (int ix = 0; ix < 3; ix++) {
+                fixture.getService().publish(page);
+            }
+            assertThat(fixture.getCircuitBreaker().getState(), is(CircuitBreaker.State.OPEN));
+            assertThat(dispatcher.getRequests(), is(3));
+
+            // the open circuit defers the publication without a request
+            fixture.getService().publish(page);
+            assertThat(dispatcher.getRequests(), is(3));
+            assertThat(fixture.getDeferredActions().isPending(1L), is(true));
+
+            // wait for the opened circuit to become half-open
+            dispatcher.setServerErrorRate(0.0);
+            await(() -> fixture.getCircuitBreaker().isPermitted(), 5000L);
+            fixture.getDeferredActions().retry();
+            assertThat(page.getProperties(), hasKey(PROPKEY_MASTODON_ID));
+            assertThat(fixture.getCircuitBreaker().getState(), is(CircuitBreaker.State.CLOSED));
+            assertThat(dispatcher.getPosts(), is(1));
+        }
+    }
+
+    @Test
+    public void tooManyRequestsTest() throws Exception {
+        try (MastodonTestFixture fixture = new MastodonTestFixture(true)) {
+            StubMastodonDispatcher dispatcher = fixture.getDispatcher();
+            dispatcher.setTooManyRequestsRate(1.0);
+            Page page = fixture.createPage(1L);
+
+            fixture.getService().publish(page);
+            assertThat(page.getProperties(), not(hasKey(PROPKEY_MASTODON_ID)));
+            assertThat(dispatcher.getRequests(), is(1));
+            assertThat(fixture.getDeferredActions().size(), is(0));
+            assertThat(operation(fixture, "publish").getOutcomes(), hasEntry("429", 1L));
+        }
+    }
+
+    /**
+     * Returns the {@link OperationStats} of the given operation.
+     */
+    private static OperationStats operation(MastodonTestFixture fixture, String operation) {
+        return fixture.getMetrics().getOperations().stream()
+                .filter(op -> op.getOperation().equals(operation))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("No metrics of " + operation));
+    }
+
+}
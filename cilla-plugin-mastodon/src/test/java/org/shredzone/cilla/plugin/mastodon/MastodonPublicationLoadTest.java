@@ -0,0 +1,159 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.mastodon;
+
+import static org.junit.Assume.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+import org.shredzone.cilla.core.model.Page;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Load test of {@link MastodonEventListener} and {@link MastodonPublicationServiceImpl}
+ * against a {@link StubMastodonServer}. It reports the throughput and the p50/p99
+ * latency of the event handling, so different client, caching and retry strategies
+ * can be compared.
+ * <p>
+ * The test is skipped unless {@code -Dmastodon.loadtest=true} is set. It is configured
+ * by these system properties:
+ * <ul>
+ * <li>{@code mastodon.loadtest.pages}: number of pages (default 500)</li>
+ * <li>{@code mastodon.loadtest.threads}: number of concurrent events (default 8)</li>
+ * <li>{@code mastodon.loadtest.latency}: latency of the instance, in ms (default 50)</li>
+ * <li>{@code mastodon.loadtest.tooManyRequests}: rate of 429 responses (default 0.02)</li>
+ * <li>{@code mastodon.loadtest.serverErrors}: rate of 502 responses (default 0.02)</li>
+ * <li>{@code mastodon.loadtest.sharedPool}: share the connection pool (default true)</li>
+ * </ul>
+ */
+public class MastodonPublicationLoadTest {
+    private static final Logger LOG = LoggerFactory.getLogger(MastodonPublicationLoadTest.class);
+
+    private final int pages = Integer.getInteger("mastodon.loadtest.pages", 500);
+    private final int threads = Integer.getInteger("mastodon.loadtest.threads", 8);
+    private final long latency = Long.getLong("mastodon.loadtest.latency", 50L);
+    private final double tooManyRequests = Double.parseDouble(System.getProperty("mastodon.loadtest.tooManyRequests", "0.02"));
+    private final double serverErrors = Double.parseDouble(System.getProperty("mastodon.loadtest.serverErrors", "0.02"));
+    private final boolean sharedPool = Boolean.parseBoolean(System.getProperty("mastodon.loadtest.sharedPool", "true"));
+
+    @Test
+    public void loadTest() throws Exception {
+        assumeTrue(Boolean.getBoolean("mastodon.loadtest"));
+
+        try (MastodonTestFixture fixture = new MastodonTestFixture(sharedPool)) {
+            StubMastodonDispatcher dispatcher = fixture.getDispatcher();
+            dispatcher.setLatency(latency);
+            dispatcher.setTooManyRequestsRate(tooManyRequests);
+            dispatcher.setServerErrorRate(serverErrors);
+
+            List<Page> pageList = new ArrayList<>(pages);
+            for (long id = 1; id <= pages; id++) {
+                pageList.add(fixture.createPage(id));
+            }
+
+            LOG.info(String.format("Mastodon load test: %d pages, %d threads, %d ms latency, "
+                    + "%.1f%% 429, %.1f%% 5xx, %s connection pool",
+                    pages, threads, latency, tooManyRequests * 100.0, serverErrors * 100.0,
+                    sharedPool ? "shared" : "separate"));
+
+            run("publish", pageList, threads, dispatcher, fixture.getListener()::onPagePublish);
+            run("isRegistered", pageList, threads, dispatcher, fixture.getService()::isRegistered);
+            run("unpublish", pageList, threads, dispatcher, fixture.getListener()::onPageUnpublish);
+
+            LOG.info(String.format("  posted statuses: %d, deferred actions: %d",
+                    dispatcher.getPosts(), fixture.getDeferredActions().size()));
+        }
+    }
+
+    /**
+     * Handles an event for each page, and reports the results.
+     *
+     * @param phase
+     *            Name of the phase
+     * @param pageList
+     *            Pages to handle the event for
+     * @param threads
+     *            Number of concurrent threads
+     * @param dispatcher
+     *            {@link StubMastodonDispatcher} to collect the request statistics from
+     * @param handler
+     *            Event handler
+     */
+    private static void run(String phase, List<Page> pageList, int threads,
+                StubMastodonDispatcher dispatcher, Consumer<Page> handler) throws Exception {
+        int requestsBefore = dispatcher.getRequests();
+        int tooManyBefore = dispatcher.getTooManyRequests();
+        int errorsBefore = dispatcher.getServerErrors();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long[] latencies = new long[pageList.size()];
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> futures = new ArrayList<>(pageList.size());
+            for (int ix = 0; ix < pageList.size(); ix++) {
+                int index = ix;
+                Page page = pageList.get(ix);
+                futures.add(executor.submit(() -> {
+                    long eventStart = System.nanoTime();
+                    handler.accept(page);
+                    latencies[index] = System.nanoTime() - eventStart;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        long duration = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        LOG.info(String.format("  %-12s %8.1f events/s  p50 %7.1f ms  p99 %7.1f ms  "
+                + "requests %5d  429 %4d  5xx %4d",
+                phase,
+                pageList.size() * (double) TimeUnit.SECONDS.toNanos(1L) / duration,
+                percentile(latencies, 0.50) / 1e6,
+                percentile(latencies, 0.99) / 1e6,
+                dispatcher.getRequests() - requestsBefore,
+                dispatcher.getTooManyRequests() - tooManyBefore,
+                dispatcher.getServerErrors() - errorsBefore));
+    }
+
+    /**
+     * Returns the percentile of a sorted array of latencies.
+     */
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0L;
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+}
@@ -25,7 +25,9 @@ import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
 import static org.shredzone.cilla.plugin.mastodon.MastodonPublicationServiceImpl.*;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.Test;
 
@@ -36,6 +38,28 @@ public class MastodonPublicationServiceImplTest {
 
     private static final int MAXLEN = 40;
 
+    @Test
+    public void idempotencyKeyTest() {
+        Map<String, String> props = new HashMap<>();
+        long now = 1600000000000L;
+
+        String k1 = idempotencyKey(props, now);
+        assertThat(props, hasEntry(PROPKEY_MASTODON_IDEMPOTENCY_KEY, k1 + "@" + now));
+
+        // the key is reused within the window
+        String k2 = idempotencyKey(props, now + 3599000L);
+        assertThat(k2, is(k1));
+
+        // an outdated key is replaced
+        String k3 = idempotencyKey(props, now + 3600000L);
+        assertThat(k3, is(not(k1)));
+        assertThat(props, hasEntry(PROPKEY_MASTODON_IDEMPOTENCY_KEY, k3 + "@" + (now + 3600000L)));
+
+        // a key without timestamp is replaced
+        props.put(PROPKEY_MASTODON_IDEMPOTENCY_KEY, "legacy-key");
+        assertThat(idempotencyKey(props, now), is(not("legacy-key")));
+    }
+
     @Test
     public void splitTagsTest() {
         List<String> l1 = splitTags(null);
@@ -134,6 +158,14 @@ public class MastodonPublicationServiceImplTest {
         String t19 = taginize("Lorem #Ipsum Dolor", asList("Foo", "Ipsum", "Bar", "Foo", "Bar", "Ipsum"), MAXLEN);
         assertThat(t19, is("Lorem #Ipsum Dolor #Foo #Bar"));
         assertThat(t19.length(), lessThanOrEqualTo(MAXLEN));
+
+        String t20 = taginize("Lorem Piña-Colada Dolor", asList("Colada", "Piña-Colada"), MAXLEN);
+        assertThat(t20, is("Lorem Piña-#Colada Dolor #Piña-Colada"));
+        assertThat(t20.length(), lessThanOrEqualTo(MAXLEN));
+
+        String t21 = taginize("Lorem Piña-Colada Dolor", asList("Piña-Colada", "Piña"), MAXLEN);
+        assertThat(t21, is("Lorem #Piña-Colada Dolor"));
+        assertThat(t21.length(), lessThanOrEqualTo(MAXLEN));
     }
 
 }
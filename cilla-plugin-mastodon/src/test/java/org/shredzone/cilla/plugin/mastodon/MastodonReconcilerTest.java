@@ -0,0 +1,125 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.mastodon;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.shredzone.cilla.plugin.mastodon.MastodonPublicationServiceImpl.*;
+import static org.shredzone.cilla.plugin.publication.TestBeans.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import org.junit.Test;
+import org.shredzone.cilla.core.model.Page;
+import org.shredzone.cilla.core.model.User;
+import org.shredzone.cilla.core.repository.PageDao;
+import org.shredzone.cilla.plugin.publication.RemoteId;
+import org.shredzone.cilla.plugin.publication.RemoteIdStore;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+/**
+ * Unit tests for {@link MastodonReconciler}.
+ */
+public class MastodonReconcilerTest {
+
+    @Test
+    public void reconcileTest() throws Exception {
+        try (StubMastodonServer stub = new StubMastodonServer()) {
+            stub.getServer().enqueue(json("{\"id\":7}"));
+            stub.getServer().enqueue(json("[{\"id\":300},{\"id\":200}]"));
+            stub.getServer().enqueue(json("[{\"id\":150},{\"id\":100}]"));
+
+            User user = new User();
+            user.getProperties().put(PROPKEY_MASTODON_INSTANCE, "mastodon.example");
+            user.getProperties().put(PROPKEY_MASTODON_TOKEN, "token");
+
+            Map<Long, Page> pages = new HashMap<>();
+            for (long id = 1L; id <= 3L; id++) {
+                Page page = new Page();
+                page.setId(id);
+                page.setCreator(user);
+                pages.put(id, page);
+            }
+
+            // status 250 of page 2 has been deleted at the instance
+            List<RemoteId> remoteIds = Arrays.asList(
+                    new RemoteId(1L, "300", null),
+                    new RemoteId(2L, "250", null),
+                    new RemoteId(3L, "100", null));
+
+            Map<Long, Long> unregistered = new HashMap<>();
+
+            MastodonCircuitBreakers circuitBreakers = new MastodonCircuitBreakers();
+            inject(circuitBreakers, "mastodonFailureThreshold", 3);
+
+            MastodonReconciler reconciler = new MastodonReconciler();
+            inject(reconciler, "mastodonMasterEnabled", true);
+            inject(reconciler, "mastodonReconcileInterval", 0L); // invoked by the test
+            inject(reconciler, "pageDao", stub(PageDao.class, (method, args) -> pages.get(args[0])));
+            inject(reconciler, "mastodonRemoteIdStore", stub(RemoteIdStore.class,
+                    (method, args) -> "findAll".equals(method) ? remoteIds : null));
+            inject(reconciler, "mastodonServiceFactory", (MastodonServiceFactory)
+                    (instance, token) -> stub.createClient(new OkHttpClient.Builder()));
+            inject(reconciler, "mastodonCircuitBreakers", circuitBreakers);
+            inject(reconciler, "mastodonPublicationService", stub(MastodonPublicationService.class,
+                    (method, args) -> {
+                        if ("unregister".equals(method)) {
+                            unregistered.put((Long) args[0], (Long) args[1]);
+                        }
+                        return null;
+                    }));
+            inject(reconciler, "transactionManager", stub(PlatformTransactionManager.class,
+                    (method, args) -> "getTransaction".equals(method) ? new SimpleTransactionStatus() : null));
+            reconciler.setup();
+
+            reconciler.reconcile();
+            assertThat(unregistered.size(), is(1));
+            assertThat(unregistered, hasEntry(2L, 250L));
+
+            // paging stops when the oldest registered status was reached
+            List<String> paths = Arrays.asList(
+                    stub.getServer().takeRequest().getPath(),
+                    stub.getServer().takeRequest().getPath(),
+                    stub.getServer().takeRequest().getPath());
+            assertThat(paths.get(0), is("/api/v1/accounts/verify_credentials"));
+            assertThat(paths.get(1), startsWith("/api/v1/accounts/7/statuses"));
+            assertThat(paths.get(1), not(containsString("max_id")));
+            assertThat(paths.get(2), startsWith("/api/v1/accounts/7/statuses"));
+            assertThat(paths.get(2), containsString("max_id=200"));
+            assertThat(stub.getServer().getRequestCount(), is(3));
+        }
+    }
+
+    /**
+     * Creates a JSON response.
+     */
+    private static MockResponse json(String body) {
+        return new MockResponse()
+                .setHeader("Content-Type", "application/json")
+                .setBody(body);
+    }
+
+}
@@ -0,0 +1,314 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.mastodon;
+
+import static org.shredzone.cilla.plugin.mastodon.MastodonPublicationServiceImpl.*;
+import static org.shredzone.cilla.plugin.publication.TestBeans.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import com.sys1yagi.mastodon4j.api.entity.Status;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import org.shredzone.cilla.core.model.Page;
+import org.shredzone.cilla.core.model.User;
+import org.shredzone.cilla.core.repository.PageDao;
+import org.shredzone.cilla.core.repository.StoreDao;
+import org.shredzone.cilla.plugin.publication.PublicationDispatcher;
+import org.shredzone.cilla.plugin.publication.PublicationEngine;
+import org.shredzone.cilla.plugin.publication.RemoteId;
+import org.shredzone.cilla.plugin.publication.RemoteIdStore;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+/**
+ * Wires a {@link MastodonPublicationServiceImpl} and a {@link MastodonEventListener}
+ * to a {@link StubMastodonServer}, without a Spring context. Only the deferred actions
+ * are kept in an embedded H2 database.
+ * <p>
+ * Pages are kept in memory. The status text is not rendered, so the tests only
+ * measure the remote communication.
+ */
+public class MastodonTestFixture implements AutoCloseable {
+    private static final AtomicInteger DATABASE = new AtomicInteger();
+
+    private final StubMastodonServer stub;
+    private final StubMastodonDispatcher dispatcher = new StubMastodonDispatcher();
+    private final Map<Long, Page> pages = new ConcurrentHashMap<>();
+    private final User user = new User();
+
+    private final MastodonPublicationServiceImpl service;
+    private final MastodonEventListener listener = new MastodonEventListener();
+    private final MastodonDeferredActions deferredActions = new MastodonDeferredActions();
+    private final MastodonMediaUploader mediaUploader = new MastodonMediaUploader();
+    private final MastodonReconciler reconciler = new MastodonReconciler();
+    private final MastodonStreamingSync streamingSync = new MastodonStreamingSync();
+    private final MastodonMetrics metrics = new MastodonMetrics();
+    private final MemoryRemoteIdStore remoteIdStore = new MemoryRemoteIdStore();
+    private final MastodonCircuitBreakers circuitBreakers = new MastodonCircuitBreakers() {
+        @Override
+        long getOpenMillis() {
+            return circuitOpenMillis;
+        }
+    };
+
+    private volatile long circuitOpenMillis = 1000L;
+
+    /**
+     * Creates a new fixture.
+     *
+     * @param sharedConnectionPool
+     *            {@code true}: all clients share one connection pool, {@code false}:
+     *            each client opens its own connections
+     */
+    public MastodonTestFixture(boolean sharedConnectionPool) throws IOException {
+        stub = new StubMastodonServer();
+        stub.getServer().setDispatcher(dispatcher);
+
+        user.getProperties().put(PROPKEY_MASTODON_INSTANCE, "mastodon.example");
+        user.getProperties().put(PROPKEY_MASTODON_TOKEN, "token");
+
+        ConnectionPool connectionPool = sharedConnectionPool ? new ConnectionPool() : null;
+        MastodonServiceFactory factory = (instance, token) -> {
+            OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                    .addInterceptor(new IdempotencyKeyInterceptor());
+            if (connectionPool != null) {
+                builder.connectionPool(connectionPool);
+            }
+            return stub.createClient(builder);
+        };
+
+        PageDao pageDao = stub(PageDao.class, (method, args) ->
+                "fetch".equals(method) ? pages.get(args[0]) : null);
+        StoreDao storeDao = stub(StoreDao.class, (method, args) -> null);
+        PlatformTransactionManager transactionManager = stub(PlatformTransactionManager.class,
+                (method, args) -> "getTransaction".equals(method) ? new SimpleTransactionStatus() : null);
+
+        inject(circuitBreakers, "mastodonFailureThreshold", 3);
+
+        // Deferred actions are retried by the tests themselves
+        inject(deferredActions, "mastodonRetryDelay", 3600L);
+        inject(deferredActions, "dataSource", new DriverManagerDataSource(
+                "jdbc:h2:mem:deferred" + DATABASE.incrementAndGet() + ";DB_CLOSE_DELAY=-1"));
+        deferredActions.setup();
+
+        inject(mediaUploader, "mastodonMediaCount", 0);
+        inject(mediaUploader, "mastodonMediaConcurrency", 2);
+        inject(mediaUploader, "mastodonMediaMaxAge", 3600L);
+        inject(mediaUploader, "storeDao", storeDao);
+
+        PublicationDispatcher publicationDispatcher = new PublicationDispatcher("mastodon");
+
+        service = new MastodonPublicationServiceImpl() {
+            @Override
+            String statusToPost(Page page, MastodonInstanceLimits limits) {
+                return page.getTitle() + " https://cilla.example/page/" + page.getId();
+            }
+        };
+
+        inject(reconciler, "mastodonMasterEnabled", true);
+        inject(reconciler, "mastodonReconcileInterval", 0L);
+        inject(reconciler, "pageDao", pageDao);
+        inject(reconciler, "mastodonRemoteIdStore", remoteIdStore);
+        inject(reconciler, "mastodonServiceFactory", factory);
+        inject(reconciler, "mastodonCircuitBreakers", circuitBreakers);
+        inject(reconciler, "mastodonPublicationService", service);
+        inject(reconciler, "transactionManager", transactionManager);
+        reconciler.setup();
+
+        inject(streamingSync, "mastodonMasterEnabled", true);
+        inject(streamingSync, "mastodonStreaming", false);
+        inject(streamingSync, "pageDao", pageDao);
+        inject(streamingSync, "mastodonRemoteIdStore", remoteIdStore);
+        inject(streamingSync, "mastodonServiceFactory", factory);
+        inject(streamingSync, "mastodonPublicationService", service);
+        inject(streamingSync, "transactionManager", transactionManager);
+        streamingSync.setup();
+
+        inject(service, "mastodonMasterEnabled", true);
+        inject(service, "mastodonUseTags", false);
+        inject(service, "mastodonFixedTags", "");
+        inject(service, "mastodonSeparator", "");
+        inject(service, "mastodonThreading", false);
+        inject(service, "mastodonSensitive", false);
+        inject(service, "mastodonVisibility", Status.Visibility.Public);
+        inject(service, "mastodonServiceFactory", factory);
+        inject(service, "mastodonInstanceService", (MastodonInstanceService) client -> MastodonInstanceLimits.DEFAULT);
+        inject(service, "mastodonThreadIndex", new MastodonThreadIndex());
+        inject(service, "mastodonCircuitBreakers", circuitBreakers);
+        inject(service, "mastodonDeferredActions", deferredActions);
+        inject(service, "mastodonMediaUploader", mediaUploader);
+        inject(service, "mastodonReconciler", reconciler);
+        inject(service, "mastodonStreamingSync", streamingSync);
+        inject(service, "pageDao", pageDao);
+        inject(service, "transactionManager", transactionManager);
+        inject(service, "mastodonMetrics", metrics);
+        inject(service, "mastodonRemoteIdStore", remoteIdStore);
+        inject(service, "mastodonPublicationDispatcher", publicationDispatcher);
+        service.setup();
+
+        MastodonPublicationTarget target = new MastodonPublicationTarget();
+        inject(target, "mastodonMasterEnabled", true);
+        inject(target, "mastodonConcurrency", 4);
+        inject(target, "mastodonPublicationService", service);
+        inject(target, "mastodonDeferredActions", deferredActions);
+        inject(target, "mastodonRemoteIdStore", remoteIdStore);
+
+        PublicationEngine engine = new PublicationEngine(target, publicationDispatcher);
+        engine.setup();
+
+        inject(listener, "mastodonPublicationEngine", engine);
+        inject(listener, "mastodonMetrics", metrics);
+    }
+
+    /**
+     * Sets the number of milliseconds until an open circuit permits a probe call. Must
+     * be invoked before the first request.
+     */
+    public void setCircuitOpenMillis(long circuitOpenMillis) {
+        this.circuitOpenMillis = circuitOpenMillis;
+    }
+
+    /**
+     * Returns the {@link CircuitBreaker} of the stub instance.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreakers.forInstance("mastodon.example");
+    }
+
+    /**
+     * Returns the {@link StubMastodonDispatcher} for injecting failures.
+     */
+    public StubMastodonDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Returns the wired {@link MastodonPublicationServiceImpl}.
+     */
+    public MastodonPublicationServiceImpl getService() {
+        return service;
+    }
+
+    /**
+     * Returns the wired {@link MastodonEventListener}.
+     */
+    public MastodonEventListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Returns the {@link MastodonDeferredActions} of the service.
+     */
+    public MastodonDeferredActions getDeferredActions() {
+        return deferredActions;
+    }
+
+    /**
+     * Returns the {@link MastodonMetrics} of the service.
+     */
+    public MastodonMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the {@link RemoteIdStore} of the service.
+     */
+    public RemoteIdStore getRemoteIdStore() {
+        return remoteIdStore;
+    }
+
+    /**
+     * Creates a new promoted page.
+     *
+     * @param id
+     *            Page ID
+     * @return Created {@link Page}
+     */
+    public Page createPage(long id) {
+        Page page = new Page();
+        page.setId(id);
+        page.setTitle("Page " + id);
+        page.setPromoted(true);
+        page.setPublication(new Date(System.currentTimeMillis() - 60000L));
+        page.setCreator(user);
+        pages.put(id, page);
+        return page;
+    }
+
+    @Override
+    public void close() throws IOException {
+        streamingSync.shutdown();
+        reconciler.shutdown();
+        mediaUploader.shutdown();
+        deferredActions.shutdown();
+        stub.close();
+    }
+
+    /**
+     * A {@link RemoteIdStore} that keeps the remote IDs in memory.
+     */
+    private static class MemoryRemoteIdStore implements RemoteIdStore {
+        private final Map<Long, RemoteId> store = new ConcurrentHashMap<>();
+
+        @Override
+        public RemoteId find(long pageId) {
+            return store.get(pageId);
+        }
+
+        @Override
+        public Long findPageId(String id) {
+            return store.values().stream()
+                    .filter(remoteId -> remoteId.getId().equals(id))
+                    .map(RemoteId::getPageId)
+                    .findFirst()
+                    .orElse(null);
+        }
+
+        @Override
+        public List<RemoteId> findAll() {
+            return new ArrayList<>(store.values());
+        }
+
+        @Override
+        public void put(long pageId, String id, String url) {
+            store.put(pageId, new RemoteId(pageId, id, url));
+        }
+
+        @Override
+        public void remove(long pageId) {
+            store.remove(pageId);
+        }
+
+        @Override
+        public void migrate(Function<Page, RemoteId> mapper) {
+            // nothing to migrate
+        }
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.mastodon;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.shredzone.cilla.plugin.mastodon.MastodonPublicationServiceImpl.PROPKEY_MASTODON_ID;
+import static org.shredzone.cilla.plugin.publication.TestBeans.*;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.shredzone.cilla.core.model.Page;
+import org.shredzone.cilla.core.repository.PageDao;
+
+/**
+ * Unit tests for {@link MastodonThreadIndex}.
+ */
+public class MastodonThreadIndexTest {
+
+    private final List<Page> pages = new ArrayList<>();
+    private MastodonThreadIndex index;
+
+    @Before
+    public void setup() {
+        index = new MastodonThreadIndex();
+        inject(index, "mastodonThreadIndexTtl", 600L);
+        inject(index, "pageDao", stub(PageDao.class, (method, args) -> new ArrayList<>(pages)));
+    }
+
+    @Test
+    public void latestTest() {
+        Page first = createPage(1L, 1000L, 11L);
+        Page second = createPage(2L, 2000L, 12L);
+        Page next = createPage(3L, 3000L, null);
+        assertThat(index.findLatestStatus(next), is(12L));
+
+        // a back-dated page does not become the latest toot
+        Page backdated = createPage(4L, 1500L, 14L);
+        index.published(backdated, 14L);
+        assertThat(index.findLatestStatus(next), is(12L));
+
+        // a newer page does
+        Page newer = createPage(5L, 2500L, 15L);
+        index.published(newer, 15L);
+        assertThat(index.findLatestStatus(next), is(15L));
+
+        // removing the latest toot looks up the subject again
+        pages.remove(newer);
+        index.removed(15L);
+        assertThat(index.findLatestStatus(next), is(12L));
+
+        pages.remove(second);
+        index.removed(second, 12L);
+        assertThat(index.findLatestStatus(next), is(14L));
+
+        pages.remove(backdated);
+        pages.remove(first);
+        index.removed(first, 11L);
+        assertThat(index.findLatestStatus(next), is(nullValue()));
+    }
+
+    @Test
+    public void expiryTest() {
+        Page next = createPage(3L, 3000L, null);
+        assertThat(index.findLatestStatus(next), is(nullValue()));
+
+        // another node tooted a page, which is not seen until the entry expires
+        createPage(1L, 1000L, 11L);
+        assertThat(index.findLatestStatus(next), is(nullValue()));
+
+        inject(index, "mastodonThreadIndexTtl", -1L);
+        assertThat(index.findLatestStatus(next), is(11L));
+    }
+
+    /**
+     * Creates a page of the test subject.
+     */
+    private Page createPage(long id, long publication, Long statusId) {
+        Page page = new Page();
+        page.setId(id);
+        page.setSubject("subject");
+        page.setPublication(new Date(publication));
+        if (statusId != null) {
+            page.getProperties().put(PROPKEY_MASTODON_ID, statusId.toString());
+        }
+        pages.add(page);
+        return page;
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.mastodon;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link MastodonUserStream}.
+ */
+public class MastodonUserStreamTest {
+
+    private static final String STREAM =
+            ":thump\n"
+            + "\n"
+            + "event: update\n"
+            + "data: {\"id\":\"100\"}\n"
+            + "\n"
+            + "event: delete\n"
+            + "data: 101\n"
+            + "\n"
+            + ":thump\n"
+            + "\n"
+            + "event: delete\n"
+            + "data: 102\n"
+            + "\n";
+
+    @Test
+    public void deleteTest() throws Exception {
+        try (StubMastodonServer stub = new StubMastodonServer()) {
+            stub.getServer().enqueue(new MockResponse().setResponseCode(502));
+            stub.getServer().enqueue(new MockResponse()
+                    .setHeader("Content-Type", "text/event-stream")
+                    .setBody(STREAM));
+
+            List<Long> deleted = new CopyOnWriteArrayList<>();
+            CountDownLatch latch = new CountDownLatch(2);
+
+            MastodonUserStream stream = new MastodonUserStream(
+                    stub.createClient(new OkHttpClient.Builder()),
+                    id -> {
+                        deleted.add(id);
+                        latch.countDown();
+                    }, 10L);
+
+            Thread thread = new Thread(stream);
+            thread.start();
+            try {
+                assertThat(latch.await(10, TimeUnit.SECONDS), is(true));
+                assertThat(deleted, contains(101L, 102L));
+            } finally {
+                stream.shutdown();
+                thread.interrupt();
+                thread.join(5000L);
+            }
+
+            RecordedRequest failed = stub.getServer().takeRequest();
+            assertThat(failed.getPath(), is("/api/v1/streaming/user"));
+            assertThat(failed.getHeader("Authorization"), is("Bearer token"));
+
+            RecordedRequest reconnected = stub.getServer().takeRequest();
+            assertThat(reconnected.getPath(), is("/api/v1/streaming/user"));
+        }
+    }
+
+}
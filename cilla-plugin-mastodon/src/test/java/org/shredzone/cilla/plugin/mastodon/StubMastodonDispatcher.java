@@ -0,0 +1,223 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.mastodon;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * A {@link Dispatcher} that simulates the status API of a Mastodon instance. It keeps
+ * the posted statuses in memory, and respects the {@code Idempotency-Key} header.
+ * <p>
+ * Latency, rate limiting and server errors can be injected into the status API.
+ */
+public class StubMastodonDispatcher extends Dispatcher {
+
+    private static final String STATUSES = "/api/v1/statuses";
+
+    private final AtomicLong nextId = new AtomicLong(100000L);
+    private final Set<Long> statuses = ConcurrentHashMap.newKeySet();
+    private final Map<String, Long> idempotencyKeys = new ConcurrentHashMap<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger posts = new AtomicInteger();
+    private final AtomicInteger tooManyRequests = new AtomicInteger();
+    private final AtomicInteger serverErrors = new AtomicInteger();
+
+    private volatile long latency;
+    private volatile double tooManyRequestsRate;
+    private volatile double serverErrorRate;
+    private volatile boolean acceptOnServerError;
+
+    /**
+     * Sets the latency of each response of the status API.
+     *
+     * @param latency
+     *            Latency, in milliseconds
+     */
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Sets the rate of requests that are rejected with a 429 "Too Many Requests".
+     *
+     * @param rate
+     *            Rate, between 0.0 (never) and 1.0 (always)
+     */
+    public void setTooManyRequestsRate(double rate) {
+        this.tooManyRequestsRate = rate;
+    }
+
+    /**
+     * Sets the rate of requests that are answered with a 502 "Bad Gateway".
+     *
+     * @param rate
+     *            Rate, between 0.0 (never) and 1.0 (always)
+     */
+    public void setServerErrorRate(double rate) {
+        this.serverErrorRate = rate;
+    }
+
+    /**
+     * If set, a status is still posted if the request is answered with a server error.
+     * This simulates a proxy that times out while the instance is processing the
+     * request.
+     */
+    public void setAcceptOnServerError(boolean acceptOnServerError) {
+        this.acceptOnServerError = acceptOnServerError;
+    }
+
+    /**
+     * Returns the number of requests to the status API.
+     */
+    public int getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Returns the number of statuses that have been posted.
+     */
+    public int getPosts() {
+        return posts.get();
+    }
+
+    /**
+     * Returns the number of requests that were rejected with a 429.
+     */
+    public int getTooManyRequests() {
+        return tooManyRequests.get();
+    }
+
+    /**
+     * Returns the number of requests that were answered with a server error.
+     */
+    public int getServerErrors() {
+        return serverErrors.get();
+    }
+
+    /**
+     * Checks if a status exists.
+     *
+     * @param statusId
+     *            Status ID
+     * @return {@code true} if the status exists
+     */
+    public boolean exists(long statusId) {
+        return statuses.contains(statusId);
+    }
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+        String path = request.getRequestUrl().encodedPath();
+        if (!path.startsWith(STATUSES)) {
+            return new MockResponse().setResponseCode(404);
+        }
+
+        requests.incrementAndGet();
+        MockResponse response = respond(request, path);
+        if (latency > 0) {
+            response.setHeadersDelay(latency, TimeUnit.MILLISECONDS);
+        }
+        return response;
+    }
+
+    /**
+     * Creates a response to a request to the status API.
+     */
+    private MockResponse respond(RecordedRequest request, String path) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        if (random.nextDouble() < tooManyRequestsRate) {
+            tooManyRequests.incrementAndGet();
+            return new MockResponse().setResponseCode(429).setHeader("Retry-After", "1");
+        }
+
+        boolean serverError = random.nextDouble() < serverErrorRate;
+        if (serverError && !(acceptOnServerError && "POST".equals(request.getMethod()))) {
+            serverErrors.incrementAndGet();
+            return new MockResponse().setResponseCode(502);
+        }
+
+        if ("POST".equals(request.getMethod()) && path.equals(STATUSES)) {
+            long id = post(request.getHeader("Idempotency-Key"));
+            if (serverError) {
+                serverErrors.incrementAndGet();
+                return new MockResponse().setResponseCode(502);
+            }
+            return status(id);
+        }
+
+        long id;
+        try {
+            id = Long.parseLong(path.substring(STATUSES.length() + 1));
+        } catch (IndexOutOfBoundsException | NumberFormatException ex) {
+            return new MockResponse().setResponseCode(404);
+        }
+
+        if ("GET".equals(request.getMethod()) && statuses.contains(id)) {
+            return status(id);
+        }
+
+        if ("DELETE".equals(request.getMethod()) && statuses.remove(id)) {
+            return new MockResponse().setBody("{}");
+        }
+
+        return new MockResponse().setResponseCode(404);
+    }
+
+    /**
+     * Posts a new status, unless a status with the same idempotency key exists.
+     */
+    private long post(String key) {
+        if (key == null) {
+            return create();
+        }
+        return idempotencyKeys.computeIfAbsent(key, k -> create());
+    }
+
+    /**
+     * Creates a new status.
+     */
+    private long create() {
+        long id = nextId.incrementAndGet();
+        statuses.add(id);
+        posts.incrementAndGet();
+        return id;
+    }
+
+    /**
+     * Returns a response with the given status.
+     */
+    private static MockResponse status(long id) {
+        return new MockResponse()
+                .setHeader("Content-Type", "application/json")
+                .setBody("{\"id\":" + id + ",\"url\":\"https://mastodon.example/@cilla/" + id + "\"}");
+    }
+
+}
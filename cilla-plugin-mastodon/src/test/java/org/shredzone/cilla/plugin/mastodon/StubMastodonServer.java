@@ -0,0 +1,85 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.mastodon;
+
+import java.io.IOException;
+
+import com.google.gson.Gson;
+import com.sys1yagi.mastodon4j.MastodonClient;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.QueueDispatcher;
+
+/**
+ * A local stub server that acts as Mastodon instance. It provides
+ * {@link MastodonClient} instances that are connected to the stub server.
+ */
+public class StubMastodonServer implements AutoCloseable {
+
+    private final MockWebServer server = new MockWebServer();
+
+    /**
+     * Starts the stub server. If there are no more enqueued responses, requests are
+     * answered with a 404 status.
+     */
+    public StubMastodonServer() throws IOException {
+        QueueDispatcher dispatcher = new QueueDispatcher();
+        dispatcher.setFailFast(true);
+        server.setDispatcher(dispatcher);
+        server.start();
+    }
+
+    /**
+     * Returns the {@link MockWebServer} for enqueueing responses and inspecting
+     * requests.
+     */
+    public MockWebServer getServer() {
+        return server;
+    }
+
+    /**
+     * Creates a {@link MastodonClient} that sends all requests to the stub server.
+     *
+     * @param builder
+     *            {@link OkHttpClient.Builder} to be used
+     * @return {@link MastodonClient}
+     */
+    public MastodonClient createClient(OkHttpClient.Builder builder) {
+        HttpUrl base = server.url("/");
+        builder.addInterceptor(chain -> {
+            HttpUrl url = chain.request().url().newBuilder()
+                    .scheme(base.scheme())
+                    .host(base.host())
+                    .port(base.port())
+                    .build();
+            return chain.proceed(chain.request().newBuilder().url(url).build());
+        });
+        return new MastodonClient.Builder("mastodon.example", builder, new Gson())
+                .accessToken("token")
+                .build();
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.shutdown();
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.publication;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * An action that could not be performed by a {@link PublicationTarget}, even after all
+ * retries.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class DeadLetter implements Serializable {
+    private static final long serialVersionUID = 4180617429730522317L;
+
+    private final long pageId;
+    private final PublicationAction action;
+    private final int attempts;
+    private final Date failed;
+
+    /**
+     * Creates a new {@link DeadLetter}.
+     *
+     * @param pageId
+     *            ID of the page
+     * @param action
+     *            {@link PublicationAction} that failed
+     * @param attempts
+     *            Number of attempts that were made
+     * @param failed
+     *            Date of the last failure
+     */
+    public DeadLetter(long pageId, PublicationAction action, int attempts, Date failed) {
+        this.pageId = pageId;
+        this.action = action;
+        this.attempts = attempts;
+        this.failed = failed;
+    }
+
+    /**
+     * ID of the page.
+     */
+    public long getPageId() {
+        return pageId;
+    }
+
+    /**
+     * {@link PublicationAction} that failed.
+     */
+    public PublicationAction getAction() {
+        return action;
+    }
+
+    /**
+     * Number of attempts that were made.
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Date of the last failure.
+     */
+    public Date getFailed() {
+        return failed;
+    }
+
+}
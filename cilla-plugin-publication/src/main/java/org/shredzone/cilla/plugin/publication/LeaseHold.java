@@ -0,0 +1,117 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.publication;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the {@link PublicationLease} of a page while a remote action is still running
+ * in background, after the page event handler has returned.
+ * <p>
+ * While a page event is handled under a lease, {@link #keep()} returns the hold of that
+ * lease. The lease is then only released when the handler is completed <em>and</em>
+ * {@link #release()} was invoked. If the page is not handled under a lease, a hold is
+ * returned that does nothing.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class LeaseHold {
+
+    private static final ThreadLocal<LeaseHold> CURRENT = new ThreadLocal<>();
+    private static final LeaseHold NONE = new LeaseHold(null);
+
+    private final Runnable releaser;
+    private final AtomicInteger holders = new AtomicInteger(1);
+
+    /**
+     * Creates a new {@link LeaseHold}.
+     *
+     * @param releaser
+     *            Releases the lease, or {@code null} if there is no lease
+     */
+    LeaseHold(Runnable releaser) {
+        this.releaser = releaser;
+    }
+
+    /**
+     * Keeps the lease of the page that is currently handled by this thread. The caller
+     * must invoke {@link #release()} when the background action is completed.
+     *
+     * @return {@link LeaseHold} to be released later
+     */
+    public static LeaseHold keep() {
+        LeaseHold hold = CURRENT.get();
+        if (hold == null) {
+            return NONE;
+        }
+        hold.holders.incrementAndGet();
+        return hold;
+    }
+
+    /**
+     * Runs an action with this hold as the current one, so the action may keep the
+     * lease again. The hold is released afterwards.
+     *
+     * @param action
+     *            Action to run
+     */
+    public void run(Runnable action) {
+        try {
+            within(action);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Releases the hold. The lease is released when all holders have released it.
+     */
+    public void release() {
+        if (releaser != null && holders.decrementAndGet() == 0) {
+            releaser.run();
+        }
+    }
+
+    /**
+     * Runs an action with this hold as the current one, without releasing it.
+     *
+     * @param action
+     *            Action to run
+     */
+    void within(Runnable action) {
+        if (releaser == null) {
+            action.run();
+            return;
+        }
+
+        LeaseHold previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            action.run();
+        } finally {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        }
+    }
+
+}
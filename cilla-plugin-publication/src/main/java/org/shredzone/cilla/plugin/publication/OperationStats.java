@@ -0,0 +1,146 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.publication;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics of a single operation: call count, outcomes, and a latency histogram.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class OperationStats {
+
+    /**
+     * Upper bounds of the histogram buckets, in milliseconds.
+     */
+    static final long[] BOUNDS = {5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    private final String operation;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0L);
+    private final AtomicLongArray histogram = new AtomicLongArray(BOUNDS.length + 1);
+    private final ConcurrentMap<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new {@link OperationStats}.
+     *
+     * @param operation
+     *            Name of the operation
+     */
+    public OperationStats(String operation) {
+        this.operation = operation;
+    }
+
+    /**
+     * Records an invocation of the operation.
+     *
+     * @param outcome
+     *            Outcome of the operation
+     * @param nanos
+     *            Duration, in nanoseconds
+     */
+    public void record(String outcome, long nanos) {
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+        histogram.incrementAndGet(bucket(TimeUnit.NANOSECONDS.toMillis(nanos)));
+        outcomes.computeIfAbsent(outcome, k -> new LongAdder()).increment();
+    }
+
+    /**
+     * Returns the name of the operation.
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * Returns the number of invocations.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the number of invocations per outcome.
+     */
+    public Map<String, Long> getOutcomes() {
+        Map<String, Long> result = new TreeMap<>();
+        outcomes.forEach((outcome, adder) -> result.put(outcome, adder.sum()));
+        return result;
+    }
+
+    /**
+     * Returns the average duration, in milliseconds.
+     */
+    public double getAverageMillis() {
+        long c = count.sum();
+        return c > 0 ? totalNanos.sum() / 1e6 / c : 0.0;
+    }
+
+    /**
+     * Returns the maximum duration, in milliseconds.
+     */
+    public double getMaxMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    /**
+     * Returns the total time spent in this operation, in milliseconds.
+     */
+    public double getTotalMillis() {
+        return totalNanos.sum() / 1e6;
+    }
+
+    /**
+     * Returns the number of invocations per latency bucket.
+     *
+     * @see PublicationMetricsMXBean#getHistogramBounds()
+     */
+    public long[] getHistogram() {
+        long[] result = new long[histogram.length()];
+        for (int ix = 0; ix < result.length; ix++) {
+            result[ix] = histogram.get(ix);
+        }
+        return result;
+    }
+
+    /**
+     * Finds the histogram bucket of a duration.
+     */
+    static int bucket(long millis) {
+        for (int ix = 0; ix < BOUNDS.length; ix++) {
+            if (millis <= BOUNDS[ix]) {
+                return ix;
+            }
+        }
+        return BOUNDS.length;
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.publication;
+
+/**
+ * Actions that can be performed by a {@link PublicationTarget}.
+ *
+ * @author Richard "Shred" Körber
+ */
+public enum PublicationAction {
+
+    /**
+     * The page is published at the target.
+     */
+    PUBLISH,
+
+    /**
+     * The published page is updated at the target.
+     */
+    UPDATE,
+
+    /**
+     * The published page is removed from the target.
+     */
+    REMOVE;
+
+}
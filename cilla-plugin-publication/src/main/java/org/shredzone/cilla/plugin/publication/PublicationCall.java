@@ -0,0 +1,69 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.publication;
+
+/**
+ * A remote call to a publication network that is currently in progress. It is started by
+ * {@link PublicationMetrics#start(String, long)}, and must be finished exactly once by
+ * {@link #success()} or {@link #finish(String)}.
+ * <p>
+ * The call is recorded in the {@link PublicationMetrics}, and as Java Flight Recorder
+ * event. The flight recorder event costs next to nothing if it is not enabled, and is
+ * skipped on runtimes without flight recorder.
+ *
+ * @author Richard "Shred" Körber
+ */
+public final class PublicationCall {
+
+    private final PublicationMetrics metrics;
+    private final String operation;
+    private final long pageId;
+    private final long start;
+    private final PublicationCallRecording recording;
+
+    PublicationCall(PublicationMetrics metrics, String operation, long pageId) {
+        this.metrics = metrics;
+        this.operation = operation;
+        this.pageId = pageId;
+        this.recording = PublicationCallRecording.begin();
+        this.start = System.nanoTime();
+    }
+
+    /**
+     * Finishes a successful call.
+     */
+    public void success() {
+        finish(PublicationMetrics.SUCCESS);
+    }
+
+    /**
+     * Finishes the call with the given outcome.
+     *
+     * @param outcome
+     *            Outcome of the call, e.g. {@link PublicationMetrics#SUCCESS} or the
+     *            HTTP status
+     */
+    public void finish(String outcome) {
+        long nanos = System.nanoTime() - start;
+        recording.end(metrics.getNetwork(), operation, pageId, outcome);
+        metrics.record(operation, outcome, nanos);
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.publication;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Java Flight Recorder event of a remote call to a publication network. The duration
+ * of the event is the duration of the call.
+ * <p>
+ * Use {@link PublicationCallRecording#begin()}, so this class is not loaded if the
+ * runtime does not provide the flight recorder.
+ *
+ * @author Richard "Shred" Körber
+ */
+@Name("org.shredzone.cilla.plugin.PublicationCall")
+@Label("Publication Call")
+@Description("A remote call to a publication network")
+@Category({"Cilla", "Publication"})
+@StackTrace(false)
+class PublicationCallEvent extends Event {
+
+    @Label("Network")
+    String network;
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Page ID")
+    long pageId;
+
+    @Label("Outcome")
+    String outcome;
+
+    /**
+     * Begins a new event.
+     */
+    static PublicationCallRecording start() {
+        PublicationCallEvent event = new PublicationCallEvent();
+        event.begin();
+        return new PublicationCallRecording() {
+            @Override
+            void end(String network, String operation, long pageId, String outcome) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.network = network;
+                    event.operation = operation;
+                    event.pageId = pageId;
+                    event.outcome = outcome;
+                    event.commit();
+                }
+            }
+        };
+    }
+
+}
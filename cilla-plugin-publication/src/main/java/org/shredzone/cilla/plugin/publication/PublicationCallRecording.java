@@ -0,0 +1,74 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.publication;
+
+/**
+ * A recording of a remote call as Java Flight Recorder event.
+ * <p>
+ * The event class is only loaded if the runtime provides the flight recorder.
+ * Otherwise nothing is recorded.
+ *
+ * @author Richard "Shred" Körber
+ */
+abstract class PublicationCallRecording {
+
+    private static final boolean AVAILABLE = isAvailable();
+
+    private static final PublicationCallRecording NONE = new PublicationCallRecording() {
+        @Override
+        void end(String network, String operation, long pageId, String outcome) {
+            // nothing is recorded
+        }
+    };
+
+    /**
+     * Begins the recording of a remote call.
+     */
+    static PublicationCallRecording begin() {
+        return AVAILABLE ? PublicationCallEvent.start() : NONE;
+    }
+
+    /**
+     * Ends the recording. The event is committed if it is enabled.
+     *
+     * @param network
+     *            Name of the network
+     * @param operation
+     *            Name of the operation
+     * @param pageId
+     *            ID of the page the call was made for
+     * @param outcome
+     *            Outcome of the call
+     */
+    abstract void end(String network, String operation, long pageId, String outcome);
+
+    /**
+     * Checks if the flight recorder is available.
+     */
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, PublicationCallRecording.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError ex) {
+            return false;
+        }
+    }
+
+}
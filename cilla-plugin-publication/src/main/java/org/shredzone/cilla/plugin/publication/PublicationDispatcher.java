@@ -0,0 +1,712 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.publication;
+
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.sql.DataSource;
+
+import org.shredzone.cilla.core.model.Page;
+import org.shredzone.cilla.core.repository.PageDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Dispatches the page event handlers of a publication target.
+ * <p>
+ * By default, the handlers are invoked right away, on the thread that saves the page.
+ * If {@code publication.parallel} is set, the handlers of all targets are run at the
+ * same time on worker threads after the page was committed, each in a transaction of
+ * its own. The saving thread then waits for the slowest target only, instead of the
+ * sum of all targets.
+ * <p>
+ * The handlers of a page are run in the order of the events, per target. On Java 21 or
+ * later, virtual threads are used as workers. Otherwise a fixed thread pool is used.
+ * <p>
+ * If {@code publication.batchWindow} is set, the events are collected for the given
+ * number of milliseconds instead, and then handled one after the other by a single
+ * worker, each in a transaction of its own. This way a batch of pages that goes live
+ * at the same time does not block the saving threads, and a failing event does not
+ * roll back the others. The saving thread does not wait for the batch.
+ * <p>
+ * If {@code publication.cluster} is set, a {@link PublicationLease} makes sure that only
+ * one node of a cluster handles a page at a time. If the lease is held by another node or
+ * handler, the event is handed over to a lease worker, and the handling thread is not
+ * blocked. The lease worker polls for the lease, and then handles the current state of
+ * the page. When a handler of this node releases the lease, the waiting events of the
+ * page are handled right away. Held leases are renewed periodically, so they do not
+ * expire while a remote action is still running.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class PublicationDispatcher {
+
+    private static final long MIN_LEASE_POLL = 50L;
+    private static final long MAX_LEASE_POLL = 5000L;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final String target;
+    private final ConcurrentMap<Long, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+    private final List<BatchEntry> batch = new ArrayList<>();
+    private final Map<Long, LeaseWaiter> waiting = new HashMap<>();
+
+    private @Value("${publication.parallel:false}") boolean publicationParallel;
+    private @Value("${publication.threads:4}") int publicationThreads;
+    private @Value("${publication.timeout:30}") long publicationTimeout;
+    private @Value("${publication.batchWindow:0}") long publicationBatchWindow;
+    private @Value("${publication.batchSize:100}") int publicationBatchSize;
+    private @Value("${publication.cluster:false}") boolean publicationCluster;
+    private @Value("${publication.nodeId:}") String publicationNodeId;
+    private @Value("${publication.leaseDuration:300}") long publicationLeaseDuration;
+
+    private @Resource PageDao pageDao;
+    private @Resource PlatformTransactionManager transactionManager;
+    private @Resource DataSource dataSource;
+
+    private ExecutorService executor;
+    private ScheduledExecutorService batchScheduler;
+    private Semaphore permits;
+    private TransactionTemplate transactionTemplate;
+    private PublicationLease lease;
+    private ScheduledExecutorService leaseScheduler;
+    private ExecutorService leaseWorker;
+    private TransactionTemplate leaseTemplate;
+
+    /**
+     * Creates a new {@link PublicationDispatcher}.
+     *
+     * @param target
+     *            Name of the publication target, e.g. "mastodon"
+     */
+    public PublicationDispatcher(String target) {
+        this.target = target;
+    }
+
+    @PostConstruct
+    public void setup() {
+        if (publicationCluster) {
+            lease = new PublicationLease(target, nodeId(),
+                    TimeUnit.SECONDS.toMillis(publicationLeaseDuration),
+                    dataSource, transactionManager);
+            leaseScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, target + "-publication-lease");
+                thread.setDaemon(true);
+                return thread;
+            });
+            leaseWorker = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, target + "-publication-leased");
+                thread.setDaemon(true);
+                return thread;
+            });
+            leaseTemplate = new TransactionTemplate(transactionManager);
+            leaseTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+            long heartbeat = Math.max(TimeUnit.SECONDS.toMillis(publicationLeaseDuration) / 3, 1L);
+            leaseScheduler.scheduleWithFixedDelay(lease::renew, heartbeat, heartbeat, TimeUnit.MILLISECONDS);
+        }
+
+        if (publicationBatchWindow > 0) {
+            ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread thread = new Thread(r, target + "-publication-batch");
+                thread.setDaemon(true);
+                return thread;
+            });
+            // On shutdown, the pending batch is processed right away
+            scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            batchScheduler = scheduler;
+            transactionTemplate = new TransactionTemplate(transactionManager);
+            transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        } else if (publicationParallel) {
+            executor = createExecutor();
+            permits = new Semaphore(publicationThreads);
+            transactionTemplate = new TransactionTemplate(transactionManager);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (batchScheduler != null) {
+            synchronized (batch) {
+                batchScheduler.execute(this::processBatch);
+                batchScheduler.shutdown();
+            }
+            try {
+                if (!batchScheduler.awaitTermination(publicationTimeout, TimeUnit.SECONDS)) {
+                    log.warn("Batch of page events for " + target + " was not completed after "
+                            + publicationTimeout + "s, dropping it");
+                    batchScheduler.shutdownNow();
+                }
+            } catch (InterruptedException ex) {
+                batchScheduler.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (executor != null) {
+            // Tasks of the same page are chained, so the executor must accept new tasks
+            // until all chains are completed.
+            CompletableFuture<?>[] running = pending.values().toArray(new CompletableFuture<?>[0]);
+            try {
+                CompletableFuture.allOf(running).get(publicationTimeout, TimeUnit.SECONDS);
+                executor.shutdown();
+            } catch (TimeoutException ex) {
+                log.warn("Page events of " + running.length + " pages for " + target
+                        + " were not completed after " + publicationTimeout + "s, dropping them");
+                executor.shutdownNow();
+            } catch (ExecutionException ex) {
+                // failures have already been logged
+                executor.shutdown();
+            } catch (InterruptedException ex) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (leaseScheduler != null) {
+            synchronized (waiting) {
+                leaseScheduler.shutdownNow();
+                int dropped = waiting.values().stream().mapToInt(w -> w.entries.size()).sum();
+                if (dropped > 0) {
+                    log.warn("Dropping " + dropped + " page events for " + target
+                            + " that are waiting for a lease");
+                }
+                waiting.clear();
+            }
+            leaseWorker.shutdown();
+            try {
+                if (!leaseWorker.awaitTermination(publicationTimeout, TimeUnit.SECONDS)) {
+                    log.warn("Page events for " + target + " were not completed after "
+                            + publicationTimeout + "s, dropping them");
+                    leaseWorker.shutdownNow();
+                }
+            } catch (InterruptedException ex) {
+                leaseWorker.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Dispatches a page event handler.
+     * <p>
+     * In parallel and batch mode, the handler gets the current state of the page after
+     * it was committed. Handlers of events of deleted pages must not be dispatched, but must be
+     * invoked directly.
+     *
+     * @param page
+     *            {@link Page} the event is related to
+     * @param handler
+     *            Handler that processes the page
+     * @see #invoke(Page, Consumer)
+     */
+    public void dispatch(Page page, Consumer<Page> handler) {
+        Consumer<Page> task = lease != null ? leased(handler, false) : handler;
+
+        if (batchScheduler != null) {
+            long pageId = page.getId();
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                    @Override
+                    public void afterCommit() {
+                        enqueue(pageId, task);
+                    }
+                });
+            } else {
+                enqueue(pageId, task);
+            }
+            return;
+        }
+
+        if (executor == null || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            task.accept(page);
+            return;
+        }
+
+        long pageId = page.getId();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            private CompletableFuture<Void> future;
+
+            @Override
+            public void afterCommit() {
+                future = submit(pageId, () -> handle(pageId, task));
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                // All tasks have been submitted by afterCommit() at this point, so they
+                // are already running while we are waiting for this one.
+                if (future != null) {
+                    await(pageId, future);
+                }
+            }
+        });
+    }
+
+    /**
+     * Invokes a page event handler right away, on the current thread. This is meant for
+     * events of deleted pages, which cannot be dispatched. If the lease of the page is
+     * held by another handler, the given page is handled by the lease worker later.
+     *
+     * @param page
+     *            {@link Page} the event is related to
+     * @param handler
+     *            Handler that processes the page
+     */
+    public void invoke(Page page, Consumer<Page> handler) {
+        if (lease != null) {
+            handler = leased(handler, true);
+        }
+        handler.accept(page);
+    }
+
+    /**
+     * Wraps a handler, so it is only invoked while this node is holding the lease of
+     * the page. If another node or handler is holding the lease, the event is handed
+     * over to the lease worker, which handles the page as soon as the lease was
+     * acquired.
+     * <p>
+     * The lease is released when the current transaction is completed, so the changes
+     * of the handler are visible to the other nodes by then. If the handler keeps the
+     * lease by {@link LeaseHold#keep()}, it is released when the remote action running
+     * in background is completed as well.
+     *
+     * @param handler
+     *            Handler that processes the page
+     * @param deleted
+     *            {@code true} if the page is deleted, so the given page is to be handled
+     *            instead of its current state
+     * @return Handler that processes the page under the lease
+     */
+    private Consumer<Page> leased(Consumer<Page> handler, boolean deleted) {
+        return page -> {
+            long pageId = page.getId();
+            if (isWaiting(pageId) || !lease.tryAcquire(pageId)) {
+                postpone(pageId, new LeasedEntry(deleted ? page : null, handler));
+                return;
+            }
+
+            LeaseHold hold = new LeaseHold(() -> released(pageId));
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                    @Override
+                    public void afterCompletion(int status) {
+                        hold.release();
+                    }
+                });
+                hold.within(() -> handler.accept(page));
+            } else {
+                hold.run(() -> handler.accept(page));
+            }
+        };
+    }
+
+    /**
+     * Checks if there are events of the page that are waiting for the lease. Later
+     * events must wait as well, so the order of the events is kept.
+     *
+     * @param pageId
+     *            ID of the page
+     * @return {@code true} if events are waiting
+     */
+    private boolean isWaiting(long pageId) {
+        synchronized (waiting) {
+            return waiting.containsKey(pageId);
+        }
+    }
+
+    /**
+     * Postpones an event until the lease of the page could be acquired.
+     *
+     * @param pageId
+     *            ID of the page
+     * @param entry
+     *            {@link LeasedEntry} of the event
+     */
+    private void postpone(long pageId, LeasedEntry entry) {
+        synchronized (waiting) {
+            if (leaseScheduler.isShutdown()) {
+                log.warn("Dropping page event of page id " + pageId + " for " + target
+                        + ", the dispatcher is shutting down");
+                return;
+            }
+            LeaseWaiter waiter = waiting.computeIfAbsent(pageId, id -> new LeaseWaiter());
+            waiter.entries.add(entry);
+            if (waiter.poll == null) {
+                waiter.poll = leaseScheduler.schedule(() -> poll(pageId), waiter.delay, TimeUnit.MILLISECONDS);
+            }
+        }
+        log.info("The " + target + " lease of page id " + pageId + " is held by another handler, postponing the event");
+    }
+
+    /**
+     * Tries to acquire the lease of a page with waiting events. If the lease was
+     * acquired, the events are passed to the lease worker. Otherwise the next attempt
+     * is scheduled, with the delay doubled.
+     *
+     * @param pageId
+     *            ID of the page
+     */
+    private void poll(long pageId) {
+        LeaseWaiter waiter;
+        synchronized (waiting) {
+            waiter = waiting.get(pageId);
+            if (waiter == null) {
+                return;
+            }
+            waiter.poll = null;
+        }
+
+        boolean acquired = false;
+        try {
+            acquired = lease.tryAcquire(pageId);
+        } catch (RuntimeException ex) {
+            log.warn("Could not acquire the " + target + " lease of page id " + pageId, ex);
+        }
+
+        synchronized (waiting) {
+            if (!acquired) {
+                if (waiter.poll == null && !leaseScheduler.isShutdown()) {
+                    waiter.delay = Math.min(waiter.delay * 2, MAX_LEASE_POLL);
+                    waiter.poll = leaseScheduler.schedule(() -> poll(pageId), waiter.delay, TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+            waiting.remove(pageId);
+        }
+
+        try {
+            leaseWorker.execute(() -> handleWaiting(pageId, waiter.entries));
+        } catch (RejectedExecutionException ex) {
+            log.warn("Dropping " + waiter.entries.size() + " page events of page id " + pageId
+                    + " for " + target + ", the dispatcher is shutting down");
+            lease.release(pageId);
+        }
+    }
+
+    /**
+     * Handles the waiting events of a page, while this node is holding its lease. Each
+     * event is handled in a transaction of its own, and the lease is released after
+     * the last one was committed.
+     *
+     * @param pageId
+     *            ID of the page
+     * @param entries
+     *            {@link LeasedEntry} of the waiting events, in the order of the events
+     */
+    private void handleWaiting(long pageId, Deque<LeasedEntry> entries) {
+        LeaseHold hold = new LeaseHold(() -> released(pageId));
+        try {
+            for (LeasedEntry entry : entries) {
+                try {
+                    leaseTemplate.execute(tx -> {
+                        Page page = entry.page != null ? entry.page : pageDao.fetch(pageId);
+                        if (page != null) {
+                            hold.within(() -> entry.handler.accept(page));
+                        }
+                        return null;
+                    });
+                } catch (Exception ex) {
+                    log.warn("Failed to handle page id " + pageId + " for " + target, ex);
+                }
+            }
+        } finally {
+            hold.release();
+        }
+    }
+
+    /**
+     * Releases the lease of a page. If there are events waiting for the lease, they are
+     * handled right away.
+     *
+     * @param pageId
+     *            ID of the page
+     */
+    private void released(long pageId) {
+        lease.release(pageId);
+        synchronized (waiting) {
+            LeaseWaiter waiter = waiting.get(pageId);
+            if (waiter != null && !leaseScheduler.isShutdown()) {
+                if (waiter.poll != null) {
+                    waiter.poll.cancel(false);
+                }
+                waiter.delay = MIN_LEASE_POLL;
+                waiter.poll = leaseScheduler.schedule(() -> poll(pageId), 0L, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Adds an event to the current batch. The batch is processed when the batch window
+     * has elapsed, or when the batch is full. While the dispatcher is shutting down, the
+     * event is handled right away.
+     *
+     * @param pageId
+     *            ID of the page
+     * @param handler
+     *            Handler that processes the page
+     */
+    private void enqueue(long pageId, Consumer<Page> handler) {
+        BatchEntry entry = new BatchEntry(pageId, handler);
+        synchronized (batch) {
+            if (!batchScheduler.isShutdown()) {
+                batch.add(entry);
+                if (batch.size() == 1) {
+                    batchScheduler.schedule(this::processBatch, publicationBatchWindow, TimeUnit.MILLISECONDS);
+                } else if (batch.size() == publicationBatchSize) {
+                    batchScheduler.execute(this::processBatch);
+                }
+                return;
+            }
+        }
+
+        // Too late for a batch, the dispatcher is shutting down
+        handleEntry(entry);
+    }
+
+    /**
+     * Processes all events of the current batch in the order they were dispatched.
+     * Batches are processed one after the other by a single thread, so the order of the
+     * events is kept across batches as well.
+     */
+    private void processBatch() {
+        List<BatchEntry> entries;
+        synchronized (batch) {
+            if (batch.isEmpty()) {
+                return;
+            }
+            entries = new ArrayList<>(batch);
+            batch.clear();
+        }
+
+        log.info("Processing a batch of " + entries.size() + " page events for " + target);
+
+        entries.forEach(this::handleEntry);
+    }
+
+    /**
+     * Handles an event of a batch in a new transaction, so a failure only rolls back
+     * the changes of this event.
+     *
+     * @param entry
+     *            {@link BatchEntry} to handle
+     */
+    private void handleEntry(BatchEntry entry) {
+        try {
+            transactionTemplate.execute(tx -> {
+                Page page = pageDao.fetch(entry.pageId);
+                if (page != null) {
+                    entry.handler.accept(page);
+                }
+                return null;
+            });
+        } catch (Exception ex) {
+            log.warn("Failed to handle page id " + entry.pageId + " for " + target, ex);
+        }
+    }
+
+    /**
+     * Submits a task. It is started when all previous tasks of the same page have been
+     * completed.
+     *
+     * @param pageId
+     *            ID of the page
+     * @param task
+     *            Task to run
+     * @return {@link CompletableFuture} that completes when the task is done
+     */
+    private CompletableFuture<Void> submit(long pageId, Runnable task) {
+        CompletableFuture<Void> future = pending.compute(pageId, (id, previous) ->
+                (previous != null ? previous : CompletableFuture.<Void>completedFuture(null))
+                        .thenRunAsync(() -> runLimited(task), executor));
+        future.whenComplete((r, ex) -> pending.remove(pageId, future));
+        return future;
+    }
+
+    /**
+     * Runs the task, making sure that no more than the configured number of tasks are
+     * run at the same time.
+     *
+     * @param task
+     *            Task to run
+     */
+    private void runLimited(Runnable task) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            task.run();
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Invokes the handler with the current state of the page, in a transaction.
+     *
+     * @param pageId
+     *            ID of the page
+     * @param handler
+     *            Handler that processes the page
+     */
+    private void handle(long pageId, Consumer<Page> handler) {
+        try {
+            transactionTemplate.execute(tx -> {
+                Page page = pageDao.fetch(pageId);
+                if (page != null) {
+                    handler.accept(page);
+                }
+                return null;
+            });
+        } catch (Exception ex) {
+            log.warn("Failed to handle page id " + pageId + " for " + target, ex);
+        }
+    }
+
+    /**
+     * Waits for a task to be completed. If it takes too long, the task is left running
+     * in background.
+     *
+     * @param pageId
+     *            ID of the page
+     * @param future
+     *            {@link CompletableFuture} of the task
+     */
+    private void await(long pageId, CompletableFuture<Void> future) {
+        try {
+            future.get(publicationTimeout, TimeUnit.SECONDS);
+        } catch (TimeoutException ex) {
+            log.warn("Handling page id " + pageId + " for " + target + " is taking longer than "
+                    + publicationTimeout + "s, continuing in background");
+        } catch (ExecutionException ex) {
+            log.warn("Failed to handle page id " + pageId + " for " + target, ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Creates the executor of the worker threads. Virtual threads are used if the Java
+     * runtime supports them, otherwise a fixed thread pool is created.
+     *
+     * @return {@link ExecutorService}
+     */
+    private ExecutorService createExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            log.info("Using virtual threads for publications at " + target);
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return Executors.newFixedThreadPool(publicationThreads, r -> {
+                Thread thread = new Thread(r, target + "-publication-dispatcher");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Returns the name of this node. If {@code publication.nodeId} is not set, the host
+     * name and a random suffix are used, so each node restart gets a new name.
+     */
+    private String nodeId() {
+        if (publicationNodeId != null && !publicationNodeId.trim().isEmpty()) {
+            return publicationNodeId.trim();
+        }
+
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException ex) {
+            host = "localhost";
+        }
+        return host + '-' + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    /**
+     * A page event that is waiting in a batch.
+     */
+    private static class BatchEntry {
+        private final long pageId;
+        private final Consumer<Page> handler;
+
+        private BatchEntry(long pageId, Consumer<Page> handler) {
+            this.pageId = pageId;
+            this.handler = handler;
+        }
+    }
+
+    /**
+     * A page event that is waiting for the lease of its page.
+     */
+    private static class LeasedEntry {
+        private final Page page;
+        private final Consumer<Page> handler;
+
+        private LeasedEntry(Page page, Consumer<Page> handler) {
+            this.page = page;
+            this.handler = handler;
+        }
+    }
+
+    /**
+     * The events of a page that are waiting for its lease, and the next attempt to
+     * acquire it.
+     */
+    private static class LeaseWaiter {
+        private final Deque<LeasedEntry> entries = new ArrayDeque<>();
+        private long delay = MIN_LEASE_POLL;
+        private ScheduledFuture<?> poll;
+    }
+
+}
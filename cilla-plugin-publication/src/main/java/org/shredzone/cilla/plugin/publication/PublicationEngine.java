@@ -0,0 +1,358 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.publication;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.shredzone.cilla.core.model.Page;
+import org.shredzone.cilla.core.repository.PageDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Handles the page events of a {@link PublicationTarget}.
+ * <p>
+ * The engine decides which action is to be performed on a page event, and passes it to
+ * the {@link PublicationDispatcher}. The number of actions running at the same time is
+ * limited by {@link PublicationTarget#getConcurrency()}.
+ * <p>
+ * After an action was performed, the engine waits for {@code publication.retryDelay}
+ * seconds, and then checks if the action was successful. If not, the action is tried
+ * again, with the delay doubled after each attempt. After {@code publication.retries}
+ * failed retries, the action is put on the dead letter list, where it can be redelivered
+ * manually. Actions on deleted pages cannot be retried.
+ * <p>
+ * Retries are passed to the {@link PublicationDispatcher} like page events, so they are
+ * ordered against the other events of the page. The dead letter list is available via
+ * JMX, where the actions can also be redelivered.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class PublicationEngine implements PublicationEngineMXBean {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final PublicationTarget target;
+    private final PublicationDispatcher dispatcher;
+    private final LinkedList<DeadLetter> deadLetters = new LinkedList<>();
+
+    private @Value("${publication.retries:3}") int publicationRetries;
+    private @Value("${publication.retryDelay:60}") long publicationRetryDelay;
+    private @Value("${publication.deadLetters:100}") int publicationDeadLetters;
+
+    private @Resource PageDao pageDao;
+    private @Resource PlatformTransactionManager transactionManager;
+
+    private Semaphore permits;
+    private ScheduledExecutorService retryScheduler;
+    private TransactionTemplate transactionTemplate;
+    private ObjectName objectName;
+
+    /**
+     * Creates a new {@link PublicationEngine}.
+     *
+     * @param target
+     *            {@link PublicationTarget} to be driven
+     * @param dispatcher
+     *            {@link PublicationDispatcher} of the target
+     */
+    public PublicationEngine(PublicationTarget target, PublicationDispatcher dispatcher) {
+        this.target = target;
+        this.dispatcher = dispatcher;
+    }
+
+    @PostConstruct
+    public void setup() {
+        permits = new Semaphore(Math.max(target.getConcurrency(), 1));
+        if (publicationRetries > 0) {
+            retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, target.getName() + "-publication-retry");
+                thread.setDaemon(true);
+                return thread;
+            });
+            transactionTemplate = new TransactionTemplate(transactionManager);
+        }
+        register();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        unregister();
+        if (retryScheduler != null) {
+            retryScheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * A page has been published.
+     *
+     * @param page
+     *            {@link Page} that has been published
+     */
+    public void onPublish(Page page) {
+        dispatcher.dispatch(page, p -> process(p, PublicationAction.PUBLISH, 0));
+    }
+
+    /**
+     * A page has been updated. Depending on its state, it is published, updated or
+     * removed at the target.
+     *
+     * @param page
+     *            {@link Page} that was updated
+     */
+    public void onUpdate(Page page) {
+        dispatcher.dispatch(page, p -> process(p, PublicationAction.UPDATE, 0));
+    }
+
+    /**
+     * A page has been unpublished.
+     *
+     * @param page
+     *            {@link Page} that has been unpublished
+     */
+    public void onUnpublish(Page page) {
+        dispatcher.dispatch(page, p -> process(p, PublicationAction.REMOVE, 0));
+    }
+
+    /**
+     * A page is deleted. The page is gone after the transaction, so it is removed from
+     * the target right away, and the removal is not retried.
+     *
+     * @param page
+     *            {@link Page} that is deleted
+     */
+    public void onDelete(Page page) {
+        dispatcher.invoke(page, p -> process(p, PublicationAction.REMOVE, -1));
+    }
+
+    @Override
+    public String getTarget() {
+        return target.getName();
+    }
+
+    /**
+     * Returns a copy of the dead letter list, oldest entries first.
+     */
+    @Override
+    public List<DeadLetter> getDeadLetters() {
+        synchronized (deadLetters) {
+            return new ArrayList<>(deadLetters);
+        }
+    }
+
+    @Override
+    public void redeliver() {
+        List<DeadLetter> letters;
+        synchronized (deadLetters) {
+            letters = new ArrayList<>(deadLetters);
+            deadLetters.clear();
+        }
+
+        for (DeadLetter letter : letters) {
+            retry(letter.getPageId(), letter.getAction(), 0);
+        }
+    }
+
+    /**
+     * Decides which action is to be performed on the page, and performs it.
+     *
+     * @param page
+     *            {@link Page} to process
+     * @param event
+     *            {@link PublicationAction} that corresponds to the page event
+     * @param attempt
+     *            Number of the attempt, starting with 0. A negative number means that
+     *            the action must not be retried.
+     */
+    private void process(Page page, PublicationAction event, int attempt) {
+        if (!target.isEnabled()) {
+            return;
+        }
+
+        PublicationAction action = null;
+        switch (event) {
+            case PUBLISH:
+                if (page.isPromoted() && !target.isRegistered(page)) {
+                    action = PublicationAction.PUBLISH;
+                }
+                break;
+
+            case UPDATE:
+                if (page.isPublishedState() && page.getPublication() != null) {
+                    boolean isRegistered = target.isRegistered(page);
+                    if (page.isPromoted() && !isRegistered) {
+                        action = PublicationAction.PUBLISH;
+                    } else if (page.isPromoted() && isRegistered) {
+                        action = PublicationAction.UPDATE;
+                    } else if (!page.isPromoted() && isRegistered) {
+                        action = PublicationAction.REMOVE;
+                    }
+                }
+                break;
+
+            case REMOVE:
+                if (target.isRegistered(page)) {
+                    action = PublicationAction.REMOVE;
+                }
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unknown action " + event);
+        }
+
+        if (action == null) {
+            return;
+        }
+
+        permits.acquireUninterruptibly();
+        try {
+            switch (action) {
+                case PUBLISH: target.publish(page); break;
+                case UPDATE:  target.update(page);  break;
+                case REMOVE:  target.remove(page);  break;
+                default:      throw new IllegalArgumentException("Unknown action " + action);
+            }
+        } catch (RuntimeException ex) {
+            log.warn("Failed to " + action + " page id " + page.getId() + " at " + target.getName(), ex);
+        } finally {
+            permits.release();
+        }
+
+        if (attempt >= 0 && retryScheduler != null) {
+            long pageId = page.getId();
+            PublicationAction performed = action;
+            long delay = publicationRetryDelay << Math.min(attempt, 16);
+            retryScheduler.schedule(() -> check(pageId, performed, attempt), delay, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Checks if an action was successful, and retries it if not.
+     *
+     * @param pageId
+     *            ID of the page
+     * @param action
+     *            {@link PublicationAction} that was performed
+     * @param attempt
+     *            Number of the attempt that was made
+     */
+    private void check(long pageId, PublicationAction action, int attempt) {
+        try {
+            Boolean verified = transactionTemplate.execute(tx -> {
+                Page page = pageDao.fetch(pageId);
+                return page == null || target.verify(page, action);
+            });
+            if (Boolean.TRUE.equals(verified)) {
+                return;
+            }
+        } catch (RuntimeException ex) {
+            log.warn("Could not verify " + action + " of page id " + pageId + " at " + target.getName(), ex);
+        }
+
+        if (attempt >= publicationRetries) {
+            log.warn("Giving up to " + action + " page id " + pageId + " at " + target.getName()
+                    + " after " + (attempt + 1) + " attempts");
+            synchronized (deadLetters) {
+                deadLetters.add(new DeadLetter(pageId, action, attempt + 1, new Date()));
+                while (deadLetters.size() > publicationDeadLetters) {
+                    deadLetters.removeFirst();
+                }
+            }
+            return;
+        }
+
+        log.info("Retrying to " + action + " page id " + pageId + " at " + target.getName());
+        retry(pageId, action, attempt + 1);
+    }
+
+    /**
+     * Dispatches the current state of a page again. If the action is not applicable to
+     * the page any more, it is dropped.
+     *
+     * @param pageId
+     *            ID of the page
+     * @param action
+     *            {@link PublicationAction} to retry
+     * @param attempt
+     *            Number of the attempt
+     */
+    private void retry(long pageId, PublicationAction action, int attempt) {
+        try {
+            transactionTemplate.execute(tx -> {
+                Page page = pageDao.fetch(pageId);
+                if (page != null) {
+                    dispatcher.dispatch(page, p -> process(p, action, attempt));
+                }
+                return null;
+            });
+        } catch (RuntimeException ex) {
+            log.warn("Failed to retry " + action + " of page id " + pageId + " at " + target.getName(), ex);
+        }
+    }
+
+    /**
+     * Registers the engine at the platform MBean server.
+     */
+    private void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName("org.shredzone.cilla.plugin:type=PublicationEngine,target=" + target.getName());
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(this, objectName);
+            }
+        } catch (JMException ex) {
+            log.warn("Could not register the publication engine of " + target.getName() + " at JMX", ex);
+            objectName = null;
+        }
+    }
+
+    /**
+     * Unregisters the engine from the platform MBean server.
+     */
+    private void unregister() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException ex) {
+                log.warn("Could not unregister the publication engine of " + target.getName() + " from JMX", ex);
+            }
+            objectName = null;
+        }
+    }
+
+}
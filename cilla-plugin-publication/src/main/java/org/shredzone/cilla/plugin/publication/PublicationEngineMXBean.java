@@ -0,0 +1,46 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.publication;
+
+import java.util.List;
+
+/**
+ * JMX interface of {@link PublicationEngine}.
+ *
+ * @author Richard "Shred" Körber
+ */
+public interface PublicationEngineMXBean {
+
+    /**
+     * Returns the name of the publication target.
+     */
+    String getTarget();
+
+    /**
+     * Returns the actions on the dead letter list, oldest entries first.
+     */
+    List<DeadLetter> getDeadLetters();
+
+    /**
+     * Tries all actions on the dead letter list again. The list is cleared.
+     */
+    void redeliver();
+
+}
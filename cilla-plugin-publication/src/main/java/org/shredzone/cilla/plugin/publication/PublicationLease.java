@@ -0,0 +1,185 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.publication;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * A lease on the publication of a page at a target, that is shared by all nodes of a
+ * cluster via the database. Only the node holding the lease performs remote actions
+ * for the page. The lease expires after a while, so a crashed node cannot block a
+ * page forever. While a lease is held, it must be renewed periodically by
+ * {@link #renew()}, so it does not expire while the remote action is still running.
+ * <p>
+ * Leases are acquired and released in transactions of their own, so they are visible
+ * to the other nodes immediately. The expiry is compared to the clock of each node, so
+ * the clocks of the nodes should be synchronized.
+ * <p>
+ * A lease is also exclusive within a node, so two events of the same page are never
+ * handled at the same time.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class PublicationLease {
+
+    private static final String TABLE = "cilla_publication_lease";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final String target;
+    private final String node;
+    private final long duration;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Set<Long> held = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates a new {@link PublicationLease}. The lease table is created if it does not
+     * exist yet.
+     *
+     * @param target
+     *            Name of the publication target, e.g. "mastodon"
+     * @param node
+     *            Unique name of this node
+     * @param duration
+     *            Maximum duration of a lease, in milliseconds
+     * @param dataSource
+     *            {@link DataSource} of the database
+     * @param transactionManager
+     *            {@link PlatformTransactionManager} to be used
+     */
+    public PublicationLease(String target, String node, long duration,
+            DataSource dataSource, PlatformTransactionManager transactionManager) {
+        this.target = target;
+        this.node = node;
+        this.duration = duration;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+        try {
+            jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + TABLE + " WHERE 1=0", Long.class);
+        } catch (DataAccessException ex) {
+            log.info("Creating table " + TABLE);
+            jdbcTemplate.execute("CREATE TABLE " + TABLE + " ("
+                    + "page_id BIGINT NOT NULL, "
+                    + "target VARCHAR(32) NOT NULL, "
+                    + "node VARCHAR(255) NOT NULL, "
+                    + "expires BIGINT NOT NULL, "
+                    + "PRIMARY KEY (page_id, target))");
+        }
+    }
+
+    /**
+     * Tries to acquire the lease of a page.
+     *
+     * @param pageId
+     *            ID of the page
+     * @return {@code true} if the lease was acquired, {@code false} if another node or
+     *         another handler of this node is holding it
+     */
+    public boolean tryAcquire(long pageId) {
+        if (!held.add(pageId)) {
+            return false;
+        }
+
+        try {
+            long now = System.currentTimeMillis();
+            long expires = now + duration;
+
+            // A lease of this node is a left-over of a crashed handler, and is taken over
+            Integer updated = transactionTemplate.execute(tx -> jdbcTemplate.update(
+                    "UPDATE " + TABLE + " SET node=?, expires=? WHERE page_id=? AND target=? AND (node=? OR expires<?)",
+                    node, expires, pageId, target, node, now));
+            if (updated != null && updated > 0) {
+                return true;
+            }
+
+            transactionTemplate.execute(tx -> jdbcTemplate.update(
+                    "INSERT INTO " + TABLE + " (page_id, target, node, expires) VALUES (?, ?, ?, ?)",
+                    pageId, target, node, expires));
+            return true;
+        } catch (DataIntegrityViolationException ex) {
+            // Another node is holding the lease
+            held.remove(pageId);
+            return false;
+        } catch (RuntimeException ex) {
+            held.remove(pageId);
+            throw ex;
+        }
+    }
+
+    /**
+     * Renews all leases that are held by this node, so they do not expire while the
+     * remote actions are still running. This is supposed to be invoked several times
+     * per lease duration.
+     */
+    public void renew() {
+        long expires = System.currentTimeMillis() + duration;
+        for (Long pageId : held) {
+            try {
+                Integer updated = transactionTemplate.execute(tx -> jdbcTemplate.update(
+                        "UPDATE " + TABLE + " SET expires=? WHERE page_id=? AND target=? AND node=?",
+                        expires, pageId, target, node));
+                if (updated == null || updated == 0) {
+                    log.warn("The " + target + " lease of page id " + pageId
+                            + " has expired and was taken over by another node");
+                }
+            } catch (DataAccessException | TransactionException ex) {
+                log.warn("Could not renew the " + target + " lease of page id " + pageId, ex);
+            }
+        }
+    }
+
+    /**
+     * Releases the lease of a page. Does nothing if this node is not holding the lease.
+     *
+     * @param pageId
+     *            ID of the page
+     */
+    public void release(long pageId) {
+        if (!held.remove(pageId)) {
+            return;
+        }
+
+        try {
+            transactionTemplate.execute(tx -> jdbcTemplate.update(
+                    "DELETE FROM " + TABLE + " WHERE page_id=? AND target=? AND node=?",
+                    pageId, target, node));
+        } catch (DataAccessException ex) {
+            log.warn("Could not release the " + target + " lease of page id " + pageId
+                    + ", it will expire", ex);
+        }
+    }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.publication;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects the metrics of the operations of a publication network. The metrics are
+ * available via JMX, and are passed to all {@link PublicationMetricsListener}. Remote
+ * calls that are started by {@link #start(String, long)} are also recorded as Java
+ * Flight Recorder events.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class PublicationMetrics implements PublicationMetricsMXBean {
+
+    /**
+     * Outcome of a successful operation.
+     */
+    public static final String SUCCESS = "success";
+
+    /**
+     * Outcome of an operation that failed without a HTTP status.
+     */
+    public static final String ERROR = "error";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final String network;
+    private final ConcurrentMap<String, OperationStats> operations = new ConcurrentHashMap<>();
+    private volatile List<PublicationMetricsListener> listeners = Collections.emptyList();
+    private ObjectName objectName;
+
+    /**
+     * Creates a new {@link PublicationMetrics}.
+     *
+     * @param network
+     *            Name of the network, e.g. "mastodon"
+     */
+    public PublicationMetrics(String network) {
+        this.network = network;
+    }
+
+    /**
+     * Sets the listeners that receive all recorded metrics.
+     */
+    public void setListeners(List<PublicationMetricsListener> listeners) {
+        this.listeners = listeners != null ? new ArrayList<>(listeners) : Collections.emptyList();
+    }
+
+    /**
+     * Records an operation.
+     *
+     * @param operation
+     *            Name of the operation, e.g. "publish"
+     * @param outcome
+     *            Outcome of the operation, e.g. {@link #SUCCESS} or the HTTP status
+     * @param nanos
+     *            Duration of the operation, in nanoseconds
+     */
+    public void record(String operation, String outcome, long nanos) {
+        operations.computeIfAbsent(operation, OperationStats::new).record(outcome, nanos);
+        for (PublicationMetricsListener listener : listeners) {
+            listener.onRecord(network, operation, outcome, nanos);
+        }
+    }
+
+    /**
+     * Starts a remote call. The call is recorded when it is finished.
+     *
+     * @param operation
+     *            Name of the operation, e.g. "publish"
+     * @param pageId
+     *            ID of the page the call is made for
+     * @return {@link PublicationCall} that must be finished when the call is completed
+     */
+    public PublicationCall start(String operation, long pageId) {
+        return new PublicationCall(this, operation, pageId);
+    }
+
+    /**
+     * Records the time spent in a page event handler.
+     *
+     * @param event
+     *            Name of the event, e.g. "PAGE_PUBLISH"
+     * @param nanos
+     *            Time spent in the event handler, in nanoseconds
+     */
+    public void recordEvent(String event, long nanos) {
+        record("event." + event, SUCCESS, nanos);
+    }
+
+    /**
+     * Returns the outcome of a HTTP status.
+     *
+     * @param status
+     *            HTTP status
+     * @return Outcome
+     */
+    public static String outcome(int status) {
+        return status >= 200 && status < 300 ? SUCCESS : String.valueOf(status);
+    }
+
+    @Override
+    public String getNetwork() {
+        return network;
+    }
+
+    @Override
+    public List<OperationStats> getOperations() {
+        List<OperationStats> result = new ArrayList<>(operations.values());
+        result.sort(Comparator.comparing(OperationStats::getOperation));
+        return result;
+    }
+
+    @Override
+    public long[] getHistogramBounds() {
+        return OperationStats.BOUNDS.clone();
+    }
+
+    @Override
+    public void reset() {
+        operations.clear();
+    }
+
+    /**
+     * Registers the metrics at the platform MBean server.
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName("org.shredzone.cilla.plugin:type=PublicationMetrics,network=" + network);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(this, objectName);
+            }
+        } catch (JMException ex) {
+            log.warn("Could not register the publication metrics of " + network + " at JMX", ex);
+            objectName = null;
+        }
+    }
+
+    /**
+     * Unregisters the metrics from the platform MBean server.
+     */
+    public void unregister() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException ex) {
+                log.warn("Could not unregister the publication metrics of " + network + " from JMX", ex);
+            }
+            objectName = null;
+        }
+    }
+
+}
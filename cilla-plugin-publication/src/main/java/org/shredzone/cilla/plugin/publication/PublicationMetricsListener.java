@@ -0,0 +1,45 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.publication;
+
+/**
+ * Receives all metrics that are recorded by {@link PublicationMetrics}. Implement this
+ * interface as Spring bean to forward the metrics to other metrics systems.
+ *
+ * @author Richard "Shred" Körber
+ */
+public interface PublicationMetricsListener {
+
+    /**
+     * Invoked when an operation has been recorded. Implementations must be fast and
+     * thread-safe.
+     *
+     * @param network
+     *            Name of the network, e.g. "mastodon"
+     * @param operation
+     *            Name of the operation, e.g. "publish"
+     * @param outcome
+     *            Outcome of the operation, e.g. "success" or the HTTP status
+     * @param nanos
+     *            Duration of the operation, in nanoseconds
+     */
+    void onRecord(String network, String operation, String outcome, long nanos);
+
+}
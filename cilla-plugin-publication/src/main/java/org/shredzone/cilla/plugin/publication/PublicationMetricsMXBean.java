@@ -0,0 +1,52 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.publication;
+
+import java.util.List;
+
+/**
+ * JMX interface of {@link PublicationMetrics}.
+ *
+ * @author Richard "Shred" Körber
+ */
+public interface PublicationMetricsMXBean {
+
+    /**
+     * Returns the name of the network.
+     */
+    String getNetwork();
+
+    /**
+     * Returns the statistics of all operations that have been recorded.
+     */
+    List<OperationStats> getOperations();
+
+    /**
+     * Returns the upper bounds of the latency histogram buckets, in milliseconds.
+     * The last bucket has no upper bound.
+     */
+    long[] getHistogramBounds();
+
+    /**
+     * Resets all statistics.
+     */
+    void reset();
+
+}
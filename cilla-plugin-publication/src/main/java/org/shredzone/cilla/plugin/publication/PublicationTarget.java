@@ -0,0 +1,100 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.publication;
+
+import org.shredzone.cilla.core.model.Page;
+
+/**
+ * A network that pages are published at, like Mastodon or Tumblr. It is driven by a
+ * {@link PublicationEngine}, which decides which action is to be performed, and takes
+ * care of concurrency and retries.
+ * <p>
+ * Failures are logged by the target and not passed on. The engine uses
+ * {@link #verify(Page, PublicationAction)} later to find out if an action needs to be
+ * retried.
+ *
+ * @author Richard "Shred" Körber
+ */
+public interface PublicationTarget {
+
+    /**
+     * Returns the name of the target, e.g. "mastodon".
+     */
+    String getName();
+
+    /**
+     * Returns {@code true} if the target is enabled. If disabled, page events are
+     * ignored.
+     */
+    boolean isEnabled();
+
+    /**
+     * Returns the maximum number of actions that may be performed at the same time.
+     */
+    int getConcurrency();
+
+    /**
+     * Checks if the {@link Page} is published at the target.
+     *
+     * @param page
+     *            {@link Page} to check
+     * @return {@code true} if the page is published
+     */
+    boolean isRegistered(Page page);
+
+    /**
+     * Publishes a {@link Page} at the target.
+     *
+     * @param page
+     *            {@link Page} to publish
+     */
+    void publish(Page page);
+
+    /**
+     * Updates a published {@link Page} at the target.
+     *
+     * @param page
+     *            {@link Page} to update
+     */
+    void update(Page page);
+
+    /**
+     * Removes a published {@link Page} from the target.
+     *
+     * @param page
+     *            {@link Page} to remove
+     */
+    void remove(Page page);
+
+    /**
+     * Checks if an action has been performed, or is still on its way. Actions that are
+     * not applicable to the page (e.g. because the author has no account at the target)
+     * are considered as performed. The target must not be accessed for this check.
+     *
+     * @param page
+     *            {@link Page} with its current state
+     * @param action
+     *            {@link PublicationAction} that was performed
+     * @return {@code true} if the action was performed, {@code false} if it needs to be
+     *         retried
+     */
+    boolean verify(Page page, PublicationAction action);
+
+}
@@ -0,0 +1,73 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.publication;
+
+import java.io.Serializable;
+
+/**
+ * The remote ID of a page that has been published at a publication target.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class RemoteId implements Serializable {
+    private static final long serialVersionUID = 2316705925174512036L;
+
+    private final long pageId;
+    private final String id;
+    private final String url;
+
+    /**
+     * Creates a new {@link RemoteId}.
+     *
+     * @param pageId
+     *            ID of the page
+     * @param id
+     *            ID of the page at the publication target
+     * @param url
+     *            URL of the page at the publication target, or {@code null} if unknown
+     */
+    public RemoteId(long pageId, String id, String url) {
+        this.pageId = pageId;
+        this.id = id;
+        this.url = url;
+    }
+
+    /**
+     * ID of the page.
+     */
+    public long getPageId() {
+        return pageId;
+    }
+
+    /**
+     * ID of the page at the publication target.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * URL of the page at the publication target, or {@code null} if unknown.
+     */
+    public String getUrl() {
+        return url;
+    }
+
+}
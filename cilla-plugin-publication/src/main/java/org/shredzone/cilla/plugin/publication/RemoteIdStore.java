@@ -0,0 +1,95 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.publication;
+
+import java.util.List;
+import java.util.function.Function;
+
+import org.shredzone.cilla.core.model.Page;
+
+/**
+ * Stores the remote IDs of the pages that have been published at a publication target.
+ * The IDs are indexed by page ID and by remote ID.
+ *
+ * @author Richard "Shred" Körber
+ */
+public interface RemoteIdStore {
+
+    /**
+     * Finds the remote ID of a page.
+     *
+     * @param pageId
+     *            ID of the page
+     * @return {@link RemoteId}, or {@code null} if the page is not published at the
+     *         target
+     */
+    RemoteId find(long pageId);
+
+    /**
+     * Finds the page of a remote ID.
+     *
+     * @param id
+     *            ID of the page at the publication target
+     * @return ID of the page, or {@code null} if unknown
+     */
+    Long findPageId(String id);
+
+    /**
+     * Finds all remote IDs of the target.
+     *
+     * @return List of all {@link RemoteId}
+     */
+    List<RemoteId> findAll();
+
+    /**
+     * Stores the remote ID of a page. An existing remote ID is replaced.
+     *
+     * @param pageId
+     *            ID of the page
+     * @param id
+     *            ID of the page at the publication target
+     * @param url
+     *            URL of the page at the publication target, or {@code null} if unknown
+     */
+    void put(long pageId, String id, String url);
+
+    /**
+     * Removes the remote ID of a page. Does nothing if there is no remote ID.
+     *
+     * @param pageId
+     *            ID of the page
+     */
+    void remove(long pageId);
+
+    /**
+     * Migrates the remote IDs from the page properties of all pages. This is only done
+     * once per target, even if several nodes are started at the same time. Remote IDs
+     * that are already stored are not overwritten.
+     * <p>
+     * The migration is done in background. Until it is completed, {@link #find(long)}
+     * also returns the remote IDs that are still kept in the page properties.
+     *
+     * @param mapper
+     *            Function that returns the {@link RemoteId} of a page, read from its
+     *            properties, or {@code null} if the page is not published at the target
+     */
+    void migrate(Function<Page, RemoteId> mapper);
+
+}
@@ -0,0 +1,287 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.publication;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.sql.DataSource;
+
+import org.shredzone.cilla.core.model.Page;
+import org.shredzone.cilla.core.repository.PageDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Default implementation of {@link RemoteIdStore}. The remote IDs of all targets are
+ * kept in a table of their own, with the page ID and target as primary key. The table
+ * is created on startup if it does not exist yet.
+ * <p>
+ * The migrated targets are recorded in a marker table. The marker is inserted after the
+ * remote IDs were copied, in the same transaction, so a failed migration is rolled back
+ * completely and is repeated on the next start. If several nodes of a cluster migrate
+ * a target at the same time, only the first one to commit succeeds.
+ * <p>
+ * The migration reads all pages, so it is done in background. Until it is completed,
+ * remote IDs that are not migrated yet are read from the page properties.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class RemoteIdStoreImpl implements RemoteIdStore {
+
+    private static final String TABLE = "cilla_remote_id";
+    private static final String MIGRATION_TABLE = "cilla_remote_id_migration";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final String target;
+    private final RowMapper<RemoteId> rowMapper = (rs, row) ->
+            new RemoteId(rs.getLong("page_id"), rs.getString("remote_id"), rs.getString("remote_url"));
+
+    private @Resource DataSource dataSource;
+    private @Resource PageDao pageDao;
+    private @Resource PlatformTransactionManager transactionManager;
+
+    private JdbcTemplate jdbcTemplate;
+    private ExecutorService migrator;
+    private volatile Function<Page, RemoteId> migrating;
+
+    /**
+     * Creates a new {@link RemoteIdStoreImpl}.
+     *
+     * @param target
+     *            Name of the publication target, e.g. "mastodon"
+     */
+    public RemoteIdStoreImpl(String target) {
+        this.target = target;
+    }
+
+    @PostConstruct
+    public void setup() {
+        migrator = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, target + "-remote-id-migration");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        try {
+            jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + TABLE + " WHERE 1=0", Long.class);
+        } catch (DataAccessException ex) {
+            log.info("Creating table " + TABLE);
+            jdbcTemplate.execute("CREATE TABLE " + TABLE + " ("
+                    + "page_id BIGINT NOT NULL, "
+                    + "target VARCHAR(32) NOT NULL, "
+                    + "remote_id VARCHAR(255) NOT NULL, "
+                    + "remote_url VARCHAR(1024), "
+                    + "PRIMARY KEY (page_id, target))");
+            jdbcTemplate.execute("CREATE INDEX " + TABLE + "_remote ON " + TABLE + " (target, remote_id)");
+        }
+
+        try {
+            jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + MIGRATION_TABLE + " WHERE 1=0", Long.class);
+        } catch (DataAccessException ex) {
+            log.info("Creating table " + MIGRATION_TABLE);
+            try {
+                jdbcTemplate.execute("CREATE TABLE " + MIGRATION_TABLE + " ("
+                        + "target VARCHAR(32) NOT NULL, "
+                        + "migrated TIMESTAMP NOT NULL, "
+                        + "PRIMARY KEY (target))");
+            } catch (DataAccessException ex2) {
+                // Another target or node has created the table in the meantime
+                log.debug("Could not create table " + MIGRATION_TABLE, ex2);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        migrator.shutdownNow();
+    }
+
+    @Override
+    public RemoteId find(long pageId) {
+        RemoteId result = lookup(pageId);
+
+        Function<Page, RemoteId> mapper = migrating;
+        if (result == null && mapper != null) {
+            Page page = pageDao.fetch(pageId);
+            return page != null ? mapper.apply(page) : null;
+        }
+
+        return result;
+    }
+
+    @Override
+    public Long findPageId(String id) {
+        List<Long> result = jdbcTemplate.queryForList(
+                "SELECT page_id FROM " + TABLE + " WHERE target=? AND remote_id=?",
+                Long.class, target, id);
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    @Override
+    public List<RemoteId> findAll() {
+        return jdbcTemplate.query(
+                "SELECT page_id, remote_id, remote_url FROM " + TABLE + " WHERE target=? ORDER BY page_id",
+                rowMapper, target);
+    }
+
+    @Override
+    public void put(long pageId, String id, String url) {
+        int updated = jdbcTemplate.update(
+                "UPDATE " + TABLE + " SET remote_id=?, remote_url=? WHERE page_id=? AND target=?",
+                id, url, pageId, target);
+        if (updated == 0) {
+            try {
+                insert(pageId, id, url);
+            } catch (DuplicateKeyException ex) {
+                // Another node has inserted the ID in the meantime
+                jdbcTemplate.update(
+                        "UPDATE " + TABLE + " SET remote_id=?, remote_url=? WHERE page_id=? AND target=?",
+                        id, url, pageId, target);
+            }
+        }
+    }
+
+    @Override
+    public void remove(long pageId) {
+        jdbcTemplate.update("DELETE FROM " + TABLE + " WHERE page_id=? AND target=?", pageId, target);
+    }
+
+    @Override
+    public void migrate(Function<Page, RemoteId> mapper) {
+        if (isMigrated()) {
+            return;
+        }
+
+        migrating = mapper;
+        migrator.execute(() -> {
+            try {
+                copy(mapper);
+            } catch (RuntimeException ex) {
+                log.error("Failed to migrate the " + target + " IDs, will retry on next start", ex);
+            } finally {
+                migrating = null;
+            }
+        });
+    }
+
+    /**
+     * Checks if a migration is still running.
+     *
+     * @return {@code true} if the remote IDs are being migrated
+     */
+    boolean isMigrating() {
+        return migrating != null;
+    }
+
+    /**
+     * Copies the remote IDs from the page properties of all pages, and inserts the
+     * migration marker.
+     *
+     * @param mapper
+     *            Function that returns the {@link RemoteId} of a page
+     */
+    private void copy(Function<Page, RemoteId> mapper) {
+        try {
+            new TransactionTemplate(transactionManager).execute(tx -> {
+                // PageDao cannot select pages by property, so all pages are read once
+                int migrated = 0;
+                for (Page page : pageDao.fetchAll()) {
+                    RemoteId remoteId = mapper.apply(page);
+                    if (remoteId != null && lookup(remoteId.getPageId()) == null) {
+                        insert(remoteId.getPageId(), remoteId.getId(), remoteId.getUrl());
+                        migrated++;
+                    }
+                }
+
+                // Blocks until a concurrent migration of another node is committed
+                jdbcTemplate.update("INSERT INTO " + MIGRATION_TABLE + " (target, migrated) VALUES (?, ?)",
+                        target, new Timestamp(System.currentTimeMillis()));
+
+                if (migrated > 0) {
+                    log.info("Migrated " + migrated + " " + target + " IDs from the page properties");
+                }
+                return null;
+            });
+        } catch (DuplicateKeyException ex) {
+            if (isMigrated()) {
+                log.debug("The " + target + " IDs have been migrated by another node");
+            } else {
+                log.warn("Failed to migrate the " + target + " IDs, will retry on next start", ex);
+            }
+        }
+    }
+
+    /**
+     * Checks if the remote IDs of the target have already been migrated.
+     *
+     * @return {@code true} if the migration marker is present
+     */
+    private boolean isMigrated() {
+        Long count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM " + MIGRATION_TABLE + " WHERE target=?", Long.class, target);
+        return count != null && count > 0;
+    }
+
+    /**
+     * Looks up the stored remote ID of a page.
+     *
+     * @param pageId
+     *            ID of the page
+     * @return {@link RemoteId}, or {@code null} if there is none
+     */
+    private RemoteId lookup(long pageId) {
+        List<RemoteId> result = jdbcTemplate.query(
+                "SELECT page_id, remote_id, remote_url FROM " + TABLE + " WHERE page_id=? AND target=?",
+                rowMapper, pageId, target);
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    /**
+     * Inserts a new remote ID.
+     *
+     * @param pageId
+     *            ID of the page
+     * @param id
+     *            ID of the page at the publication target
+     * @param url
+     *            URL of the page at the publication target, or {@code null}
+     */
+    private void insert(long pageId, String id, String url) {
+        jdbcTemplate.update(
+                "INSERT INTO " + TABLE + " (page_id, target, remote_id, remote_url) VALUES (?, ?, ?, ?)",
+                pageId, target, id, url);
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.publication;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link OperationStats}.
+ */
+public class OperationStatsTest {
+
+    @Test
+    public void recordTest() {
+        OperationStats stats = new OperationStats("publish");
+        stats.record("success", TimeUnit.MILLISECONDS.toNanos(3));
+        stats.record("success", TimeUnit.MILLISECONDS.toNanos(40));
+        stats.record("502", TimeUnit.SECONDS.toNanos(30));
+
+        assertThat(stats.getOperation(), is("publish"));
+        assertThat(stats.getCount(), is(3L));
+        assertThat(stats.getOutcomes(), allOf(hasEntry("success", 2L), hasEntry("502", 1L)));
+        assertThat(stats.getMaxMillis(), is(30000.0));
+        assertThat(stats.getTotalMillis(), is(30043.0));
+
+        long[] histogram = stats.getHistogram();
+        assertThat(histogram.length, is(OperationStats.BOUNDS.length + 1));
+        assertThat(histogram[0], is(1L));
+        assertThat(histogram[3], is(1L));
+        assertThat(histogram[OperationStats.BOUNDS.length], is(1L));
+    }
+
+    @Test
+    public void bucketTest() {
+        assertThat(OperationStats.bucket(0L), is(0));
+        assertThat(OperationStats.bucket(5L), is(0));
+        assertThat(OperationStats.bucket(6L), is(1));
+        assertThat(OperationStats.bucket(10000L), is(OperationStats.BOUNDS.length - 1));
+        assertThat(OperationStats.bucket(10001L), is(OperationStats.BOUNDS.length));
+    }
+
+}
@@ -0,0 +1,247 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.publication;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.shredzone.cilla.plugin.publication.TestBeans.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.shredzone.cilla.core.model.Page;
+import org.shredzone.cilla.core.repository.PageDao;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Unit tests for {@link PublicationDispatcher}.
+ */
+public class PublicationDispatcherTest {
+
+    private PublicationDispatcher dispatcher;
+
+    @Before
+    public void setup() {
+        dispatcher = new PublicationDispatcher("test");
+        inject(dispatcher, "publicationParallel", true);
+        inject(dispatcher, "publicationThreads", 4);
+        inject(dispatcher, "publicationTimeout", 5L);
+        inject(dispatcher, "pageDao", stub(PageDao.class, (method, args) -> createPage((Long) args[0])));
+        inject(dispatcher, "transactionManager", stub(PlatformTransactionManager.class,
+                (method, args) -> "getTransaction".equals(method) ? new SimpleTransactionStatus() : null));
+        dispatcher.setup();
+    }
+
+    @After
+    public void shutdown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void parallelTest() {
+        // each handler waits for the other one, so they must run at the same time
+        CountDownLatch latch = new CountDownLatch(2);
+        List<Long> handled = Collections.synchronizedList(new ArrayList<>());
+
+        commit(true, () -> {
+            for (long id = 1L; id <= 2L; id++) {
+                dispatcher.dispatch(createPage(id), page -> {
+                    latch.countDown();
+                    try {
+                        if (latch.await(5L, TimeUnit.SECONDS)) {
+                            handled.add(page.getId());
+                        }
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+        });
+
+        // the committing thread has waited for both handlers
+        assertThat(handled, containsInAnyOrder(1L, 2L));
+    }
+
+    @Test
+    public void orderTest() {
+        List<Integer> handled = Collections.synchronizedList(new ArrayList<>());
+
+        commit(true, () -> {
+            for (int ix = 0; ix < 10; ix++) {
+                int event = ix;
+                dispatcher.dispatch(createPage(1L), page -> {
+                    try {
+                        Thread.sleep((10 - event) * 5L);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                    handled.add(event);
+                });
+            }
+        });
+
+        assertThat(handled, contains(0, 1, 2, 3, 4, 5, 6, 7, 8, 9));
+    }
+
+    @Test
+    public void shutdownTest() {
+        List<Integer> handled = Collections.synchronizedList(new ArrayList<>());
+
+        // the handlers are submitted, but the committing thread does not wait for them
+        commit(false, () -> {
+            for (int ix = 0; ix < 5; ix++) {
+                int event = ix;
+                dispatcher.dispatch(createPage(1L), page -> {
+                    try {
+                        Thread.sleep(20L);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    handled.add(event);
+                });
+            }
+        });
+
+        dispatcher.shutdown();
+        assertThat(handled, contains(0, 1, 2, 3, 4));
+    }
+
+    @Test
+    public void inlineTest() {
+        List<Long> handled = new ArrayList<>();
+
+        // without a transaction, the handler is invoked right away
+        dispatcher.dispatch(createPage(1L), page -> handled.add(page.getId()));
+        assertThat(handled, contains(1L));
+    }
+
+    @Test
+    public void batchTest() throws InterruptedException {
+        List<String> transactions = Collections.synchronizedList(new ArrayList<>());
+        List<Long> handled = Collections.synchronizedList(new ArrayList<>());
+        PublicationDispatcher batchDispatcher = createBatchDispatcher(50L, transactions);
+        try {
+            for (long id = 1L; id <= 3L; id++) {
+                batchDispatcher.dispatch(createPage(id), page -> {
+                    if (page.getId() == 2L) {
+                        throw new IllegalStateException("failing page");
+                    }
+                    handled.add(page.getId());
+                });
+            }
+            assertThat(handled, is(empty()));
+
+            // each event is handled in a transaction of its own, so the failing event
+            // does not roll back the others
+            await(() -> transactions.size() == 6, 5000L);
+            assertThat(handled, contains(1L, 3L));
+            assertThat(transactions, contains("getTransaction", "commit",
+                    "getTransaction", "rollback", "getTransaction", "commit"));
+        } finally {
+            batchDispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void batchShutdownTest() {
+        List<String> transactions = Collections.synchronizedList(new ArrayList<>());
+        List<Long> handled = Collections.synchronizedList(new ArrayList<>());
+        PublicationDispatcher batchDispatcher = createBatchDispatcher(60000L, transactions);
+
+        batchDispatcher.dispatch(createPage(1L), page -> handled.add(page.getId()));
+        batchDispatcher.dispatch(createPage(2L), page -> handled.add(page.getId()));
+        assertThat(handled, is(empty()));
+
+        // the pending batch is processed on shutdown, without waiting for the window
+        batchDispatcher.shutdown();
+        assertThat(handled, contains(1L, 2L));
+
+        // events after shutdown are handled right away
+        batchDispatcher.dispatch(createPage(3L), page -> handled.add(page.getId()));
+        assertThat(handled, contains(1L, 2L, 3L));
+    }
+
+    /**
+     * Creates a {@link PublicationDispatcher} in batch mode.
+     *
+     * @param window
+     *            Batch window, in milliseconds
+     * @param transactions
+     *            Receives the invoked {@link PlatformTransactionManager} methods
+     * @return {@link PublicationDispatcher} that is set up
+     */
+    private static PublicationDispatcher createBatchDispatcher(long window, List<String> transactions) {
+        PublicationDispatcher batchDispatcher = new PublicationDispatcher("test");
+        inject(batchDispatcher, "publicationBatchWindow", window);
+        inject(batchDispatcher, "publicationBatchSize", 100);
+        inject(batchDispatcher, "publicationTimeout", 5L);
+        inject(batchDispatcher, "pageDao", stub(PageDao.class, (method, args) -> createPage((Long) args[0])));
+        inject(batchDispatcher, "transactionManager", stub(PlatformTransactionManager.class,
+                (method, args) -> {
+                    transactions.add(method);
+                    return "getTransaction".equals(method) ? new SimpleTransactionStatus() : null;
+                }));
+        batchDispatcher.setup();
+        return batchDispatcher;
+    }
+
+    /**
+     * Simulates a transaction that is committed after the dispatching.
+     *
+     * @param complete
+     *            {@code true} to also complete the transaction, which waits for the
+     *            handlers
+     * @param dispatching
+     *            Dispatches the handlers
+     */
+    private static void commit(boolean complete, Runnable dispatching) {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            dispatching.run();
+            List<TransactionSynchronization> syncs = TransactionSynchronizationManager.getSynchronizations();
+            syncs.forEach(TransactionSynchronization::afterCommit);
+            if (complete) {
+                syncs.forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+            }
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    /**
+     * Creates a page with the given ID.
+     */
+    private static Page createPage(long id) {
+        Page page = new Page();
+        page.setId(id);
+        return page;
+    }
+
+}
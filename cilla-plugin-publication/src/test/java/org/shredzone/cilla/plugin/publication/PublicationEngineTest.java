@@ -0,0 +1,205 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.publication;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.shredzone.cilla.plugin.publication.TestBeans.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.shredzone.cilla.core.model.Page;
+import org.shredzone.cilla.core.repository.PageDao;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+/**
+ * Unit tests for {@link PublicationEngine}.
+ */
+public class PublicationEngineTest {
+
+    private Page page;
+    private TestTarget target;
+    private PublicationEngine engine;
+
+    @Before
+    public void setup() {
+        page = new Page();
+        page.setId(1L);
+        page.setPromoted(true);
+
+        target = new TestTarget();
+        engine = new PublicationEngine(target, new PublicationDispatcher("test"));
+        inject(engine, "publicationRetries", 2);
+        inject(engine, "publicationRetryDelay", 0L);
+        inject(engine, "publicationDeadLetters", 10);
+        inject(engine, "pageDao", stub(PageDao.class, (method, args) -> page));
+        inject(engine, "transactionManager", stub(PlatformTransactionManager.class,
+                (method, args) -> "getTransaction".equals(method) ? new SimpleTransactionStatus() : null));
+        engine.setup();
+    }
+
+    @After
+    public void shutdown() {
+        engine.shutdown();
+    }
+
+    @Test
+    public void publishTest() throws InterruptedException {
+        engine.onPublish(page);
+        assertThat(target.registered, contains(1L));
+        assertThat(target.calls.get(), is(1));
+        await(() -> target.verified.get() == 1, 5000L);
+
+        // already registered, so the page is not published again
+        engine.onPublish(page);
+        assertThat(target.calls.get(), is(1));
+
+        engine.onUnpublish(page);
+        assertThat(target.registered, is(empty()));
+        assertThat(target.calls.get(), is(2));
+
+        // the removal has been verified, and was not retried
+        await(() -> target.verified.get() == 2, 5000L);
+        assertThat(target.calls.get(), is(2));
+        assertThat(engine.getDeadLetters(), is(empty()));
+    }
+
+    @Test
+    public void deadLetterTest() throws InterruptedException {
+        target.failing = true;
+        engine.onPublish(page);
+
+        await(() -> !engine.getDeadLetters().isEmpty(), 5000L);
+        List<DeadLetter> letters = engine.getDeadLetters();
+        assertThat(letters, hasSize(1));
+        assertThat(letters.get(0).getPageId(), is(1L));
+        assertThat(letters.get(0).getAction(), is(PublicationAction.PUBLISH));
+        assertThat(letters.get(0).getAttempts(), is(3));
+        assertThat(target.calls.get(), is(3));
+
+        target.failing = false;
+        engine.redeliver();
+        assertThat(engine.getDeadLetters(), is(empty()));
+        assertThat(target.registered, contains(1L));
+        assertThat(target.calls.get(), is(4));
+    }
+
+    @Test
+    public void jmxTest() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("org.shredzone.cilla.plugin:type=PublicationEngine,target=test");
+        assertThat(server.getAttribute(name, "Target"), is("test"));
+
+        target.failing = true;
+        engine.onPublish(page);
+        await(() -> !engine.getDeadLetters().isEmpty(), 5000L);
+
+        CompositeData[] letters = (CompositeData[]) server.getAttribute(name, "DeadLetters");
+        assertThat(letters.length, is(1));
+        assertThat(letters[0].get("pageId"), is(1L));
+        assertThat(letters[0].get("action"), is("PUBLISH"));
+        assertThat(letters[0].get("attempts"), is(3));
+
+        target.failing = false;
+        server.invoke(name, "redeliver", null, null);
+        assertThat(engine.getDeadLetters(), is(empty()));
+        assertThat(target.registered, contains(1L));
+
+        engine.shutdown();
+        assertThat(server.isRegistered(name), is(false));
+    }
+
+    @Test
+    public void disabledTest() {
+        target.enabled = false;
+        engine.onPublish(page);
+        assertThat(target.calls.get(), is(0));
+    }
+
+    /**
+     * A {@link PublicationTarget} that keeps the published pages in memory.
+     */
+    private static class TestTarget implements PublicationTarget {
+        private final Set<Long> registered = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger verified = new AtomicInteger();
+        private volatile boolean enabled = true;
+        private volatile boolean failing = false;
+
+        @Override
+        public String getName() {
+            return "test";
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        @Override
+        public int getConcurrency() {
+            return 1;
+        }
+
+        @Override
+        public boolean isRegistered(Page page) {
+            return registered.contains(page.getId());
+        }
+
+        @Override
+        public void publish(Page page) {
+            calls.incrementAndGet();
+            if (failing) {
+                throw new IllegalStateException("publish failed");
+            }
+            registered.add(page.getId());
+        }
+
+        @Override
+        public void update(Page page) {
+            calls.incrementAndGet();
+        }
+
+        @Override
+        public void remove(Page page) {
+            calls.incrementAndGet();
+            registered.remove(page.getId());
+        }
+
+        @Override
+        public boolean verify(Page page, PublicationAction action) {
+            verified.incrementAndGet();
+            return registered.contains(page.getId()) == (action != PublicationAction.REMOVE);
+        }
+    }
+
+}
@@ -0,0 +1,202 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.publication;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.shredzone.cilla.plugin.publication.TestBeans.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.sql.DataSource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.shredzone.cilla.core.model.Page;
+import org.shredzone.cilla.core.repository.PageDao;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+/**
+ * Unit tests for {@link PublicationLease} and {@link LeaseHold}, against an embedded H2
+ * database.
+ */
+public class PublicationLeaseTest {
+    private static final AtomicInteger DATABASE = new AtomicInteger();
+
+    private DataSource dataSource;
+
+    @Before
+    public void setup() {
+        dataSource = new DriverManagerDataSource("jdbc:h2:mem:lease" + DATABASE.incrementAndGet()
+                + ";DB_CLOSE_DELAY=-1");
+    }
+
+    @Test
+    public void exclusiveTest() {
+        PublicationLease node1 = createLease("node1", 60000L);
+        PublicationLease node2 = createLease("node2", 60000L);
+
+        assertThat(node1.tryAcquire(1L), is(true));
+        assertThat(node2.tryAcquire(1L), is(false));
+        assertThat(node2.tryAcquire(2L), is(true));
+
+        // the lease is also exclusive within the node
+        assertThat(node1.tryAcquire(1L), is(false));
+
+        // releasing a lease of another node has no effect
+        node2.release(1L);
+        assertThat(node2.tryAcquire(1L), is(false));
+
+        node1.release(1L);
+        assertThat(node2.tryAcquire(1L), is(true));
+        assertThat(node1.tryAcquire(2L), is(false));
+    }
+
+    @Test
+    public void expiryTest() throws InterruptedException {
+        PublicationLease crashed = createLease("node1", 0L);
+        PublicationLease node2 = createLease("node2", 60000L);
+
+        assertThat(crashed.tryAcquire(1L), is(true));
+        await(() -> node2.tryAcquire(1L), 5000L);
+
+        // the expired node must not release the lease that was taken over
+        crashed.release(1L);
+        assertThat(createLease("node3", 60000L).tryAcquire(1L), is(false));
+    }
+
+    @Test
+    public void renewTest() throws InterruptedException {
+        PublicationLease node1 = createLease("node1", 300L);
+        PublicationLease node2 = createLease("node2", 60000L);
+
+        assertThat(node1.tryAcquire(1L), is(true));
+        for (int ix = 0; ix < 4; ix++) {
+            Thread.sleep(150L);
+            node1.renew();
+            assertThat(node2.tryAcquire(1L), is(false));
+        }
+
+        // the lease expires when it is not renewed anymore
+        await(() -> node2.tryAcquire(1L), 5000L);
+    }
+
+    @Test
+    public void handOverTest() throws InterruptedException {
+        PublicationDispatcher dispatcher = createDispatcher();
+        PublicationLease node2 = createLease("node2", 60000L);
+        List<String> handled = new CopyOnWriteArrayList<>();
+
+        Page page = new Page();
+        page.setId(1L);
+
+        // the event is postponed while another node is holding the lease, without
+        // blocking the dispatching thread
+        assertThat(node2.tryAcquire(1L), is(true));
+        long start = System.currentTimeMillis();
+        dispatcher.dispatch(page, p -> handled.add("first"));
+        dispatcher.invoke(page, p -> handled.add("second"));
+        assertThat(System.currentTimeMillis() - start, is(lessThan(1000L)));
+        assertThat(handled, is(empty()));
+
+        // ...and handled in the order of the events when the lease was released
+        node2.release(1L);
+        await(() -> handled.size() == 2, 5000L);
+        assertThat(handled, contains("first", "second"));
+
+        // a handler of this node hands the lease over to the waiting events
+        AtomicReference<LeaseHold> kept = new AtomicReference<>();
+        handled.clear();
+        dispatcher.dispatch(page, p -> kept.set(LeaseHold.keep()));
+        dispatcher.dispatch(page, p -> handled.add("third"));
+        Thread.sleep(200L);
+        assertThat(handled, is(empty()));
+        kept.get().release();
+        await(() -> handled.size() == 1, 1000L);
+
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void holdTest() {
+        PublicationDispatcher dispatcher = createDispatcher();
+
+        PublicationLease node2 = createLease("node2", 60000L);
+        AtomicReference<LeaseHold> kept = new AtomicReference<>();
+
+        Page page = new Page();
+        page.setId(1L);
+
+        // the lease is released after the handler
+        dispatcher.dispatch(page, p -> assertThat(node2.tryAcquire(1L), is(false)));
+        assertThat(node2.tryAcquire(1L), is(true));
+        node2.release(1L);
+
+        // the lease is kept until the background action is completed
+        dispatcher.dispatch(page, p -> kept.set(LeaseHold.keep()));
+        assertThat(node2.tryAcquire(1L), is(false));
+        kept.get().release();
+        assertThat(node2.tryAcquire(1L), is(true));
+        node2.release(1L);
+
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void noLeaseTest() {
+        // without a lease, the hold does nothing
+        LeaseHold hold = LeaseHold.keep();
+        AtomicInteger runs = new AtomicInteger();
+        hold.run(runs::incrementAndGet);
+        hold.release();
+        assertThat(runs.get(), is(1));
+    }
+
+    /**
+     * Creates a {@link PublicationDispatcher} of "node1" in cluster mode.
+     */
+    private PublicationDispatcher createDispatcher() {
+        Page page = new Page();
+        page.setId(1L);
+
+        PublicationDispatcher dispatcher = new PublicationDispatcher("test");
+        inject(dispatcher, "publicationCluster", true);
+        inject(dispatcher, "publicationNodeId", "node1");
+        inject(dispatcher, "publicationLeaseDuration", 60L);
+        inject(dispatcher, "dataSource", dataSource);
+        inject(dispatcher, "transactionManager", new DataSourceTransactionManager(dataSource));
+        inject(dispatcher, "pageDao", stub(PageDao.class, (method, args) -> page));
+        dispatcher.setup();
+        return dispatcher;
+    }
+
+    /**
+     * Creates a {@link PublicationLease} of a node.
+     */
+    private PublicationLease createLease(String node, long duration) {
+        return new PublicationLease("test", node, duration, dataSource,
+                new DataSourceTransactionManager(dataSource));
+    }
+
+}
@@ -0,0 +1,241 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.publication;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.shredzone.cilla.plugin.publication.TestBeans.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import javax.sql.DataSource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.shredzone.cilla.core.model.Page;
+import org.shredzone.cilla.core.repository.PageDao;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+/**
+ * Unit tests for {@link RemoteIdStoreImpl}, against an embedded H2 database.
+ */
+public class RemoteIdStoreImplTest {
+    private static final AtomicInteger DATABASE = new AtomicInteger();
+
+    private static final Function<Page, RemoteId> MAPPER = page -> {
+        String id = page.getProperties().get("test.id");
+        return id != null ? new RemoteId(page.getId(), id, "https://example.com/" + id) : null;
+    };
+
+    private final List<Page> pages = new ArrayList<>();
+    private final AtomicInteger fetches = new AtomicInteger();
+    private DataSource dataSource;
+
+    @Before
+    public void setup() {
+        dataSource = new DriverManagerDataSource("jdbc:h2:mem:remoteid" + DATABASE.incrementAndGet()
+                + ";DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000");
+
+        for (long id = 1L; id <= 5L; id++) {
+            Page page = new Page();
+            page.setId(id);
+            if (id != 3L) {
+                page.getProperties().put("test.id", "r" + id);
+            }
+            pages.add(page);
+        }
+    }
+
+    @Test
+    public void storeTest() {
+        RemoteIdStoreImpl mastodon = createStore("mastodon");
+        RemoteIdStoreImpl tumblr = createStore("tumblr");
+
+        mastodon.put(1L, "m1", "https://mastodon.example/m1");
+        mastodon.put(2L, "m2", null);
+        tumblr.put(1L, "t1", null);
+
+        assertThat(mastodon.find(1L).getId(), is("m1"));
+        assertThat(mastodon.find(1L).getUrl(), is("https://mastodon.example/m1"));
+        assertThat(mastodon.find(3L), is(nullValue()));
+        assertThat(tumblr.find(1L).getId(), is("t1"));
+        assertThat(mastodon.findPageId("m2"), is(2L));
+        assertThat(tumblr.findPageId("m2"), is(nullValue()));
+
+        mastodon.put(1L, "m1b", null);
+        assertThat(mastodon.find(1L).getId(), is("m1b"));
+        assertThat(mastodon.find(1L).getUrl(), is(nullValue()));
+
+        mastodon.remove(1L);
+        assertThat(mastodon.find(1L), is(nullValue()));
+        assertThat(tumblr.find(1L).getId(), is("t1"));
+        assertThat(mastodon.findAll(), hasSize(1));
+    }
+
+    @Test
+    public void migrateTest() throws Exception {
+        RemoteIdStoreImpl store = createStore("test");
+        store.put(1L, "kept", null);
+
+        store.migrate(MAPPER);
+        awaitMigration(store);
+        assertThat(fetches.get(), is(1));
+        assertThat(store.find(1L).getId(), is("kept"));
+        assertThat(store.find(2L).getId(), is("r2"));
+        assertThat(store.find(3L), is(nullValue()));
+        assertThat(store.findAll(), hasSize(4));
+
+        // the marker prevents a second migration, even if the table is empty
+        pages.forEach(page -> store.remove(page.getId()));
+        RemoteIdStoreImpl again = createStore("test");
+        again.migrate(MAPPER);
+        assertThat(again.isMigrating(), is(false));
+        assertThat(fetches.get(), is(1));
+        assertThat(store.findAll(), is(empty()));
+
+        // other targets are still migrated
+        RemoteIdStoreImpl other = createStore("other");
+        other.migrate(MAPPER);
+        awaitMigration(other);
+        assertThat(fetches.get(), is(2));
+        assertThat(other.findAll(), hasSize(4));
+    }
+
+    @Test
+    public void failedMigrateTest() throws Exception {
+        RemoteIdStoreImpl store = createStore("test");
+
+        // a failed migration is rolled back completely, including the marker
+        store.migrate(page -> {
+            if (page.getId() == 4L) {
+                throw new IllegalStateException("failed");
+            }
+            return MAPPER.apply(page);
+        });
+        awaitMigration(store);
+        assertThat(store.findAll(), is(empty()));
+
+        store.migrate(MAPPER);
+        awaitMigration(store);
+        assertThat(fetches.get(), is(2));
+        assertThat(store.findAll(), hasSize(4));
+    }
+
+    @Test
+    public void pendingMigrateTest() throws Exception {
+        RemoteIdStoreImpl store = createStore("test");
+        CountDownLatch latch = new CountDownLatch(1);
+
+        store.migrate(page -> {
+            if (page.getId() == 5L) {
+                try {
+                    latch.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return MAPPER.apply(page);
+        });
+
+        try {
+            // IDs that are not migrated yet are read from the page properties
+            assertThat(store.isMigrating(), is(true));
+            assertThat(store.find(2L).getId(), is("r2"));
+            assertThat(store.find(3L), is(nullValue()));
+        } finally {
+            latch.countDown();
+        }
+
+        awaitMigration(store);
+        assertThat(store.findAll(), hasSize(4));
+    }
+
+    @Test
+    public void concurrentMigrateTest() throws Exception {
+        RemoteIdStoreImpl node1 = createStore("test");
+        RemoteIdStoreImpl node2 = createStore("test");
+
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (RemoteIdStoreImpl node : new RemoteIdStoreImpl[] { node1, node2 }) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    node.migrate(MAPPER);
+                    awaitMigration(node);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30L, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // both nodes may read the pages, but only one migration is committed
+        assertThat(fetches.get(), is(both(greaterThanOrEqualTo(1)).and(lessThanOrEqualTo(2))));
+        assertThat(node1.findAll(), hasSize(4));
+
+        node2.migrate(MAPPER);
+        awaitMigration(node2);
+        assertThat(fetches.get(), is(lessThanOrEqualTo(2)));
+    }
+
+    /**
+     * Creates a {@link RemoteIdStoreImpl} for the given target.
+     */
+    private RemoteIdStoreImpl createStore(String target) {
+        RemoteIdStoreImpl store = new RemoteIdStoreImpl(target);
+        inject(store, "dataSource", dataSource);
+        inject(store, "transactionManager", new DataSourceTransactionManager(dataSource));
+        inject(store, "pageDao", stub(PageDao.class, (method, args) -> {
+            if ("fetchAll".equals(method)) {
+                fetches.incrementAndGet();
+                return pages;
+            }
+            if ("fetch".equals(method)) {
+                return pages.stream().filter(p -> p.getId() == (Long) args[0]).findFirst().orElse(null);
+            }
+            return null;
+        }));
+        store.setup();
+        return store;
+    }
+
+    /**
+     * Waits until the background migration of the store is completed.
+     */
+    private static void awaitMigration(RemoteIdStoreImpl store) throws InterruptedException {
+        await(() -> !store.isMigrating(), 30000L);
+    }
+
+}
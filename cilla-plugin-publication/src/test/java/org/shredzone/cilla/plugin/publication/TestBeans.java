@@ -0,0 +1,123 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.publication;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Helpers for wiring beans in tests and benchmarks, without a Spring context.
+ * <p>
+ * This class is shared with the other modules via the test jar.
+ */
+public final class TestBeans {
+
+    private TestBeans() {
+        // utility class without constructor
+    }
+
+    /**
+     * Sets a private field of a bean, like the Spring context would do.
+     *
+     * @param target
+     *            Bean to set the field of
+     * @param name
+     *            Name of the field, it may also be declared in a superclass
+     * @param value
+     *            Value to set
+     */
+    public static void inject(Object target, String name, Object value) {
+        for (Class<?> type = target.getClass(); type != null; type = type.getSuperclass()) {
+            try {
+                Field field = type.getDeclaredField(name);
+                field.setAccessible(true);
+                field.set(target, value);
+                return;
+            } catch (NoSuchFieldException ex) {
+                // try the superclass
+            } catch (IllegalAccessException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+        throw new IllegalArgumentException("No field " + name + " in " + target.getClass());
+    }
+
+    /**
+     * Creates a stub implementation of an interface. {@link Object} methods are
+     * implemented by the stub itself, all other methods are passed to the handler.
+     *
+     * @param type
+     *            Interface to implement
+     * @param handler
+     *            {@link StubMethod} that handles the method invocations
+     * @return Stub implementation
+     */
+    public static <T> T stub(Class<T> type, StubMethod handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+                (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        return method.getName().equals("equals") ? proxy == args[0]
+                                : method.getName().equals("hashCode") ? System.identityHashCode(proxy)
+                                : type.getSimpleName();
+                    }
+                    return handler.invoke(method.getName(), args);
+                }));
+    }
+
+    /**
+     * Waits until a condition is met.
+     *
+     * @param condition
+     *            Condition to wait for
+     * @param timeout
+     *            Maximum time to wait, in milliseconds
+     * @throws AssertionError
+     *             if the condition was not met in time
+     */
+    public static void await(BooleanSupplier condition, long timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() - deadline > 0) {
+                throw new AssertionError("Condition was not met within " + timeout + " ms");
+            }
+            Thread.sleep(10L);
+        }
+    }
+
+    /**
+     * Handles a method invocation of a stub.
+     */
+    @FunctionalInterface
+    public interface StubMethod {
+        /**
+         * Handles the invocation.
+         *
+         * @param method
+         *            Name of the invoked method
+         * @param args
+         *            Arguments, or {@code null} if there are none
+         * @return Return value
+         */
+        Object invoke(String method, Object[] args);
+    }
+
+}
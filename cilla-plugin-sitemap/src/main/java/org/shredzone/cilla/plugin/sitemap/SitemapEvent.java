@@ -0,0 +1,75 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.sitemap;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Java Flight Recorder event of a sitemap generation. The event starts when the
+ * sitemap is requested, and ends when it has been sent completely or the generation
+ * has failed.
+ * <p>
+ * Use {@link SitemapRecording#sitemap()}, so this class is not loaded if the runtime
+ * does not provide the flight recorder.
+ *
+ * @author Richard "Shred" Körber
+ */
+@Name("org.shredzone.cilla.plugin.SitemapGeneration")
+@Label("Sitemap Generation")
+@Description("Generation of the sitemap")
+@Category({"Cilla", "Sitemap"})
+@StackTrace(false)
+class SitemapEvent extends Event {
+
+    @Label("Entries")
+    @Description("Number of URL entries in the sitemap")
+    int entries;
+
+    @Label("Bytes")
+    @Description("Compressed size of the sitemap")
+    @DataAmount
+    long bytes;
+
+    /**
+     * Begins a new event.
+     */
+    static SitemapRecording start() {
+        SitemapEvent event = new SitemapEvent();
+        event.begin();
+        return new SitemapRecording() {
+            @Override
+            void end(int entries, long bytes) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.entries = entries;
+                    event.bytes = bytes;
+                    event.commit();
+                }
+            }
+        };
+    }
+
+}
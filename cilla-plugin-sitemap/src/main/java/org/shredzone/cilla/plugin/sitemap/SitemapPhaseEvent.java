@@ -0,0 +1,73 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.sitemap;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Java Flight Recorder event of a single phase of a sitemap generation.
+ * <p>
+ * Use {@link SitemapRecording#phase(String)}, so this class is not loaded if the
+ * runtime does not provide the flight recorder.
+ *
+ * @author Richard "Shred" Körber
+ */
+@Name("org.shredzone.cilla.plugin.SitemapPhase")
+@Label("Sitemap Phase")
+@Description("A phase of the sitemap generation")
+@Category({"Cilla", "Sitemap"})
+@StackTrace(false)
+class SitemapPhaseEvent extends Event {
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Entries")
+    @Description("Number of URL entries written in this phase")
+    int entries;
+
+    /**
+     * Begins a new event.
+     *
+     * @param name
+     *            Name of the phase
+     */
+    static SitemapRecording start(String name) {
+        SitemapPhaseEvent event = new SitemapPhaseEvent();
+        event.begin();
+        return new SitemapRecording() {
+            @Override
+            void end(int entries, long bytes) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.phase = name;
+                    event.entries = entries;
+                    event.commit();
+                }
+            }
+        };
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.sitemap;
+
+/**
+ * A recording of the sitemap generation as Java Flight Recorder event.
+ * <p>
+ * The event classes are only loaded if the runtime provides the flight recorder.
+ * Otherwise nothing is recorded.
+ *
+ * @author Richard "Shred" Körber
+ */
+abstract class SitemapRecording {
+
+    private static final boolean AVAILABLE = isAvailable();
+
+    private static final SitemapRecording NONE = new SitemapRecording() {
+        @Override
+        void end(int entries, long bytes) {
+            // nothing is recorded
+        }
+    };
+
+    /**
+     * Begins the recording of a sitemap generation.
+     */
+    static SitemapRecording sitemap() {
+        return AVAILABLE ? SitemapEvent.start() : NONE;
+    }
+
+    /**
+     * Begins the recording of a phase of the sitemap generation.
+     *
+     * @param name
+     *            Name of the phase
+     */
+    static SitemapRecording phase(String name) {
+        return AVAILABLE ? SitemapPhaseEvent.start(name) : NONE;
+    }
+
+    /**
+     * Ends the recording. The event is committed if it is enabled.
+     *
+     * @param entries
+     *            Number of URL entries that were written
+     * @param bytes
+     *            Number of bytes that were written, if recorded by the event
+     */
+    abstract void end(int entries, long bytes);
+
+    /**
+     * Checks if the flight recorder is available.
+     */
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, SitemapRecording.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError ex) {
+            return false;
+        }
+    }
+
+}
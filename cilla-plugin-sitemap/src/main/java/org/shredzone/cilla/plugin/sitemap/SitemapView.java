@@ -24,6 +24,7 @@ import static java.util.stream.Collectors.toList;
 
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
@@ -31,7 +32,6 @@ import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import java.util.zip.GZIPOutputStream;
 
-import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -47,7 +47,6 @@ import org.shredzone.commons.view.annotation.ViewHandler;
 import org.shredzone.commons.view.exception.ViewException;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationContext;
-import org.springframework.stereotype.Component;
 
 /**
  * Views for generating a sitemap.xml.
@@ -55,26 +54,38 @@ import org.springframework.stereotype.Component;
  * @author Richard "Shred" Körber
  */
 @ViewHandler
-@Component
 public class SitemapView {
 
+    /**
+     * Maximum number of images per page, as accepted by the image sitemap extension.
+     */
+    private static final int MAX_IMAGES = 1000;
+
     private @Value("${sitemap.skipHidden}") boolean skipHidden;
     private @Value("${sitemap.skipGallery}") boolean skipGallery;
+    private @Value("${sitemap.imageExtension:false}") boolean imageExtension;
 
     private @Resource PageDao pageDao;
     private @Resource LinkService linkService;
     private @Resource ApplicationContext applicationContext;
 
-    private List<SitemapInterceptor> interceptors;
+    private volatile List<SitemapInterceptor> interceptors;
 
     /**
-     * Initializes the list of feed view interceptors.
+     * Returns the list of sitemap interceptors. The list is set up on the first
+     * invocation, so the interceptor beans are not looked up at startup.
+     *
+     * @return List of {@link SitemapInterceptor}, sorted by priority
      */
-    @PostConstruct
-    protected void setup() {
-        interceptors = applicationContext.getBeansOfType(SitemapInterceptor.class).values().stream()
-                .sorted(new PriorityComparator<>(SitemapInterceptor.class))
-                .collect(collectingAndThen(toList(), Collections::unmodifiableList));
+    protected List<SitemapInterceptor> getInterceptors() {
+        List<SitemapInterceptor> result = interceptors;
+        if (result == null) {
+            result = applicationContext.getBeansOfType(SitemapInterceptor.class).values().stream()
+                    .sorted(new PriorityComparator<>(SitemapInterceptor.class))
+                    .collect(collectingAndThen(toList(), Collections::unmodifiableList));
+            interceptors = result;
+        }
+        return result;
     }
 
     /**
@@ -83,18 +94,23 @@ public class SitemapView {
     @View(pattern = "/sitemap.xml.gz", name = "sitemap")
     public void sitemapView(HttpServletRequest req, HttpServletResponse resp)
     throws ViewException {
+        SitemapRecording recording = SitemapRecording.sitemap();
+        CountingOutputStream out = null;
+        SitemapWriter writer = null;
+
         try {
             resp.setContentType("text/xml");
             resp.setHeader("Content-Encoding", "gzip");
 
-            try (GZIPOutputStream go = new GZIPOutputStream(resp.getOutputStream())) {
-                SitemapWriter writer = new SitemapWriter(go);
+            out = new CountingOutputStream(resp.getOutputStream());
+            try (GZIPOutputStream go = new GZIPOutputStream(out)) {
+                writer = new SitemapWriter(go);
 
-                writer.writeHeader();
-                writeHome(writer);
-                writePages(writer);
-                if (!skipGallery) {
-                    writeGallery(writer);
+                writer.writeHeader(imageExtension && !skipGallery);
+                writePhase("home", writer, this::writeHome);
+                writePhase("pages", writer, this::writePages);
+                if (!skipGallery && !imageExtension) {
+                    writePhase("gallery", writer, this::writeGallery);
                 }
                 writer.writeFooter();
                 writer.flush();
@@ -103,6 +119,31 @@ public class SitemapView {
             }
         } catch (IOException ex) {
             throw new ViewException(ex);
+        } finally {
+            // A failed generation is recorded as well, with what has been sent so far
+            recording.end(writer != null ? writer.getUrlCount() : 0,
+                    out != null ? out.getCount() : 0L);
+        }
+    }
+
+    /**
+     * Runs a phase of the sitemap generation, and records it as flight recorder event.
+     *
+     * @param name
+     *            Name of the phase
+     * @param writer
+     *            {@link SitemapWriter} to write to
+     * @param phase
+     *            {@link SitemapPhase} to run
+     */
+    private void writePhase(String name, SitemapWriter writer, SitemapPhase phase)
+    throws IOException {
+        SitemapRecording recording = SitemapRecording.phase(name);
+        int count = writer.getUrlCount();
+        try {
+            phase.write(writer);
+        } finally {
+            recording.end(writer.getUrlCount() - count, 0L);
         }
     }
 
@@ -119,12 +160,14 @@ public class SitemapView {
     }
 
     /**
-     * Generates a sitemap entry for all published pages
+     * Generates a sitemap entry for all published pages. If the image sitemap extension
+     * is enabled, the gallery pictures are added to the entry of their page.
      *
      * @param writer
      *            {@link SitemapWriter} to write to
      */
     private void writePages(SitemapWriter writer) throws IOException {
+        List<SitemapInterceptor> interceptors = getInterceptors();
         for (Page page : pageDao.fetchAllPublic()) {
             if (page.isHidden() && skipHidden) {
                 continue;
@@ -156,8 +199,45 @@ public class SitemapView {
             AtomicReference<Frequency> frequency = new AtomicReference<>(null);
             interceptors.forEach(it -> it.frequency(page, frequency));
 
-            writer.writeUrl(pageUrl, modification.get(), frequency.get(), priority.get());
+            List<String> images = null;
+            if (imageExtension && !skipGallery) {
+                images = collectImages(page, interceptors);
+            }
+
+            writer.writeUrl(pageUrl, modification.get(), frequency.get(), priority.get(), images);
+        }
+    }
+
+    /**
+     * Collects the image URLs of all gallery pictures of a page.
+     *
+     * @param page
+     *            {@link Page} to collect the images of
+     * @param interceptors
+     *            List of {@link SitemapInterceptor} to be applied
+     * @return List of image URLs
+     */
+    private List<String> collectImages(Page page, List<SitemapInterceptor> interceptors) {
+        List<String> images = new ArrayList<>();
+        for (GallerySection section : page.getSections().stream()
+                .filter(GallerySection.class::isInstance)
+                .map(GallerySection.class::cast)
+                .collect(Collectors.toList())) {
+            for (Picture pic : section.getPictures()) {
+                if (images.size() >= MAX_IMAGES) {
+                    return images;
+                }
+
+                if (interceptors.stream().anyMatch(it -> it.isIgnored(pic))) {
+                    continue;
+                }
+
+                // Without section, the link refers to the picture resource itself instead
+                // of the gallery page showing the picture
+                images.add(linkService.linkTo().picture(pic).absolute().toString());
+            }
         }
+        return images;
     }
 
     /**
@@ -167,6 +247,7 @@ public class SitemapView {
      *            {@link SitemapWriter} to write to
      */
     private void writeGallery(SitemapWriter writer) throws IOException {
+        List<SitemapInterceptor> interceptors = getInterceptors();
         for (Page page : pageDao.fetchAllPublic()) {
             if (page.isHidden() && skipHidden) {
                 continue;
@@ -201,4 +282,12 @@ public class SitemapView {
         }
     }
 
+    /**
+     * A phase of the sitemap generation.
+     */
+    @FunctionalInterface
+    private interface SitemapPhase {
+        void write(SitemapWriter writer) throws IOException;
+    }
+
 }
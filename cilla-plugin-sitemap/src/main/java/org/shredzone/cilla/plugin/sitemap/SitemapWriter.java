@@ -26,6 +26,7 @@ import java.math.BigDecimal;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.text.SimpleDateFormat;
+import java.util.Collection;
 import java.util.Date;
 import java.util.Locale;
 import java.util.TimeZone;
@@ -35,12 +36,15 @@ import java.util.TimeZone;
  *
  * @author Richard "Shred" Körber
  * @see <a href="http://www.sitemaps.org">sitemaps.org</a>
+ * @see <a href="https://developers.google.com/search/docs/crawling-indexing/sitemaps/image-sitemaps">Image
+ *      sitemaps</a>
  */
 public class SitemapWriter extends OutputStreamWriter {
     private static final char CR = '\n';
 
     private final DecimalFormat priorityFormat;
     private final SimpleDateFormat dateFormat;
+    private int urlCount;
 
     /**
      * Instantiates a new {@link SitemapWriter}.
@@ -61,8 +65,22 @@ public class SitemapWriter extends OutputStreamWriter {
      * Writes the XML header. Must be invoked once at the beginning of the stream.
      */
     public void writeHeader() throws IOException {
+        writeHeader(false);
+    }
+
+    /**
+     * Writes the XML header. Must be invoked once at the beginning of the stream.
+     *
+     * @param images
+     *            {@code true} if the image sitemap extension is to be used
+     */
+    public void writeHeader(boolean images) throws IOException {
         write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + CR);
-        write("<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">" + CR);
+        write("<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"");
+        if (images) {
+            write(" xmlns:image=\"http://www.google.com/schemas/sitemap-image/1.1\"");
+        }
+        write(">" + CR);
     }
 
     /**
@@ -79,6 +97,28 @@ public class SitemapWriter extends OutputStreamWriter {
      *            {@code null} for default priority
      */
     public void writeUrl(String url, Date lastmod, Frequency changeFreq, BigDecimal priority)
+    throws IOException {
+        writeUrl(url, lastmod, changeFreq, priority, null);
+    }
+
+    /**
+     * Writes an URL entry with images to the XML file. The image sitemap extension must
+     * have been enabled in the header.
+     *
+     * @param url
+     *            URL of the page
+     * @param lastmod
+     *            Last modification date, or {@code null} if unknown
+     * @param changeFreq
+     *            Change frequency, or {@code null} if unknown
+     * @param priority
+     *            Priority of the page in the sitemap (between 0.0 and 1.0), or
+     *            {@code null} for default priority
+     * @param images
+     *            URLs of the images on the page, or {@code null} if there are none
+     */
+    public void writeUrl(String url, Date lastmod, Frequency changeFreq, BigDecimal priority,
+            Collection<String> images)
     throws IOException {
         if (url == null || url.isEmpty()) {
             throw new IllegalArgumentException("url must be set");
@@ -113,7 +153,23 @@ public class SitemapWriter extends OutputStreamWriter {
             write("</priority>");
         }
 
+        if (images != null) {
+            for (String image : images) {
+                write("<image:image><image:loc>");
+                write(image);
+                write("</image:loc></image:image>");
+            }
+        }
+
         write("</url>" + CR);
+        urlCount++;
+    }
+
+    /**
+     * Returns the number of URL entries that have been written so far.
+     */
+    public int getUrlCount() {
+        return urlCount;
     }
 
     /**
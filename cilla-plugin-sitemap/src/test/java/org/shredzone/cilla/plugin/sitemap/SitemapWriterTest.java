@@ -0,0 +1,89 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.sitemap;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link SitemapWriter}.
+ */
+public class SitemapWriterTest {
+
+    private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"";
+    private static final String IMAGE_NS = " xmlns:image=\"http://www.google.com/schemas/sitemap-image/1.1\"";
+
+    @Test
+    public void urlTest() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (SitemapWriter writer = new SitemapWriter(out)) {
+            writer.writeHeader();
+            writer.writeUrl("http://example.com/", new Date(1650000000000L), Frequency.DAILY, new BigDecimal("0.7"));
+            writer.writeUrl("http://example.com/page", null, null, null);
+            writer.writeFooter();
+            assertThat(writer.getUrlCount(), is(2));
+        }
+
+        assertThat(new String(out.toByteArray(), StandardCharsets.UTF_8), is(HEADER + ">\n"
+                + "<url><loc>http://example.com/</loc><lastmod>2022-04-15T05:20:00.000Z</lastmod>"
+                + "<changefreq>daily</changefreq><priority>0.7</priority></url>\n"
+                + "<url><loc>http://example.com/page</loc></url>\n"
+                + "</urlset>\n"));
+    }
+
+    @Test
+    public void imageTest() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (SitemapWriter writer = new SitemapWriter(out)) {
+            writer.writeHeader(true);
+            writer.writeUrl("http://example.com/page", null, null, null,
+                    asList("http://example.com/picture/1", "http://example.com/picture/2"));
+            writer.writeUrl("http://example.com/empty", null, null, null, asList());
+            writer.writeFooter();
+            assertThat(writer.getUrlCount(), is(2));
+        }
+
+        assertThat(new String(out.toByteArray(), StandardCharsets.UTF_8), is(HEADER + IMAGE_NS + ">\n"
+                + "<url><loc>http://example.com/page</loc>"
+                + "<image:image><image:loc>http://example.com/picture/1</image:loc></image:image>"
+                + "<image:image><image:loc>http://example.com/picture/2</image:loc></image:image>"
+                + "</url>\n"
+                + "<url><loc>http://example.com/empty</loc></url>\n"
+                + "</urlset>\n"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void priorityTest() throws IOException {
+        try (SitemapWriter writer = new SitemapWriter(new ByteArrayOutputStream())) {
+            writer.writeUrl("http://example.com/", null, null, new BigDecimal("1.5"));
+        }
+    }
+
+}
@@ -19,16 +19,35 @@
  */
 package org.shredzone.cilla.plugin.tumblr;
 
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import com.tumblr.jumblr.JumblrClient;
 
 /**
  * Default implementation of {@link JumblrServiceFactory}.
- *
+ * <p>
+ * Clients are cached per user credentials, so the OAuth service is only set up once
+ * per user. The least recently used clients are evicted if the cache is full. The
+ * HTTP connections of all clients are kept alive and shared by the JVM.
  */
 public class DefaultJumblrServiceFactory implements JumblrServiceFactory {
 
+    private static final int CACHE_SIZE = 50;
+
     private final String consumerKey;
     private final String consumerSecret;
+    private final Map<List<String>, JumblrClient> cache =
+            new LinkedHashMap<List<String>, JumblrClient>(16, 0.75f, true) {
+                private static final long serialVersionUID = 3206614281371958155L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<String>, JumblrClient> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
 
     /**
      * Creates a new default factory with the given consumer credentials.
@@ -45,9 +64,20 @@ public class DefaultJumblrServiceFactory implements JumblrServiceFactory {
 
     @Override
     public JumblrClient getJumblrClient(String token, String secret) {
-        JumblrClient client = new JumblrClient(consumerKey, consumerSecret);
-        client.setToken(token, secret);
-        return client;
+        synchronized (cache) {
+            return cache.computeIfAbsent(Arrays.asList(token, secret), k -> {
+                JumblrClient client = new JumblrClient(consumerKey, consumerSecret);
+                client.setToken(token, secret);
+                return client;
+            });
+        }
+    }
+
+    @Override
+    public void evictJumblrClient(String token, String secret) {
+        synchronized (cache) {
+            cache.remove(Arrays.asList(token, secret));
+        }
     }
 
 }
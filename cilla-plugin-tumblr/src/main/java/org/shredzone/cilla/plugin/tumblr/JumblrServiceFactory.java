@@ -29,14 +29,29 @@ import com.tumblr.jumblr.JumblrClient;
 public interface JumblrServiceFactory {
 
     /**
-     * Creates a new {@link JumblrClient} instance.
+     * Returns a {@link JumblrClient} instance.
      *
      * @param token
      *            User's token
      * @param secret
      *            User's secret
-     * @return {@link JumblrClient} instance. Each invocation creates a new instance.
+     * @return {@link JumblrClient} instance. Instances may be cached and shared, so
+     *         the token must not be changed.
      */
     JumblrClient getJumblrClient(String token, String secret);
 
+    /**
+     * Evicts a cached {@link JumblrClient}, e.g. because the user's credentials have
+     * changed. The default implementation does nothing, for factories that do not
+     * cache their clients.
+     *
+     * @param token
+     *            User's token
+     * @param secret
+     *            User's secret
+     */
+    default void evictJumblrClient(String token, String secret) {
+        // no cache, nothing to evict
+    }
+
 }
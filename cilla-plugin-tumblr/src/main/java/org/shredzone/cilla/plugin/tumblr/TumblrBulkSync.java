@@ -0,0 +1,223 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.tumblr;
+
+import static java.util.stream.Collectors.toList;
+import static org.shredzone.cilla.plugin.tumblr.TumblrPublicationServiceImpl.PROPKEY_TUMBLR_BLOGNAME;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+
+import org.shredzone.cilla.core.model.Page;
+import org.shredzone.cilla.core.repository.PageDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Synchronizes all promoted and published pages with Tumblr. Pages that are not
+ * posted yet are published, and posts that do not reflect the current state of their
+ * page are updated.
+ * <p>
+ * The progress is kept in the page properties, as every synchronized page is
+ * registered and carries the fingerprint of its post. If the synchronization is
+ * interrupted, the next run skips all pages that are already up to date, without
+ * accessing Tumblr.
+ * <p>
+ * Pages are synchronized one by one by a single thread, and no faster than the
+ * configured rate. Tumblr is accessed by the worker thread of the publication service,
+ * so each page waits until its access is completed before the next page is
+ * synchronized. This way the rate also limits the accesses to Tumblr.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class TumblrBulkSync {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger processed = new AtomicInteger();
+    private final AtomicInteger synced = new AtomicInteger();
+
+    private @Value("${tumblr.masterEnable}") boolean tumblrMasterEnabled;
+    private @Value("${tumblr.bulkSync:false}") boolean tumblrBulkSyncOnStartup;
+    private @Value("${tumblr.bulkSyncRate:60}") int tumblrBulkSyncRate;
+    private @Value("${publication.timeout:30}") long publicationTimeout;
+
+    private @Resource TumblrPublicationService tumblrPublicationService;
+    private @Resource PageDao pageDao;
+    private @Resource PlatformTransactionManager transactionManager;
+
+    private ExecutorService executor;
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    public void setup() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "tumblr-bulk-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (tumblrBulkSyncOnStartup) {
+            synchronize();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Starts the synchronization of all pages in background.
+     *
+     * @return {@code true} if the synchronization was started, {@code false} if
+     *         Tumblr handling is disabled or a synchronization is already running
+     */
+    public boolean synchronize() {
+        if (!tumblrMasterEnabled || !running.compareAndSet(false, true)) {
+            return false;
+        }
+
+        total.set(0);
+        processed.set(0);
+        synced.set(0);
+        executor.execute(this::run);
+        return true;
+    }
+
+    /**
+     * Checks if a synchronization is running.
+     */
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * Returns the number of pages to be checked by the current or last synchronization.
+     */
+    public int getTotal() {
+        return total.get();
+    }
+
+    /**
+     * Returns the number of pages that have been checked so far.
+     */
+    public int getProcessed() {
+        return processed.get();
+    }
+
+    /**
+     * Returns the number of pages that have been published or updated so far.
+     */
+    public int getSynced() {
+        return synced.get();
+    }
+
+    /**
+     * Synchronizes all pages.
+     */
+    private void run() {
+        try {
+            List<Long> pageIds = transactionTemplate.execute(tx ->
+                    pageDao.fetchAllPublic().stream()
+                            .filter(this::isCandidate)
+                            .map(Page::getId)
+                            .sorted()
+                            .collect(toList()));
+            total.set(pageIds.size());
+            log.info("Synchronizing {} pages with Tumblr", pageIds.size());
+
+            long pause = TimeUnit.MINUTES.toMillis(1) / Math.max(tumblrBulkSyncRate, 1);
+            for (Long pageId : pageIds) {
+                if (sync(pageId)) {
+                    synced.incrementAndGet();
+                    if (!tumblrPublicationService.awaitCompletion(TimeUnit.SECONDS.toMillis(publicationTimeout))) {
+                        log.warn("Tumblr access of page id {} was not completed after {}s",
+                                pageId, publicationTimeout);
+                    }
+                    Thread.sleep(pause);
+                }
+                processed.incrementAndGet();
+            }
+
+            log.info("Synchronized {} pages with Tumblr, {} pages were published or updated",
+                    processed.get(), synced.get());
+        } catch (InterruptedException ex) {
+            log.info("Tumblr synchronization was interrupted after {} of {} pages",
+                    processed.get(), total.get());
+        } catch (Exception ex) {
+            log.error("Tumblr synchronization failed after " + processed.get()
+                    + " of " + total.get() + " pages", ex);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * Synchronizes a single page.
+     *
+     * @param pageId
+     *            ID of the page
+     * @return {@code true} if the page was published or updated, {@code false} if it
+     *         was up to date or is not to be synchronized anymore
+     */
+    private boolean sync(long pageId) {
+        try {
+            return transactionTemplate.execute(tx -> {
+                Page page = pageDao.fetch(pageId);
+                if (page == null || !isCandidate(page) || tumblrPublicationService.isUpToDate(page)) {
+                    return false;
+                }
+
+                if (tumblrPublicationService.isRegistered(page)) {
+                    tumblrPublicationService.update(page);
+                } else {
+                    tumblrPublicationService.publish(page);
+                }
+                return true;
+            });
+        } catch (Exception ex) {
+            log.warn("Failed to synchronize page id " + pageId + " with Tumblr", ex);
+            return false;
+        }
+    }
+
+    /**
+     * Checks if the page is to be synchronized with Tumblr.
+     */
+    private boolean isCandidate(Page page) {
+        return page.isPromoted() && page.isPublishedState() && page.getPublication() != null
+                && page.getCreator().getProperties().get(PROPKEY_TUMBLR_BLOGNAME) != null;
+    }
+
+}
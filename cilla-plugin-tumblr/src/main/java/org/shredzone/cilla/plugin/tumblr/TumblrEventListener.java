@@ -25,18 +25,18 @@ import org.shredzone.cilla.core.event.EventType;
 import org.shredzone.cilla.core.event.annotation.EventListener;
 import org.shredzone.cilla.core.event.annotation.OnEvent;
 import org.shredzone.cilla.core.model.Page;
-import org.springframework.stereotype.Component;
+import org.shredzone.cilla.plugin.publication.PublicationEngine;
 
 /**
  * Handles page events for creating, updating and deleting Tumblr things.
  *
  * @author Richard "Shred" Körber
  */
-@Component
 @EventListener
 public class TumblrEventListener {
 
-    private @Resource TumblrPublicationService tumblrPublicationService;
+    private @Resource PublicationEngine tumblrPublicationEngine;
+    private @Resource TumblrMetrics tumblrMetrics;
 
     /**
      * Publish a Page to Tumblr.
@@ -45,9 +45,9 @@ public class TumblrEventListener {
      */
     @OnEvent(EventType.PAGE_PUBLISH)
     public void onPagePublish(Page page) {
-        if (page.isPromoted() && !tumblrPublicationService.isRegistered(page)) {
-            tumblrPublicationService.publish(page);
-        }
+        long start = System.nanoTime();
+        tumblrPublicationEngine.onPublish(page);
+        tumblrMetrics.recordEvent(EventType.PAGE_PUBLISH.name(), System.nanoTime() - start);
     }
 
     /**
@@ -57,28 +57,34 @@ public class TumblrEventListener {
      */
     @OnEvent(EventType.PAGE_UPDATE)
     public void onPageUpdate(Page page) {
-        if (page.isPublishedState() && page.getPublication() != null) {
-            boolean isRegistered = tumblrPublicationService.isRegistered(page);
-            if (page.isPromoted() && !isRegistered) {
-                tumblrPublicationService.publish(page);
-            } else if (page.isPromoted() && isRegistered) {
-                tumblrPublicationService.update(page);
-            } else if (!page.isPromoted() && isRegistered) {
-                tumblrPublicationService.remove(page);
-            }
-        }
+        long start = System.nanoTime();
+        tumblrPublicationEngine.onUpdate(page);
+        tumblrMetrics.recordEvent(EventType.PAGE_UPDATE.name(), System.nanoTime() - start);
     }
 
     /**
      * Remove a Page at Tumblr.
      *
-     * @param page {@link Page} that has been unpublished or deleted
+     * @param page {@link Page} that has been unpublished
      */
-    @OnEvent({ EventType.PAGE_UNPUBLISH, EventType.PAGE_DELETE })
+    @OnEvent(EventType.PAGE_UNPUBLISH)
     public void onPageUnpublish(Page page) {
-        if (tumblrPublicationService.isRegistered(page)) {
-            tumblrPublicationService.remove(page);
-        }
+        long start = System.nanoTime();
+        tumblrPublicationEngine.onUnpublish(page);
+        tumblrMetrics.recordEvent(EventType.PAGE_UNPUBLISH.name(), System.nanoTime() - start);
+    }
+
+    /**
+     * Remove a deleted Page at Tumblr. The page is gone after the transaction, so the
+     * post is always removed right away.
+     *
+     * @param page {@link Page} that is deleted
+     */
+    @OnEvent(EventType.PAGE_DELETE)
+    public void onPageDelete(Page page) {
+        long start = System.nanoTime();
+        tumblrPublicationEngine.onDelete(page);
+        tumblrMetrics.recordEvent(EventType.PAGE_DELETE.name(), System.nanoTime() - start);
     }
 
 }
@@ -0,0 +1,130 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.tumblr;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import com.tumblr.jumblr.types.TextPost;
+
+/**
+ * The content of a Tumblr text post, as it is rendered from a page.
+ * <p>
+ * The fingerprint of the content is stored with the page. If the fingerprint is
+ * unchanged, the post at Tumblr does not need to be updated.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class TumblrPostContent {
+
+    private final String title;
+    private final String body;
+    private final Date date;
+    private final List<String> tags;
+    private final String state;
+
+    /**
+     * Creates a new {@link TumblrPostContent}.
+     *
+     * @param title
+     *            Post title
+     * @param body
+     *            Rendered post body
+     * @param date
+     *            Post date
+     * @param tags
+     *            Post tags
+     * @param state
+     *            Post state
+     */
+    public TumblrPostContent(String title, String body, Date date, List<String> tags, String state) {
+        this.title = title;
+        this.body = body;
+        this.date = date != null ? new Date(date.getTime()) : null;
+        this.tags = Collections.unmodifiableList(new ArrayList<>(tags));
+        this.state = state;
+    }
+
+    /**
+     * Copies the content into a {@link TextPost}.
+     *
+     * @param post
+     *            {@link TextPost} to copy into
+     */
+    public void applyTo(TextPost post) {
+        post.setDate(date != null ? new Date(date.getTime()) : null);
+        post.setTitle(title);
+        post.setBody(body);
+        post.setState(state);
+        post.setTags(new ArrayList<>(tags));
+    }
+
+    /**
+     * Computes a fingerprint of the content. Equal contents have equal fingerprints.
+     *
+     * @return Fingerprint, as base64 encoded SHA-256 hash
+     */
+    public String fingerprint() {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            update(md, title);
+            update(md, body);
+            update(md, date != null ? String.valueOf(date.getTime()) : null);
+            updateInt(md, tags.size());
+            for (String tag : tags) {
+                update(md, tag);
+            }
+            update(md, state);
+            return Base64.getEncoder().withoutPadding().encodeToString(md.digest());
+        } catch (NoSuchAlgorithmException ex) {
+            // Should never happen, as SHA-256 is standard
+            throw new InternalError(ex);
+        }
+    }
+
+    /**
+     * Adds a string to the digest. Each string is prefixed with its length, so shifting
+     * characters between adjacent fields changes the fingerprint.
+     */
+    private static void update(MessageDigest md, String str) {
+        byte[] data = str != null ? str.getBytes(StandardCharsets.UTF_8) : null;
+        updateInt(md, data != null ? data.length : -1);
+        if (data != null) {
+            md.update(data);
+        }
+    }
+
+    /**
+     * Adds an integer to the digest.
+     */
+    private static void updateInt(MessageDigest md, int value) {
+        md.update((byte) (value >>> 24));
+        md.update((byte) (value >>> 16));
+        md.update((byte) (value >>> 8));
+        md.update((byte) value);
+    }
+
+}
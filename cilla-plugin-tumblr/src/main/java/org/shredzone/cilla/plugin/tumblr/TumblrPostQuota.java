@@ -0,0 +1,646 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.tumblr;
+
+import static org.shredzone.cilla.plugin.tumblr.TumblrPublicationServiceImpl.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.sql.DataSource;
+
+import org.shredzone.cilla.core.model.Page;
+import org.shredzone.cilla.core.repository.PageDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Keeps track of the posts of each blog within a rolling window, so the post limit of
+ * Tumblr is not exceeded.
+ * <p>
+ * The posts are recorded in a table of their own, so the window survives a restart and
+ * is shared by all nodes of a cluster. A post is recorded in the transaction of the
+ * page, so its slot is returned if the transaction is rolled back.
+ * <p>
+ * Posts that exceed the limit are queued, and are published in the order of their
+ * publication date as soon as the quota permits. The queue is persisted in a table of
+ * its own and in the page properties, so it survives a restart. Queued pages that
+ * cannot be published anymore are dropped from the queue.
+ * <p>
+ * If Tumblr refuses a post nevertheless, the posts of the blog are paused for
+ * {@code tumblr.backoff} seconds. The pause is doubled on each refusal, up to the
+ * length of the window, and is reset when a post was accepted.
+ * <p>
+ * Only the bookkeeping in memory is done while the quota is locked. Database accesses
+ * are done outside of the lock.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class TumblrPostQuota {
+
+    private static final String TABLE = "cilla_tumblr_post";
+    private static final String QUEUE_TABLE = "cilla_tumblr_queue";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final Map<String, Integer> uncommitted = new HashMap<>();
+    private final Map<String, Long> completions = new HashMap<>();
+    private final Map<String, Backoff> backoffs = new HashMap<>();
+    private final Map<String, PriorityQueue<QueuedPost>> queues = new HashMap<>();
+
+    private @Value("${tumblr.masterEnable}") boolean tumblrMasterEnabled;
+    private @Value("${tumblr.postLimit:250}") int tumblrPostLimit;
+    private @Value("${tumblr.postLimitWindow:86400}") long tumblrPostLimitWindow;
+    private @Value("${tumblr.quotaCheckInterval:300}") long tumblrQuotaCheckInterval;
+    private @Value("${tumblr.backoff:900}") long tumblrBackoff;
+
+    private @Resource @Lazy TumblrPublicationService tumblrPublicationService;
+    private @Resource PageDao pageDao;
+    private @Resource DataSource dataSource;
+    private @Resource PlatformTransactionManager transactionManager;
+
+    private ScheduledExecutorService scheduler;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    public void setup() {
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        try {
+            jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + TABLE + " WHERE 1=0", Long.class);
+        } catch (DataAccessException ex) {
+            log.info("Creating table " + TABLE);
+            jdbcTemplate.execute("CREATE TABLE " + TABLE + " ("
+                    + "blog_name VARCHAR(255) NOT NULL, "
+                    + "page_id BIGINT NOT NULL, "
+                    + "posted BIGINT NOT NULL, "
+                    + "slots INT NOT NULL)");
+            jdbcTemplate.execute("CREATE INDEX " + TABLE + "_blog ON " + TABLE + " (blog_name, posted)");
+        }
+
+        boolean created = false;
+        try {
+            jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + QUEUE_TABLE + " WHERE 1=0", Long.class);
+        } catch (DataAccessException ex) {
+            log.info("Creating table " + QUEUE_TABLE);
+            jdbcTemplate.execute("CREATE TABLE " + QUEUE_TABLE + " ("
+                    + "page_id BIGINT NOT NULL, "
+                    + "blog_name VARCHAR(255) NOT NULL, "
+                    + "queued BIGINT NOT NULL, "
+                    + "PRIMARY KEY (page_id))");
+            created = true;
+        }
+
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "tumblr-post-quota");
+            thread.setDaemon(true);
+            return thread;
+        });
+        boolean migrate = created;
+        scheduler.execute(() -> load(migrate));
+        scheduler.scheduleWithFixedDelay(this::release,
+                tumblrQuotaCheckInterval, tumblrQuotaCheckInterval, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Acquires a post of the blog's quota. If the quota is exhausted, if the posts of
+     * the blog are paused, or if other posts of the blog are queued before the page, the
+     * page is queued.
+     * <p>
+     * If the current transaction is rolled back, the post is returned to the quota, and
+     * the page is queued again if it was taken from the queue.
+     *
+     * @param blogName
+     *            Name of the blog
+     * @param page
+     *            {@link Page} to be posted
+     * @return {@code true} if the page can be posted now, {@code false} if it was queued
+     */
+    public boolean acquire(String blogName, Page page) {
+        long pageId = page.getId();
+        boolean permitted;
+        QueuedPost head;
+        QueuedPost queued = null;
+
+        while (true) {
+            long seen = getCompletions(blogName);
+            int used = committed(blogName);
+            synchronized (this) {
+                if (completions.getOrDefault(blogName, 0L) != seen) {
+                    // A post was committed meanwhile, and is counted by the database now
+                    continue;
+                }
+
+                PriorityQueue<QueuedPost> queue = queue(blogName);
+                head = queue.peek();
+                permitted = (head == null || head.pageId == pageId) && !isPaused(blogName)
+                        && used + uncommitted.getOrDefault(blogName, 0) < tumblrPostLimit;
+                if (permitted) {
+                    if (head != null) {
+                        queue.poll();
+                    }
+                    uncommitted.merge(blogName, 1, Integer::sum);
+                } else {
+                    queued = enqueue(queue, page);
+                }
+                break;
+            }
+        }
+
+        if (!permitted) {
+            if (queued != null) {
+                persist(blogName, page, queued);
+            }
+            return false;
+        }
+
+        QueuedPost taken = head;
+        try {
+            record(blogName, pageId, 1);
+            if (page.getProperties().remove(PROPKEY_TUMBLR_QUEUED) != null || taken != null) {
+                unpersist(pageId);
+            }
+        } catch (RuntimeException ex) {
+            completed(blogName, taken);
+            throw ex;
+        }
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    completed(blogName, status == STATUS_COMMITTED ? null : taken);
+                }
+            });
+        } else {
+            completed(blogName, null);
+        }
+        return true;
+    }
+
+    /**
+     * Pauses the posts of the blog, because Tumblr refused a post. The page is queued.
+     *
+     * @param blogName
+     *            Name of the blog
+     * @param page
+     *            {@link Page} that was refused
+     */
+    public void exhausted(String blogName, Page page) {
+        QueuedPost queued;
+        long pause;
+        synchronized (this) {
+            pause = backoffs.computeIfAbsent(blogName, k -> new Backoff()).next();
+            queued = enqueue(queue(blogName), page);
+        }
+        log.warn("Tumblr refused a post of blog {}, pausing its posts for {}s", blogName, pause);
+        if (queued != null) {
+            persist(blogName, page, queued);
+        }
+    }
+
+    /**
+     * Notifies that Tumblr has accepted a post of the blog, so the pause after a
+     * refused post is reset.
+     *
+     * @param blogName
+     *            Name of the blog
+     */
+    public synchronized void accepted(String blogName) {
+        backoffs.remove(blogName);
+    }
+
+    /**
+     * Queues a page that was not posted before shutdown, so it is posted after the
+     * restart.
+     *
+     * @param blogName
+     *            Name of the blog
+     * @param page
+     *            {@link Page} to be posted
+     */
+    public void requeue(String blogName, Page page) {
+        QueuedPost queued;
+        synchronized (this) {
+            queued = enqueue(queue(blogName), page);
+        }
+        if (queued != null) {
+            persist(blogName, page, queued);
+        }
+    }
+
+    /**
+     * Returns the number of queued posts of all blogs.
+     */
+    public synchronized int getQueueDepth() {
+        return queues.values().stream().mapToInt(PriorityQueue::size).sum();
+    }
+
+    /**
+     * Returns the number of queued posts of a blog.
+     *
+     * @param blogName
+     *            Name of the blog
+     */
+    public synchronized int getQueueDepth(String blogName) {
+        PriorityQueue<QueuedPost> queue = queues.get(blogName);
+        return queue != null ? queue.size() : 0;
+    }
+
+    /**
+     * Publishes the queued pages, as far as the quota permits. This is done
+     * periodically, but may also be invoked directly.
+     */
+    void release() {
+        try {
+            jdbcTemplate.update("DELETE FROM " + TABLE + " WHERE posted<=?", windowStart());
+        } catch (Exception ex) {
+            log.warn("Failed to remove expired Tumblr posts from the quota", ex);
+        }
+
+        List<String> blogNames;
+        synchronized (this) {
+            blogNames = new ArrayList<>(queues.keySet());
+        }
+
+        for (String blogName : blogNames) {
+            try {
+                release(blogName);
+            } catch (Exception ex) {
+                log.warn("Failed to release the queued Tumblr posts of blog " + blogName, ex);
+            }
+        }
+
+        int depth = getQueueDepth();
+        if (depth > 0) {
+            log.info("{} Tumblr posts are still queued", depth);
+        }
+    }
+
+    /**
+     * Publishes the queued pages of a blog, as far as the quota permits.
+     *
+     * @param blogName
+     *            Name of the blog
+     */
+    private void release(String blogName) {
+        QueuedPost head;
+        while ((head = nextReleasable(blogName)) != null) {
+            long pageId = head.pageId;
+            if (!publish(blogName, pageId)) {
+                // The page was dropped from the queue, so try the next one
+                continue;
+            }
+
+            synchronized (this) {
+                if (queue(blogName).peek() != head) {
+                    continue;
+                }
+            }
+
+            if (!isAvailable(blogName)) {
+                // The page is still queued, because the quota is exhausted again
+                break;
+            }
+
+            // The page is still queued although the quota permits to post it, so it
+            // would block the queue forever
+            log.warn("Queued Tumblr post of page id {} could not be published, dropping it", pageId);
+            transactionTemplate.execute(tx -> drop(pageId, pageDao.fetch(pageId)));
+        }
+    }
+
+    /**
+     * Returns the number of committed posts of the blog within the window.
+     */
+    private int committed(String blogName) {
+        Integer used = jdbcTemplate.queryForObject(
+                "SELECT COALESCE(SUM(slots), 0) FROM " + TABLE + " WHERE blog_name=? AND posted>?",
+                Integer.class, blogName, windowStart());
+        return used != null ? used : 0;
+    }
+
+    /**
+     * Checks if the quota of the blog permits a post now.
+     */
+    private boolean isAvailable(String blogName) {
+        int used = committed(blogName);
+        synchronized (this) {
+            return !isPaused(blogName) && used + uncommitted.getOrDefault(blogName, 0) < tumblrPostLimit;
+        }
+    }
+
+    /**
+     * Checks if the posts of the blog are paused. Must be invoked under the lock.
+     */
+    private boolean isPaused(String blogName) {
+        Backoff backoff = backoffs.get(blogName);
+        return backoff != null && backoff.until > System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the number of completed transactions with posts of the blog.
+     */
+    private synchronized long getCompletions(String blogName) {
+        return completions.getOrDefault(blogName, 0L);
+    }
+
+    /**
+     * Returns the queue of the blog. Must be invoked under the lock.
+     */
+    private PriorityQueue<QueuedPost> queue(String blogName) {
+        return queues.computeIfAbsent(blogName, k -> new PriorityQueue<>());
+    }
+
+    /**
+     * Records posts of the blog, in the current transaction.
+     */
+    private void record(String blogName, long pageId, int slots) {
+        jdbcTemplate.update(
+                "INSERT INTO " + TABLE + " (blog_name, page_id, posted, slots) VALUES (?, ?, ?, ?)",
+                blogName, pageId, System.currentTimeMillis(), slots);
+    }
+
+    /**
+     * Invoked when the transaction of an acquired post is completed.
+     *
+     * @param blogName
+     *            Name of the blog
+     * @param requeue
+     *            {@link QueuedPost} that was taken from the queue and is to be queued
+     *            again because the transaction was rolled back, or {@code null}
+     */
+    private synchronized void completed(String blogName, QueuedPost requeue) {
+        uncommitted.computeIfPresent(blogName, (k, v) -> v > 1 ? v - 1 : null);
+        completions.merge(blogName, 1L, Long::sum);
+        if (requeue != null) {
+            PriorityQueue<QueuedPost> queue = queue(blogName);
+            if (queue.stream().noneMatch(q -> q.pageId == requeue.pageId)) {
+                queue.add(requeue);
+            }
+        }
+    }
+
+    /**
+     * Returns the start of the window, in milliseconds.
+     */
+    private long windowStart() {
+        return System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(tumblrPostLimitWindow);
+    }
+
+    /**
+     * Adds a page to the queue in memory, unless it is already queued. Must be invoked
+     * under the lock.
+     *
+     * @return {@link QueuedPost} that was added, or {@code null} if the page was already
+     *         queued
+     */
+    private QueuedPost enqueue(PriorityQueue<QueuedPost> queue, Page page) {
+        if (queue.stream().anyMatch(q -> q.pageId == page.getId())) {
+            return null;
+        }
+
+        long order = page.getPublication() != null
+                ? page.getPublication().getTime()
+                : System.currentTimeMillis();
+        QueuedPost post = new QueuedPost(order, page.getId());
+        queue.add(post);
+        log.info("Queued Tumblr post of page id {} ({} posts queued)", page.getId(), queue.size());
+        return post;
+    }
+
+    /**
+     * Persists a queued page, in the current transaction.
+     */
+    private void persist(String blogName, Page page, QueuedPost post) {
+        page.getProperties().put(PROPKEY_TUMBLR_QUEUED, String.valueOf(post.order));
+        int updated = jdbcTemplate.update(
+                "UPDATE " + QUEUE_TABLE + " SET blog_name=?, queued=? WHERE page_id=?",
+                blogName, post.order, post.pageId);
+        if (updated == 0) {
+            jdbcTemplate.update(
+                    "INSERT INTO " + QUEUE_TABLE + " (page_id, blog_name, queued) VALUES (?, ?, ?)",
+                    post.pageId, blogName, post.order);
+        }
+    }
+
+    /**
+     * Removes a page from the persisted queue, in the current transaction.
+     */
+    private void unpersist(long pageId) {
+        jdbcTemplate.update("DELETE FROM " + QUEUE_TABLE + " WHERE page_id=?", pageId);
+    }
+
+    /**
+     * Loads the queued pages after a restart.
+     *
+     * @param migrate
+     *            {@code true} if the queue table was just created, and the queued pages
+     *            are to be taken from the page properties once
+     */
+    private void load(boolean migrate) {
+        try {
+            if (migrate) {
+                migrate();
+            }
+
+            List<Object[]> rows = jdbcTemplate.query(
+                    "SELECT blog_name, page_id, queued FROM " + QUEUE_TABLE,
+                    (rs, rowNum) -> new Object[] { rs.getString(1), rs.getLong(2), rs.getLong(3) });
+
+            synchronized (this) {
+                for (Object[] row : rows) {
+                    String blogName = (String) row[0];
+                    long pageId = (Long) row[1];
+                    PriorityQueue<QueuedPost> queue = queue(blogName);
+                    if (queue.stream().noneMatch(q -> q.pageId == pageId)) {
+                        queue.add(new QueuedPost((Long) row[2], pageId));
+                    }
+                }
+            }
+
+            int depth = getQueueDepth();
+            if (depth > 0) {
+                log.info("Loaded {} queued Tumblr posts", depth);
+            }
+        } catch (Exception ex) {
+            log.error("Failed to load the queued Tumblr posts", ex);
+        }
+    }
+
+    /**
+     * Copies the queued pages from the page properties to the queue table. This is only
+     * done once, when the queue table was created.
+     */
+    private void migrate() {
+        transactionTemplate.execute(tx -> {
+            for (Page page : pageDao.fetchAllPublic()) {
+                String order = page.getProperties().get(PROPKEY_TUMBLR_QUEUED);
+                String blogName = page.getCreator().getProperties().get(PROPKEY_TUMBLR_BLOGNAME);
+                if (order == null || blogName == null) {
+                    continue;
+                }
+
+                try {
+                    persist(blogName, page, new QueuedPost(Long.parseLong(order), page.getId()));
+                } catch (NumberFormatException ex) {
+                    log.error("Cannot parse property key '" + PROPKEY_TUMBLR_QUEUED
+                            + "' for page ID " + page.getId(), ex);
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Returns the head of the blog's queue, if the quota permits to publish it.
+     */
+    private QueuedPost nextReleasable(String blogName) {
+        if (!isAvailable(blogName)) {
+            return null;
+        }
+        synchronized (this) {
+            PriorityQueue<QueuedPost> queue = queues.get(blogName);
+            return queue != null ? queue.peek() : null;
+        }
+    }
+
+    /**
+     * Publishes a queued page. If the page cannot be published anymore, it is dropped
+     * from the queue.
+     *
+     * @param blogName
+     *            Name of the blog the page is queued for
+     * @param pageId
+     *            ID of the page
+     * @return {@code true} if the page was passed to the publication service,
+     *         {@code false} if it was dropped
+     */
+    private boolean publish(String blogName, long pageId) {
+        return transactionTemplate.execute(tx -> {
+            Page page = pageDao.fetch(pageId);
+            if (!tumblrMasterEnabled || page == null || !page.isPromoted() || !page.isPublishedState()
+                    || tumblrPublicationService.isRegistered(page)) {
+                drop(pageId, page);
+                return false;
+            }
+
+            String currentBlogName = page.getCreator().getProperties().get(PROPKEY_TUMBLR_BLOGNAME);
+            if (!blogName.equals(currentBlogName)) {
+                // The blog name was changed or removed. The page is posted to the new
+                // blog, if there is one.
+                drop(pageId, page);
+                if (currentBlogName != null) {
+                    tumblrPublicationService.publish(page);
+                }
+                return false;
+            }
+
+            tumblrPublicationService.publish(page);
+            return true;
+        });
+    }
+
+    /**
+     * Removes a page from all queues, in the current transaction.
+     *
+     * @param pageId
+     *            ID of the page
+     * @param page
+     *            {@link Page}, or {@code null} if it was deleted
+     * @return {@code null}
+     */
+    private Void drop(long pageId, Page page) {
+        synchronized (this) {
+            queues.values().forEach(q -> q.removeIf(p -> p.pageId == pageId));
+        }
+        unpersist(pageId);
+        if (page != null) {
+            page.getProperties().remove(PROPKEY_TUMBLR_QUEUED);
+        }
+        return null;
+    }
+
+    /**
+     * A queued post, ordered by its publication date.
+     */
+    private static class QueuedPost implements Comparable<QueuedPost> {
+        private static final Comparator<QueuedPost> ORDER =
+                Comparator.<QueuedPost>comparingLong(q -> q.order).thenComparingLong(q -> q.pageId);
+
+        private final long order;
+        private final long pageId;
+
+        public QueuedPost(long order, long pageId) {
+            this.order = order;
+            this.pageId = pageId;
+        }
+
+        @Override
+        public int compareTo(QueuedPost o) {
+            return ORDER.compare(this, o);
+        }
+    }
+
+    /**
+     * The pause of a blog after Tumblr refused a post. Must be accessed under the lock.
+     */
+    private class Backoff {
+        private long delay;
+        private long until;
+
+        /**
+         * Starts the next pause, which is twice as long as the previous one.
+         *
+         * @return Length of the pause, in seconds
+         */
+        private long next() {
+            long max = Math.max(tumblrPostLimitWindow, 1L);
+            delay = delay == 0 ? Math.min(Math.max(tumblrBackoff, 1L), max) : Math.min(delay * 2, max);
+            until = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(delay);
+            return delay;
+        }
+    }
+
+}
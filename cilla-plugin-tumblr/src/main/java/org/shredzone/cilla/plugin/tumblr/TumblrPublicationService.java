@@ -23,6 +23,9 @@ import org.shredzone.cilla.core.model.Page;
 
 /**
  * A service for {@link Page} related Tumblr operations.
+ * <p>
+ * Tumblr is accessed after the current transaction has been committed. The result is
+ * stored in the page in a separate transaction.
  *
  * @author Richard "Shred" Körber
  */
@@ -68,4 +71,34 @@ public interface TumblrPublicationService {
      */
     boolean isRegistered(Page page);
 
+    /**
+     * Checks if the {@link Page} is registered with Tumblr, and the post reflects the
+     * current state of the page. Tumblr is not accessed for this check.
+     *
+     * @param page
+     *            {@link Page} to check
+     * @return {@code true} if the post is up to date
+     */
+    boolean isUpToDate(Page page);
+
+    /**
+     * Checks if a post of the page is currently being submitted to Tumblr. The page is
+     * not registered until the post was accepted by Tumblr.
+     *
+     * @param pageId
+     *            ID of the page to check
+     * @return {@code true} if a post is being submitted
+     */
+    boolean isPublishing(long pageId);
+
+    /**
+     * Waits until all Tumblr accesses that have been started so far are completed.
+     *
+     * @param timeout
+     *            Maximum time to wait, in milliseconds
+     * @return {@code true} if the accesses are completed, {@code false} if the timeout
+     *         has elapsed
+     */
+    boolean awaitCompletion(long timeout) throws InterruptedException;
+
 }
@@ -24,10 +24,24 @@ import static java.util.stream.Collectors.toList;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 
 import org.shredzone.cilla.core.model.Category;
@@ -35,16 +49,26 @@ import org.shredzone.cilla.core.model.Page;
 import org.shredzone.cilla.core.model.Tag;
 import org.shredzone.cilla.core.model.User;
 import org.shredzone.cilla.core.repository.PageDao;
+import org.shredzone.cilla.plugin.publication.LeaseHold;
+import org.shredzone.cilla.plugin.publication.PublicationCall;
+import org.shredzone.cilla.plugin.publication.PublicationMetrics;
+import org.shredzone.cilla.plugin.publication.RemoteId;
+import org.shredzone.cilla.plugin.publication.RemoteIdStore;
 import org.shredzone.cilla.service.link.LinkBuilder;
 import org.shredzone.cilla.service.link.LinkService;
 import org.shredzone.cilla.web.format.TextFormatter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import com.tumblr.jumblr.JumblrClient;
+import com.tumblr.jumblr.exceptions.JumblrException;
 import com.tumblr.jumblr.types.Post;
 import com.tumblr.jumblr.types.TextPost;
 
@@ -53,26 +77,75 @@ import com.tumblr.jumblr.types.TextPost;
  *
  * @author Richard "Shred" Körber
  */
-@Service
 @Transactional
 public class TumblrPublicationServiceImpl implements TumblrPublicationService {
     public static final String PROPKEY_TUMBLR_ID = "tumblr.id";
     public static final String PROPKEY_TUMBLR_BLOGNAME = "tumblr.blogname";
     public static final String PROPKEY_TUMBLR_TOKEN = "tumblr.token";
     public static final String PROPKEY_TUMBLR_SECRET = "tumblr.secret";
+    public static final String PROPKEY_TUMBLR_FINGERPRINT = "tumblr.fingerprint";
+    public static final String PROPKEY_TUMBLR_QUEUED = "tumblr.queued";
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
 
     private static final Pattern AUTOTAG_SEPARATOR = Pattern.compile(",");
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
+    private final ConcurrentMap<String, List<String>> userCredentials = new ConcurrentHashMap<>();
+    private final Set<Long> publishing = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<Long, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+    private final Set<TumblrTask> queued = ConcurrentHashMap.newKeySet();
+
     private @Value("${tumblr.masterEnable}") boolean tumblrMasterEnabled;
     private @Value("${tumblr.autotags}") String tumblrAutotags;
     private @Value("${tumblr.state}") String tumblrState;
+    private @Value("${tumblr.workers:4}") int tumblrWorkers;
+    private @Value("${publication.timeout:30}") long publicationTimeout;
 
     private @Resource JumblrServiceFactory jumblrServiceFactory;
+    private @Resource TumblrPostQuota tumblrPostQuota;
+    private @Resource TumblrMetrics tumblrMetrics;
+    private @Resource RemoteIdStore tumblrRemoteIdStore;
     private @Resource TextFormatter textFormatter;
     private @Resource PageDao pageDao;
     private @Resource LinkService linkService;
+    private @Resource PlatformTransactionManager transactionManager;
+
+    private ExecutorService executor;
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    public void setup() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        tumblrRemoteIdStore.migrate(page -> {
+            String tumblrId = page.getProperties().get(PROPKEY_TUMBLR_ID);
+            return tumblrId != null ? new RemoteId(page.getId(), tumblrId, null) : null;
+        });
+        executor = Executors.newFixedThreadPool(Math.max(tumblrWorkers, 1), r -> {
+            Thread thread = new Thread(r, "tumblr-publication");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Tasks of the same page are chained, so the executor must accept new tasks
+        // until all chains are completed.
+        try {
+            awaitCompletion(TimeUnit.SECONDS.toMillis(publicationTimeout));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        executor.shutdownNow();
+
+        List<TumblrTask> remaining = new ArrayList<>(queued);
+        if (!remaining.isEmpty()) {
+            log.warn("{} Tumblr tasks were not completed after {}s", remaining.size(), publicationTimeout);
+            remaining.forEach(TumblrTask::drop);
+        }
+    }
 
     @Override
     public void publish(Page page) {
@@ -94,21 +167,84 @@ public class TumblrPublicationServiceImpl implements TumblrPublicationService {
             return;
         }
 
-        try {
-            JumblrClient client = createJumblrClient(page.getCreator());
+        long pageId = page.getId();
+        if (!publishing.add(pageId)) {
+            log.debug("Page id {} is already being posted at Tumblr", pageId);
+            return;
+        }
+
+        if (!tumblrPostQuota.acquire(blogName, page)) {
+            publishing.remove(pageId);
+            return;
+        }
 
-            TextPost post = client.newPost(blogName, TextPost.class);
-            pageToPost(page, post);
-            post.save();
+        JumblrClient client = createJumblrClient(creator);
+        TumblrPostContent content = pageToContent(page);
 
-            page.getProperties().put(PROPKEY_TUMBLR_ID, post.getId().toString());
-            page.getProperties().put(PROPKEY_TUMBLR_BLOGNAME, post.getBlogName());
+        afterCommit(pageId, () -> {
+            // The post may have been registered by a task that was still running when
+            // this one was submitted, so it must not be posted again.
+            if (tumblrRemoteIdStore.find(pageId) != null) {
+                log.debug("Page id {} was posted to Tumblr meanwhile, skipping post", pageId);
+                return;
+            }
 
-            log.info("Registered page id " + page.getId() + ", Tumblr ID " + post.getId()
-                            + " at blog " + post.getBlogName() + " with state " + tumblrState);
-        } catch (Exception ex) {
-            log.warn("Failed to submit a Tumblr for page id " + page.getId(), ex);
-        }
+            TextPost post;
+            PublicationCall call = tumblrMetrics.start("publish", pageId);
+            try {
+                post = client.newPost(blogName, TextPost.class);
+                content.applyTo(post);
+                post.save();
+                call.success();
+                tumblrPostQuota.accepted(blogName);
+            } catch (JumblrException ex) {
+                call.finish(outcome(ex));
+                if (ex.getResponseCode() == HTTP_TOO_MANY_REQUESTS) {
+                    // Post limit was reached, try again later
+                    withPage(pageId, p -> {
+                        if (p != null) {
+                            tumblrPostQuota.exhausted(blogName, p);
+                        }
+                        return true;
+                    });
+                } else {
+                    log.warn("Failed to submit a Tumblr for page id " + pageId, ex);
+                }
+                return;
+            } catch (Exception ex) {
+                call.finish(outcome(ex));
+                log.warn("Failed to submit a Tumblr for page id " + pageId, ex);
+                return;
+            }
+
+            boolean stored = withPage(pageId, p -> {
+                // The page may have been changed while it was posted
+                if (p == null || !p.isPromoted() || isRegistered(p)) {
+                    return false;
+                }
+
+                p.getProperties().put(PROPKEY_TUMBLR_ID, post.getId().toString());
+                p.getProperties().put(PROPKEY_TUMBLR_BLOGNAME, post.getBlogName());
+                p.getProperties().put(PROPKEY_TUMBLR_FINGERPRINT, content.fingerprint());
+                tumblrRemoteIdStore.put(pageId, post.getId().toString(), post.getPostUrl());
+                return true;
+            });
+
+            if (stored) {
+                log.info("Registered page id " + pageId + ", Tumblr ID " + post.getId()
+                                + " at blog " + post.getBlogName() + " with state " + tumblrState);
+            } else {
+                log.info("Page id " + pageId + " was changed while it was posted, deleting Tumblr ID "
+                                + post.getId() + " at blog " + post.getBlogName());
+                delete(client, pageId, post.getBlogName(), post.getId());
+            }
+        }, () -> withPage(pageId, p -> {
+            // Queue the page, so it is posted after the restart
+            if (p != null && p.isPromoted() && !isRegistered(p)) {
+                tumblrPostQuota.requeue(blogName, p);
+            }
+            return true;
+        }), () -> publishing.remove(pageId));
     }
 
     @Override
@@ -123,20 +259,54 @@ public class TumblrPublicationServiceImpl implements TumblrPublicationService {
             return;
         }
 
-        JumblrClient client = createJumblrClient(page.getCreator());
         Long postId = getPostId(page);
 
         if (postId != null) {
-            try {
-                String blogName = page.getProperties().get(PROPKEY_TUMBLR_BLOGNAME);
-                TextPost post = (TextPost) client.blogPost(blogName, postId);
-                pageToPost(page, post);
-                post.save();
-
-                log.info("Updated page id " + page.getId() + ", Tumblr ID " + post.getId() + " at blog " + post.getBlogName());
-            } catch (Exception ex) {
-                log.warn("Failed to update a Tumblr for page id " + page.getId(), ex);
+            TumblrPostContent content = pageToContent(page);
+            String fingerprint = content.fingerprint();
+            if (fingerprint.equals(page.getProperties().get(PROPKEY_TUMBLR_FINGERPRINT))) {
+                log.debug("Page id {} is unchanged at Tumblr, skipping update", page.getId());
+                return;
             }
+
+            long pageId = page.getId();
+            JumblrClient client = createJumblrClient(page.getCreator());
+            String blogName = page.getProperties().get(PROPKEY_TUMBLR_BLOGNAME);
+
+            afterCommit(pageId, () -> {
+                // Tasks of a page are run in order. If the page was removed or posted
+                // again before, the post is not to be updated anymore.
+                RemoteId current = tumblrRemoteIdStore.find(pageId);
+                if (current == null || !postId.toString().equals(current.getId())) {
+                    log.debug("Page id {} was removed from Tumblr meanwhile, skipping update", pageId);
+                    return;
+                }
+
+                PublicationCall call = tumblrMetrics.start("update", pageId);
+                try {
+                    TextPost post = (TextPost) client.blogPost(blogName, postId);
+                    content.applyTo(post);
+                    post.save();
+                    call.success();
+                } catch (Exception ex) {
+                    call.finish(outcome(ex));
+                    log.warn("Failed to update a Tumblr for page id " + pageId, ex);
+                    return;
+                }
+
+                withPage(pageId, p -> {
+                    // Only store the fingerprint if the post was not removed meanwhile
+                    if (p != null && postId.equals(getPostId(p))) {
+                        p.getProperties().put(PROPKEY_TUMBLR_FINGERPRINT, fingerprint);
+                    }
+                    return true;
+                });
+
+                log.info("Updated page id " + pageId + ", Tumblr ID " + postId + " at blog " + blogName);
+            }, () -> {
+                // The fingerprint is not stored, so the next synchronization updates the post
+                log.warn("Dropped update of page id {}, Tumblr ID {} at blog {}", pageId, postId, blogName);
+            });
         }
     }
 
@@ -147,32 +317,214 @@ public class TumblrPublicationServiceImpl implements TumblrPublicationService {
             return;
         }
 
-        JumblrClient client = createJumblrClient(page.getCreator());
         Long postId = getPostId(page);
 
         if (postId != null) {
-            try {
-                String blogName = page.getProperties().get(PROPKEY_TUMBLR_BLOGNAME);
-                client.postDelete(blogName, postId);
+            long pageId = page.getId();
+            JumblrClient client = createJumblrClient(page.getCreator());
+            String blogName = page.getProperties().get(PROPKEY_TUMBLR_BLOGNAME);
 
-                page.getProperties().remove(PROPKEY_TUMBLR_ID);
-                page.getProperties().remove(PROPKEY_TUMBLR_BLOGNAME);
+            page.getProperties().remove(PROPKEY_TUMBLR_ID);
+            page.getProperties().remove(PROPKEY_TUMBLR_BLOGNAME);
+            page.getProperties().remove(PROPKEY_TUMBLR_FINGERPRINT);
+            tumblrRemoteIdStore.remove(pageId);
 
-                log.info("Deleted page id " + page.getId() + ", Tumblr ID " + postId
-                    + " at blog " + blogName);
-            } catch (Exception ex) {
-                log.warn("Failed to delete a Tumblr for page id " + page.getId(), ex);
-            }
+            afterCommit(pageId,
+                    () -> delete(client, pageId, blogName, postId),
+                    () -> reregister(pageId, blogName, postId));
         }
     }
 
     @Override
     public boolean isRegistered(Page page) {
-        return page.getProperties().containsKey(PROPKEY_TUMBLR_ID);
+        return tumblrRemoteIdStore.find(page.getId()) != null;
+    }
+
+    @Override
+    public boolean isUpToDate(Page page) {
+        return isRegistered(page)
+                && pageToContent(page).fingerprint().equals(page.getProperties().get(PROPKEY_TUMBLR_FINGERPRINT));
+    }
+
+    @Override
+    public boolean isPublishing(long pageId) {
+        return publishing.contains(pageId);
+    }
+
+    @Override
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public boolean awaitCompletion(long timeout) throws InterruptedException {
+        CompletableFuture<?>[] running = pending.values().toArray(new CompletableFuture<?>[0]);
+        try {
+            // Tasks of a page are chained, so all former tasks are completed with these
+            CompletableFuture.allOf(running).get(timeout, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (ExecutionException ex) {
+            return true;
+        } catch (TimeoutException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Deletes a post at Tumblr. If the post could not be deleted, it is registered
+     * with the page again, unless the page was deleted or posted again meanwhile.
+     *
+     * @param client
+     *            {@link JumblrClient} to be used
+     * @param pageId
+     *            ID of the page the post belongs to
+     * @param blogName
+     *            Name of the blog
+     * @param postId
+     *            ID of the post to delete
+     */
+    private void delete(JumblrClient client, long pageId, String blogName, Long postId) {
+        PublicationCall call = tumblrMetrics.start("remove", pageId);
+        try {
+            client.postDelete(blogName, postId);
+            call.success();
+            log.info("Deleted page id " + pageId + ", Tumblr ID " + postId + " at blog " + blogName);
+        } catch (Exception ex) {
+            call.finish(outcome(ex));
+            log.warn("Failed to delete a Tumblr for page id " + pageId, ex);
+            reregister(pageId, blogName, postId);
+        }
+    }
+
+    /**
+     * Registers a post that could not be deleted with its page again, unless the page
+     * was deleted or posted again meanwhile.
+     *
+     * @param pageId
+     *            ID of the page the post belongs to
+     * @param blogName
+     *            Name of the blog
+     * @param postId
+     *            ID of the post
+     */
+    private void reregister(long pageId, String blogName, Long postId) {
+        withPage(pageId, p -> {
+            if (p != null && !isRegistered(p)) {
+                p.getProperties().put(PROPKEY_TUMBLR_ID, postId.toString());
+                p.getProperties().put(PROPKEY_TUMBLR_BLOGNAME, blogName);
+                tumblrRemoteIdStore.put(pageId, postId.toString(), null);
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Returns the metrics outcome of a failed call.
+     *
+     * @param ex
+     *            Exception that was thrown by the call
+     * @return Outcome, which is the HTTP status if there was a response
+     */
+    private static String outcome(Exception ex) {
+        if (ex instanceof JumblrException) {
+            return PublicationMetrics.outcome(((JumblrException) ex).getResponseCode());
+        }
+        return PublicationMetrics.ERROR;
+    }
+
+    /**
+     * Runs a task that accesses Tumblr. If there is a transaction, the task is run after
+     * it has been committed. The task is run by a worker thread, so no database
+     * connection is held while Tumblr is accessed. Tasks of the same page are run in
+     * order, tasks of different pages are run in parallel by a small pool of workers.
+     * <p>
+     * In a cluster, the publication lease of the page is kept until the task is done.
+     *
+     * @param pageId
+     *            ID of the page the task belongs to
+     * @param task
+     *            Task to run
+     * @param dropped
+     *            Invoked instead of the task if it could not be run before shutdown, to
+     *            persist the state that is needed for running it later
+     */
+    private void afterCommit(long pageId, Runnable task, Runnable dropped) {
+        afterCommit(pageId, task, dropped, () -> {});
+    }
+
+    /**
+     * Runs a task that accesses Tumblr, like {@link #afterCommit(long, Runnable, Runnable)}.
+     *
+     * @param pageId
+     *            ID of the page the task belongs to
+     * @param task
+     *            Task to run
+     * @param dropped
+     *            Invoked instead of the task if it could not be run before shutdown
+     * @param finished
+     *            Invoked when the task was run or dropped, or when the transaction was
+     *            rolled back
+     */
+    private void afterCommit(long pageId, Runnable task, Runnable dropped, Runnable finished) {
+        TumblrTask tumblrTask = new TumblrTask(pageId, task, dropped, finished, LeaseHold.keep());
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_COMMITTED) {
+                        execute(tumblrTask);
+                    } else {
+                        tumblrTask.cancel();
+                    }
+                }
+            });
+        } else {
+            execute(tumblrTask);
+        }
+    }
+
+    /**
+     * Runs a task on a worker thread, when all former tasks of the same page have been
+     * completed. If the workers have been shut down, the task is dropped.
+     *
+     * @param task
+     *            {@link TumblrTask} to run
+     */
+    private void execute(TumblrTask task) {
+        long pageId = task.pageId;
+        queued.add(task);
+        CompletableFuture<Void> future = pending.compute(pageId, (id, previous) ->
+                (previous != null ? previous : CompletableFuture.<Void>completedFuture(null))
+                        .thenRunAsync(task, executor));
+        future.whenComplete((r, ex) -> {
+            pending.remove(pageId, future);
+            if (ex != null) {
+                // Only happens if the workers have been shut down
+                log.warn("Tumblr publication is shutting down, task of page id {} was not run", pageId);
+                task.drop();
+            }
+        });
+    }
+
+    /**
+     * Fetches the current state of a page in a short transaction, and passes it to the
+     * given function.
+     *
+     * @param pageId
+     *            ID of the page
+     * @param function
+     *            Function that gets the {@link Page}, or {@code null} if the page was
+     *            deleted
+     * @return Result of the function, or {@code false} if the transaction failed
+     */
+    private boolean withPage(long pageId, Function<Page, Boolean> function) {
+        try {
+            return transactionTemplate.execute(tx -> function.apply(pageDao.fetch(pageId)));
+        } catch (Exception ex) {
+            log.error("Failed to store the Tumblr state of page id " + pageId, ex);
+            return false;
+        }
     }
 
     /**
-     * Creates a new {@link JumblrClient} for the given user.
+     * Gets a {@link JumblrClient} for the given user. If the user's credentials have
+     * changed, the client of the former credentials is evicted.
      *
      * @param user
      *            {@link User} to get a {@link JumblrClient} for
@@ -181,6 +533,13 @@ public class TumblrPublicationServiceImpl implements TumblrPublicationService {
     private JumblrClient createJumblrClient(User user) {
         String token = user.getProperties().get(PROPKEY_TUMBLR_TOKEN);
         String secret = user.getProperties().get(PROPKEY_TUMBLR_SECRET);
+
+        List<String> credentials = Arrays.asList(token, secret);
+        List<String> former = userCredentials.put(user.getLogin(), credentials);
+        if (former != null && !former.equals(credentials)) {
+            jumblrServiceFactory.evictJumblrClient(former.get(0), former.get(1));
+        }
+
         return jumblrServiceFactory.getJumblrClient(token, secret);
     }
 
@@ -192,19 +551,18 @@ public class TumblrPublicationServiceImpl implements TumblrPublicationService {
      * @return {@link Post} ID, or {@code null} if the page is not published at Tumblr.
      */
     private Long getPostId(Page page) {
-        String id = page.getProperties().get(PROPKEY_TUMBLR_ID);
-        return (id != null ? new Long(id) : null);
+        RemoteId remoteId = tumblrRemoteIdStore.find(page.getId());
+        return (remoteId != null ? new Long(remoteId.getId()) : null);
     }
 
     /**
-     * Converts a {@link Page} to a {@link TextPost}.
+     * Converts a {@link Page} to a {@link TumblrPostContent}.
      *
      * @param page
      *            {@link Page} to convert from
-     * @param post
-     *            {@link TextPost} to convert into
+     * @return {@link TumblrPostContent} of the page
      */
-    private void pageToPost(Page page, TextPost post) {
+    TumblrPostContent pageToContent(Page page) {
         try {
             Supplier<LinkBuilder> linkBuilderSupplier =
                             () -> linkService.linkTo().page(page).external();
@@ -215,22 +573,91 @@ public class TumblrPublicationServiceImpl implements TumblrPublicationService {
             sb.append(textFormatter.format(page.getTeaser(), linkBuilderSupplier));
             sb.append("<p><a href=").append(URLEncoder.encode(url, "utf8")).append('>').append(url).append("</a></p>");
 
-            post.setDate(page.getPublication());
-            post.setTitle(page.getTitle());
-            post.setBody(sb.toString());
-            post.setState(tumblrState);
-
             List<String> tags = new ArrayList<>();
             tags.addAll(page.getCategories().stream().map(Category::getName).collect(toList()));
             tags.addAll(page.getTags().stream().map(Tag::getName).collect(toList()));
             if (tumblrAutotags != null && !tumblrAutotags.isEmpty()) {
                 tags.addAll(AUTOTAG_SEPARATOR.splitAsStream(tumblrAutotags).map(String::trim).collect(toList()));
             }
-            post.setTags(tags);
+
+            return new TumblrPostContent(page.getTitle(), sb.toString(), page.getPublication(), tags, tumblrState);
         } catch (UnsupportedEncodingException ex) {
             // Should never happen, as utf8 is standard
             throw new InternalError(ex);
         }
     }
 
+    /**
+     * A task that accesses Tumblr, and keeps the publication lease of its page until it
+     * is done or dropped.
+     */
+    private class TumblrTask implements Runnable {
+        private final long pageId;
+        private final Runnable task;
+        private final Runnable dropped;
+        private final Runnable finished;
+        private final LeaseHold hold;
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        public TumblrTask(long pageId, Runnable task, Runnable dropped, Runnable finished, LeaseHold hold) {
+            this.pageId = pageId;
+            this.task = task;
+            this.dropped = dropped;
+            this.finished = finished;
+            this.hold = hold;
+        }
+
+        @Override
+        public void run() {
+            if (!start()) {
+                return;
+            }
+            try {
+                hold.run(task);
+            } catch (Exception ex) {
+                // Must not break the chain of the page's tasks
+                log.error("Tumblr task of page id " + pageId + " failed", ex);
+            } finally {
+                finished.run();
+            }
+        }
+
+        /**
+         * Cancels the task, because the transaction was rolled back.
+         */
+        public void cancel() {
+            try {
+                hold.release();
+            } finally {
+                finished.run();
+            }
+        }
+
+        /**
+         * Drops the task, persisting what is needed to run it later.
+         */
+        public void drop() {
+            if (!start()) {
+                return;
+            }
+            try {
+                hold.run(dropped);
+            } catch (Exception ex) {
+                log.error("Failed to persist the dropped Tumblr task of page id " + pageId, ex);
+            } finally {
+                finished.run();
+            }
+        }
+
+        /**
+         * Marks the task as started, so it is either run or dropped, but not both.
+         *
+         * @return {@code true} if the task was not started before
+         */
+        private boolean start() {
+            queued.remove(this);
+            return started.compareAndSet(false, true);
+        }
+    }
+
 }
@@ -0,0 +1,108 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.tumblr;
+
+import static org.shredzone.cilla.plugin.tumblr.TumblrPublicationServiceImpl.*;
+
+import javax.annotation.Resource;
+
+import org.shredzone.cilla.core.model.Page;
+import org.shredzone.cilla.plugin.publication.PublicationAction;
+import org.shredzone.cilla.plugin.publication.PublicationTarget;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * {@link PublicationTarget} for Tumblr.
+ * <p>
+ * Updates are not sent right away, but are passed to the {@link TumblrUpdateScheduler},
+ * so a page that is edited several times is only updated once.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class TumblrPublicationTarget implements PublicationTarget {
+
+    private @Value("${tumblr.masterEnable}") boolean tumblrMasterEnabled;
+    private @Value("${tumblr.concurrency:4}") int tumblrConcurrency;
+
+    private @Resource TumblrPublicationService tumblrPublicationService;
+    private @Resource TumblrUpdateScheduler tumblrUpdateScheduler;
+
+    @Override
+    public String getName() {
+        return "tumblr";
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return tumblrMasterEnabled;
+    }
+
+    @Override
+    public int getConcurrency() {
+        return tumblrConcurrency;
+    }
+
+    @Override
+    public boolean isRegistered(Page page) {
+        return tumblrPublicationService.isRegistered(page);
+    }
+
+    @Override
+    public void publish(Page page) {
+        tumblrUpdateScheduler.cancel(page);
+        tumblrPublicationService.publish(page);
+    }
+
+    @Override
+    public void update(Page page) {
+        tumblrUpdateScheduler.schedule(page);
+    }
+
+    @Override
+    public void remove(Page page) {
+        tumblrUpdateScheduler.cancel(page);
+        tumblrPublicationService.remove(page);
+    }
+
+    @Override
+    public boolean verify(Page page, PublicationAction action) {
+        boolean registered = tumblrPublicationService.isRegistered(page);
+        switch (action) {
+            case PUBLISH:
+                // A post that is still submitted by the worker must not be posted again
+                return registered || !page.isPromoted()
+                        || tumblrPublicationService.isPublishing(page.getId())
+                        || page.getProperties().containsKey(PROPKEY_TUMBLR_QUEUED)
+                        || page.getCreator().getProperties().get(PROPKEY_TUMBLR_BLOGNAME) == null;
+
+            case UPDATE:
+                return !registered
+                        || tumblrUpdateScheduler.isPending(page.getId())
+                        || tumblrPublicationService.isUpToDate(page);
+
+            case REMOVE:
+                return !registered;
+
+            default:
+                return true;
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.tumblr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+
+import org.shredzone.cilla.core.model.Page;
+import org.shredzone.cilla.core.repository.PageDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Coalesces bursts of page updates. The Tumblr post is only updated when there was no
+ * further update of the page for a quiet period. The update then reflects the latest
+ * state of the page.
+ * <p>
+ * Publishing or removing a page cancels its pending update. An update that is already
+ * running cannot be cancelled. However, Tumblr is only accessed by the worker thread of
+ * {@link TumblrPublicationServiceImpl}, which also deletes the posts of removed pages.
+ * The update is skipped there if the post was deleted before.
+ * <p>
+ * On shutdown, all pending updates are performed right away instead of being dropped.
+ *
+ * @author Richard "Shred" Körber
+ */
+public class TumblrUpdateScheduler {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final ConcurrentMap<Long, ScheduledFuture<?>> pending = new ConcurrentHashMap<>();
+
+    private @Value("${tumblr.updateQuietPeriod:60}") long tumblrUpdateQuietPeriod;
+    private @Value("${publication.timeout:30}") long publicationTimeout;
+
+    private @Resource TumblrPublicationService tumblrPublicationService;
+    private @Resource PageDao pageDao;
+    private @Resource PlatformTransactionManager transactionManager;
+
+    private ScheduledThreadPoolExecutor scheduler;
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    public void setup() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "tumblr-updates");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // On shutdown, the pending updates are performed right away
+        scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(publicationTimeout, TimeUnit.SECONDS)) {
+                log.warn("Tumblr update was not completed after {}s", publicationTimeout);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<Long> pageIds = new ArrayList<>(pending.keySet());
+        pending.clear();
+        if (!pageIds.isEmpty()) {
+            log.info("Performing {} pending Tumblr updates", pageIds.size());
+            pageIds.forEach(this::update);
+        }
+    }
+
+    /**
+     * Schedules an update of the page. A pending update of the same page is replaced.
+     * If the quiet period is 0, or if the scheduler is shut down, the page is updated
+     * immediately.
+     *
+     * @param page
+     *            {@link Page} that was updated
+     */
+    public void schedule(Page page) {
+        if (tumblrUpdateQuietPeriod <= 0 || scheduler.isShutdown()) {
+            tumblrPublicationService.update(page);
+            return;
+        }
+
+        long pageId = page.getId();
+        pending.compute(pageId, (id, former) -> {
+            if (former != null) {
+                former.cancel(false);
+            }
+            return scheduler.schedule(() -> update(id), tumblrUpdateQuietPeriod, TimeUnit.SECONDS);
+        });
+    }
+
+    /**
+     * Cancels a pending update of the page.
+     *
+     * @param page
+     *            {@link Page} that is published or removed
+     */
+    public void cancel(Page page) {
+        ScheduledFuture<?> future = pending.remove(page.getId());
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * Checks if there is a pending update of the page.
+     *
+     * @param pageId
+     *            ID of the page
+     * @return {@code true} if an update is pending
+     */
+    public boolean isPending(long pageId) {
+        return pending.containsKey(pageId);
+    }
+
+    /**
+     * Returns the number of pending updates.
+     */
+    public int size() {
+        return pending.size();
+    }
+
+    /**
+     * Updates the page at Tumblr, with its current state.
+     *
+     * @param pageId
+     *            ID of the page to update
+     */
+    private void update(long pageId) {
+        // Only remove this update, but not a newer one that is still waiting
+        pending.computeIfPresent(pageId, (id, future) -> future.getDelay(TimeUnit.NANOSECONDS) > 0 ? future : null);
+        try {
+            transactionTemplate.execute(tx -> {
+                Page page = pageDao.fetch(pageId);
+                if (page != null && page.isPromoted() && page.isPublishedState()
+                        && page.getPublication() != null
+                        && tumblrPublicationService.isRegistered(page)) {
+                    tumblrPublicationService.update(page);
+                }
+                return null;
+            });
+        } catch (Exception ex) {
+            log.warn("Failed to update a Tumblr for page id " + pageId, ex);
+        }
+    }
+
+}
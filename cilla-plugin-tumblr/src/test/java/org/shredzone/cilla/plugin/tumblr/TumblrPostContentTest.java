@@ -0,0 +1,60 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.tumblr;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.util.Date;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link TumblrPostContent}.
+ */
+public class TumblrPostContentTest {
+
+    private static final Date DATE = new Date(1650000000000L);
+
+    @Test
+    public void fingerprintTest() {
+        String fp = new TumblrPostContent("Title", "<p>Body</p>", DATE, asList("foo", "bar"), "published").fingerprint();
+
+        assertThat(new TumblrPostContent("Title", "<p>Body</p>", new Date(DATE.getTime()),
+                asList("foo", "bar"), "published").fingerprint(), is(fp));
+
+        assertThat(new TumblrPostContent("Title2", "<p>Body</p>", DATE, asList("foo", "bar"), "published").fingerprint(), not(fp));
+        assertThat(new TumblrPostContent("Title", "<p>Body2</p>", DATE, asList("foo", "bar"), "published").fingerprint(), not(fp));
+        assertThat(new TumblrPostContent("Title", "<p>Body</p>", null, asList("foo", "bar"), "published").fingerprint(), not(fp));
+        assertThat(new TumblrPostContent("Title", "<p>Body</p>", DATE, asList("bar", "foo"), "published").fingerprint(), not(fp));
+        assertThat(new TumblrPostContent("Title", "<p>Body</p>", DATE, asList("foo", "bar"), "draft").fingerprint(), not(fp));
+    }
+
+    @Test
+    public void fieldBoundaryTest() {
+        String fp1 = new TumblrPostContent("ab", "c", DATE, asList("x", "y"), null).fingerprint();
+        String fp2 = new TumblrPostContent("a", "bc", DATE, asList("x", "y"), null).fingerprint();
+        String fp3 = new TumblrPostContent("ab", "c", DATE, asList("xy"), null).fingerprint();
+        assertThat(fp1, not(fp2));
+        assertThat(fp1, not(fp3));
+    }
+
+}
@@ -0,0 +1,211 @@
+/*
+ * cilla - Blog Management System
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   https://cilla.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.cilla.plugin.tumblr;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.shredzone.cilla.plugin.publication.TestBeans.*;
+import static org.shredzone.cilla.plugin.tumblr.TumblrPublicationServiceImpl.*;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.shredzone.cilla.core.model.Page;
+import org.shredzone.cilla.core.repository.PageDao;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Unit tests for {@link TumblrPostQuota}, against an embedded H2 database.
+ */
+public class TumblrPostQuotaTest {
+    private static final String BLOG = "blog";
+    private static final AtomicInteger DATABASE = new AtomicInteger();
+
+    private final List<TumblrPostQuota> quotas = new ArrayList<>();
+    private final Map<Long, Page> pages = new ConcurrentHashMap<>();
+    private DataSource dataSource;
+    private PlatformTransactionManager transactionManager;
+
+    @Before
+    public void setup() {
+        dataSource = new DriverManagerDataSource("jdbc:h2:mem:quota" + DATABASE.incrementAndGet()
+                + ";DB_CLOSE_DELAY=-1");
+        transactionManager = new DataSourceTransactionManager(dataSource);
+    }
+
+    @After
+    public void shutdown() {
+        quotas.forEach(TumblrPostQuota::shutdown);
+    }
+
+    @Test
+    public void limitTest() {
+        TumblrPostQuota quota = createQuota(2);
+
+        assertThat(quota.acquire(BLOG, createPage(1L)), is(true));
+        assertThat(quota.acquire(BLOG, createPage(2L)), is(true));
+        assertThat(quota.acquire("other", createPage(3L)), is(true));
+
+        Page queued = createPage(4L);
+        assertThat(quota.acquire(BLOG, queued), is(false));
+        assertThat(queued.getProperties(), hasKey(PROPKEY_TUMBLR_QUEUED));
+        assertThat(quota.getQueueDepth(BLOG), is(1));
+        assertThat(quota.getQueueDepth(), is(1));
+    }
+
+    @Test
+    public void restartTest() throws InterruptedException {
+        TumblrPostQuota quota = createQuota(2);
+        assertThat(quota.acquire(BLOG, createPage(1L)), is(true));
+        assertThat(quota.acquire(BLOG, createPage(2L)), is(true));
+        quota.requeue(BLOG, createPage(3L));
+        quota.shutdown();
+
+        // the window and the queue survive a restart, and are shared with other nodes
+        TumblrPostQuota restarted = createQuota(2);
+        await(() -> restarted.getQueueDepth(BLOG) == 1, 5000L);
+        assertThat(restarted.acquire(BLOG, createPage(4L)), is(false));
+        assertThat(restarted.getQueueDepth(BLOG), is(2));
+    }
+
+    @Test
+    public void backoffTest() throws InterruptedException {
+        TumblrPostQuota quota = createQuota(10);
+        quota.exhausted(BLOG, createPage(1L));
+
+        // the blog is paused, although its quota is not exhausted
+        assertThat(quota.acquire(BLOG, createPage(1L)), is(false));
+        assertThat(quota.acquire("other", createPage(2L)), is(true));
+        assertThat(quota.getQueueDepth(BLOG), is(1));
+
+        // the queued page is next after the pause
+        await(() -> quota.acquire(BLOG, createPage(1L)), 5000L);
+        assertThat(quota.getQueueDepth(BLOG), is(0));
+
+        // an accepted post ends the pause
+        quota.exhausted(BLOG, createPage(3L));
+        quota.accepted(BLOG);
+        assertThat(quota.acquire(BLOG, createPage(3L)), is(true));
+    }
+
+    @Test
+    public void dropTest() throws InterruptedException {
+        TumblrPostQuota quota = createQuota(1);
+        inject(quota, "tumblrPostLimitWindow", 1L);
+
+        List<Long> published = new ArrayList<>();
+        inject(quota, "tumblrPublicationService", stub(TumblrPublicationService.class, (method, args) -> {
+            if ("publish".equals(method)) {
+                Page page = (Page) args[0];
+                if (page.getId() != 3L) {
+                    // page 3 is refused by the service, e.g. because it is being posted
+                    published.add(page.getId());
+                    quota.acquire(BLOG, page);
+                }
+            }
+            return false;
+        }));
+
+        assertThat(quota.acquire(BLOG, createPage(1L)), is(true));
+
+        Page noBlog = createPage(2L);
+        noBlog.getCreator().getProperties().remove(PROPKEY_TUMBLR_BLOGNAME);
+        pages.put(2L, noBlog);
+        assertThat(quota.acquire(BLOG, noBlog), is(false));
+        assertThat(quota.acquire(BLOG, createPage(3L)), is(false));
+        assertThat(quota.acquire(BLOG, createPage(4L)), is(false));
+        assertThat(quota.getQueueDepth(BLOG), is(3));
+
+        // heads that cannot be published do not block the queue
+        Thread.sleep(1100L);
+        quota.release();
+        assertThat(published, contains(4L));
+        assertThat(quota.getQueueDepth(BLOG), is(0));
+        assertThat(pages.get(2L).getProperties(), not(hasKey(PROPKEY_TUMBLR_QUEUED)));
+        assertThat(pages.get(3L).getProperties(), not(hasKey(PROPKEY_TUMBLR_QUEUED)));
+    }
+
+    @Test
+    public void rollbackTest() {
+        TumblrPostQuota quota = createQuota(1);
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+
+        tx.execute(status -> {
+            assertThat(quota.acquire(BLOG, createPage(1L)), is(true));
+            // the uncommitted post is counted
+            assertThat(quota.acquire(BLOG, createPage(2L)), is(false));
+            status.setRollbackOnly();
+            return null;
+        });
+
+        // the slot was returned, and the queued page is next
+        Page queued = createPage(2L);
+        assertThat(quota.acquire(BLOG, queued), is(true));
+        assertThat(queued.getProperties(), not(hasKey(PROPKEY_TUMBLR_QUEUED)));
+
+        tx.execute(status -> quota.acquire(BLOG, createPage(3L)));
+        assertThat(quota.acquire(BLOG, createPage(4L)), is(false));
+    }
+
+    /**
+     * Creates a {@link TumblrPostQuota} with the given post limit per day.
+     */
+    private TumblrPostQuota createQuota(int limit) {
+        TumblrPostQuota quota = new TumblrPostQuota();
+        inject(quota, "tumblrPostLimit", limit);
+        inject(quota, "tumblrPostLimitWindow", 86400L);
+        inject(quota, "tumblrQuotaCheckInterval", 3600L);
+        inject(quota, "tumblrBackoff", 1L);
+        inject(quota, "tumblrMasterEnabled", true);
+        inject(quota, "pageDao", stub(PageDao.class, (method, args) ->
+                "fetch".equals(method) ? pages.get(args[0]) : new ArrayList<>()));
+        inject(quota, "dataSource", dataSource);
+        inject(quota, "transactionManager", transactionManager);
+        quota.setup();
+        quotas.add(quota);
+        return quota;
+    }
+
+    /**
+     * Creates a published {@link Page} of the blog.
+     */
+    private Page createPage(long id) {
+        Page page = new Page();
+        page.setId(id);
+        page.setPromoted(true);
+        page.setPublication(new Date(1650000000000L + id));
+        page.getCreator().getProperties().put(PROPKEY_TUMBLR_BLOGNAME, BLOG);
+        pages.putIfAbsent(id, page);
+        return page;
+    }
+
+}